@@ -0,0 +1,126 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+import com.ztory.lib.happening.RunObjectBatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sending batchSize payloads with one Happening.sendEvent() call per payload against
+ * one Happening.sendEvents() call, to listeners with a plain RunObject and to listeners with a
+ * RunObjectBatch callback. Scores are per batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchSendBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    private static final RunObjectBatch RETURN_BATCH_SIZE = new RunObjectBatch() {
+        @Override
+        public Object rBatch(Collection<?> payloads) {
+            return payloads.size();
+        }
+
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    @Param({"10", "100", "1000"})
+    public int batchSize;
+
+    @Param({"10"})
+    public int listenerCount;
+
+    private final ArrayList<Object> mPayloads = new ArrayList<>();
+
+    private String mEventName, mBatchEventName;
+
+    @Setup
+    public void setup() {
+
+        mEventName = Happening.getEventName(getClass(), "plain");
+        mBatchEventName = Happening.getEventName(getClass(), "batch");
+
+        for (int i = 0; i < listenerCount; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventName,
+                    Happening.GROUP_ID_GLOBAL
+            ).startListening();
+            new HappeningListener(
+                    RETURN_BATCH_SIZE,
+                    mBatchEventName,
+                    Happening.GROUP_ID_GLOBAL
+            ).startListening();
+        }
+
+        for (int i = 0; i < batchSize; i++) {
+            mPayloads.add(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Happening.removeListeners(mEventName, mBatchEventName);
+        mPayloads.clear();
+    }
+
+    @Benchmark
+    public void sendEventLoop(Blackhole blackhole) {
+        for (Object iterPayload : mPayloads) {
+            blackhole.consume(
+                    Happening.sendEvent(Happening.GROUP_ID_GLOBAL, mEventName, iterPayload)
+            );
+        }
+    }
+
+    @Benchmark
+    public Object sendEvents() {
+        return Happening.sendEvents(mEventName, mPayloads);
+    }
+
+    @Benchmark
+    public void sendEventLoopToBatchListeners(Blackhole blackhole) {
+        for (Object iterPayload : mPayloads) {
+            blackhole.consume(
+                    Happening.sendEvent(Happening.GROUP_ID_GLOBAL, mBatchEventName, iterPayload)
+            );
+        }
+    }
+
+    @Benchmark
+    public Object sendEventsToBatchListeners() {
+        return Happening.sendEvents(mBatchEventName, mPayloads);
+    }
+
+}
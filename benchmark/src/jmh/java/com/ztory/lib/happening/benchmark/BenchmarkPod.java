@@ -0,0 +1,50 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.deed.DeedException;
+import com.ztory.lib.happening.deed.DeedSetter;
+import com.ztory.lib.happening.pod.HappeningPod;
+import com.ztory.lib.happening.pod.PodCache;
+import com.ztory.lib.happening.pod.PodResult;
+import com.ztory.lib.happening.typed.TypedMap;
+import com.ztory.lib.happening.typed.TypedPayload;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Minimal HappeningPod used by the pod benchmarks, podProcess() returns the query payload as
+ * the result data without doing any work, so only the pod overhead is measured.
+ */
+public class BenchmarkPod extends HappeningPod<Object> {
+
+    public BenchmarkPod(Executor theExecutor) {
+        super(theExecutor, false);
+    }
+
+    @Override
+    protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+    void podProcess(Q query, DeedSetter<Object, P> result) throws Exception {
+        result.setSuccess(podSecret(), query.getPayload());
+    }
+
+    /**
+     * Only used when a PodCache has been set with setCache(), queries are cached by payload.
+     */
+    @Override
+    protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+    Object podCacheKey(Q query) {
+        return query.getPayload();
+    }
+
+    public void setCache(PodCache<Object> cache) {
+        podSetCache(cache);
+    }
+
+    public PodResult<Object, Object> newResult() {
+        return new PodResult<>(this, podGetUniqueTaskId());
+    }
+
+    public void finish(PodResult<Object, Object> result, Object data) throws DeedException {
+        result.setSuccess(podSecret(), data);
+    }
+
+}
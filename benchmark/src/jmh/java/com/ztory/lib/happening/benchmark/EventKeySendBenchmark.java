@@ -0,0 +1,86 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.EventKey;
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares publishing with an eventName built by getEventName() on every send, with a cached
+ * eventName String and with an EventKey, to a single listener.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventKeySendBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    private static final String EVENT_NAME_SUFFIX = "keyed";
+
+    private final Object mPayload = new Object();
+
+    private EventKey mEventKey;
+
+    private String mEventName;
+
+    private HappeningListener mListener;
+
+    @Setup
+    public void setup() {
+        mEventKey = Happening.key(getClass(), EVENT_NAME_SUFFIX);
+        mEventName = mEventKey.eventName;
+        mListener = new HappeningListener(
+                RETURN_PAYLOAD,
+                mEventKey,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mListener.endListening();
+    }
+
+    @Benchmark
+    public void publishBuiltEventName() {
+        Happening.publish(
+                Happening.GROUP_ID_GLOBAL,
+                Happening.getEventName(getClass(), EVENT_NAME_SUFFIX),
+                mPayload
+        );
+    }
+
+    @Benchmark
+    public void publishEventName() {
+        Happening.publish(Happening.GROUP_ID_GLOBAL, mEventName, mPayload);
+    }
+
+    @Benchmark
+    public void publishEventKey() {
+        Happening.publish(Happening.GROUP_ID_GLOBAL, mEventKey, mPayload);
+    }
+
+}
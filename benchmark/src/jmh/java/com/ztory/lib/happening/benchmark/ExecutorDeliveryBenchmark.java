@@ -0,0 +1,96 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningExecutors;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes to listeners that have their own Executor. With the "direct" executor each pooled
+ * delivery is recycled before the next send, so gc.alloc.rate.norm shows what dispatch itself
+ * allocates (should be 0 B/op). "serial" runs the listeners through serial executors on a
+ * shared thread pool, where the queue nodes of the executors are allocated per delivery.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorDeliveryBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Param({"direct", "serial"})
+    public String executorType;
+
+    @Param({"1", "10"})
+    public int listenerCount;
+
+    private final Object mPayload = new Object();
+
+    private String mEventName;
+
+    private ExecutorService mThreadPool;
+
+    @Setup
+    public void setup() {
+
+        mEventName = Happening.getEventName(getClass(), "executor");
+        mThreadPool = Executors.newFixedThreadPool(2);
+
+        for (int i = 0; i < listenerCount; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventName,
+                    Happening.GROUP_ID_GLOBAL
+            ).setExecutor(
+                    "direct".equals(executorType)
+                            ? DIRECT
+                            : HappeningExecutors.newSerialExecutor(mThreadPool)
+            ).startListening();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Happening.removeListeners(mEventName);
+        mThreadPool.shutdown();
+    }
+
+    @Benchmark
+    public void publish() {
+        Happening.publish(Happening.GROUP_ID_GLOBAL, mEventName, mPayload);
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a group-scoped Happening.sendEvent() when the eventName has groupCount listeners that
+ * each listen to a different groupId, only one of them and the GROUP_ID_GLOBAL listener match.
+ * The send cost should stay flat as groupCount grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupScopedSendBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    @Param({"10", "1000", "5000"})
+    public int groupCount;
+
+    private final Object mPayload = new Object();
+
+    private int[] mGroupIds;
+
+    private int mSendGroupId;
+
+    private String mEventName;
+
+    @Setup
+    public void setup() {
+
+        mEventName = Happening.getEventName(getClass(), "group_scoped");
+        mGroupIds = new int[groupCount];
+
+        for (int i = 0; i < groupCount; i++) {
+            mGroupIds[i] = Happening.getUniqueCustomGroupId();
+            new HappeningListener(RETURN_PAYLOAD, mEventName, mGroupIds[i]).startListening();
+        }
+
+        new HappeningListener(
+                RETURN_PAYLOAD,
+                mEventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        mSendGroupId = mGroupIds[groupCount / 2];
+    }
+
+    @TearDown
+    public void tearDown() {
+        Happening.removeListeners(mEventName);
+    }
+
+    @Benchmark
+    public Object sendToOneGroup() {
+        return Happening.sendEvent(mSendGroupId, mEventName, mPayload);
+    }
+
+    @Benchmark
+    public Object sendToGlobal() {
+        return Happening.sendEvent(Happening.GROUP_ID_GLOBAL, mEventName, mPayload);
+    }
+
+}
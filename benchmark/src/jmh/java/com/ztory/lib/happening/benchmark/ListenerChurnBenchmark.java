@@ -0,0 +1,109 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding and removing listeners of an eventName that already has registeredCount
+ * listeners, one at a time with startListening() / endListening() and all at once with
+ * removeListeners(eventName).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerChurnBenchmark {
+
+    private static final int CHURN_COUNT = 10;
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    @Param({"10", "1000"})
+    public int registeredCount;
+
+    private String mEventName, mChurnEventName;
+
+    private HappeningListener mGlobalListener, mGroupListener;
+
+    @Setup
+    public void setup() {
+
+        mEventName = Happening.getEventName(getClass(), "churn");
+        mChurnEventName = Happening.getEventName(getClass(), "churn_all");
+
+        for (int i = 0; i < registeredCount; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventName,
+                    (i % 2 == 0) ? Happening.GROUP_ID_GLOBAL : Happening.getUniqueCustomGroupId()
+            ).startListening();
+        }
+
+        mGlobalListener = new HappeningListener(
+                RETURN_PAYLOAD,
+                mEventName,
+                Happening.GROUP_ID_GLOBAL
+        );
+
+        mGroupListener = new HappeningListener(
+                RETURN_PAYLOAD,
+                mEventName,
+                Happening.getUniqueCustomGroupId()
+        );
+    }
+
+    @TearDown
+    public void tearDown() {
+        Happening.removeListeners(mEventName, mChurnEventName);
+    }
+
+    @Benchmark
+    public void addRemoveGlobalListener() {
+        mGlobalListener.startListening();
+        mGlobalListener.endListening();
+    }
+
+    @Benchmark
+    public void addRemoveGroupListener() {
+        mGroupListener.startListening();
+        mGroupListener.endListening();
+    }
+
+    @Benchmark
+    public void addAndRemoveListenersByEventName() {
+
+        for (int i = 0; i < CHURN_COUNT; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mChurnEventName,
+                    Happening.GROUP_ID_GLOBAL
+            ).startListening();
+        }
+
+        Happening.removeListeners(mChurnEventName);
+    }
+
+}
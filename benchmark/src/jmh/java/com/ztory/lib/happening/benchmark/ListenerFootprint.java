@@ -0,0 +1,76 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+
+/**
+ * Prints the heap used by the Happening registry for 1M registered listeners, spread over 100
+ * eventNames. The listeners are created before measuring, so only the memory used by the
+ * registry itself is included. Run with: ./gradlew :benchmark:footprint
+ */
+public class ListenerFootprint {
+
+    private static final int LISTENER_COUNT = 1000000, EVENT_NAME_COUNT = 100;
+
+    public static void main(String[] args) throws Exception {
+        measure("unique groupId per listener", true);
+        measure("shared groupId", false);
+    }
+
+    private static void measure(String description, boolean uniqueGroupIds) throws Exception {
+
+        RunObject returnPayload = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return o;
+            }
+        };
+
+        String[] eventNames = new String[EVENT_NAME_COUNT];
+
+        for (int i = 0; i < EVENT_NAME_COUNT; i++) {
+            eventNames[i] = Happening.getEventName(ListenerFootprint.class, "footprint_" + i);
+        }
+
+        int sharedGroupId = Happening.getUniqueCustomGroupId();
+
+        HappeningListener[] listeners = new HappeningListener[LISTENER_COUNT];
+
+        for (int i = 0; i < LISTENER_COUNT; i++) {
+            listeners[i] = new HappeningListener(
+                    returnPayload,
+                    eventNames[i % EVENT_NAME_COUNT],
+                    uniqueGroupIds ? Happening.getUniqueCustomGroupId() : sharedGroupId
+            );
+        }
+
+        long usedBefore = getUsedHeap();
+
+        for (HappeningListener iterListener : listeners) {
+            iterListener.startListening();
+        }
+
+        long usedAfter = getUsedHeap();
+
+        System.out.println(
+                description + ": " +
+                ((usedAfter - usedBefore) / (double) LISTENER_COUNT) + " bytes per listener"
+        );
+
+        Happening.removeListeners(eventNames);
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.HappeningLog;
+import com.ztory.lib.happening.HappeningLogSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller-thread cost of a three field log line, through the varargs log() and through a
+ * LogEntry. Uses a sink that discards lines so that only the hot path is measured, run with
+ * the gc profiler to see the allocations of log().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+    private final String mEventName = "benchmark_event";
+
+    private int mGroupId = 1000, mUid = 42;
+
+    private HappeningLogSink mPreviousSink;
+
+    @Setup
+    public void setup() {
+
+        mPreviousSink = HappeningLog.getSink();
+
+        HappeningLog.setSink(new HappeningLogSink() {
+            @Override
+            public void write(String tag, String message) {
+                //discard
+            }
+        });
+
+        HappeningLog.LOG_ENABLED = true;
+    }
+
+    @TearDown
+    public void tearDown() {
+        HappeningLog.flush(5, TimeUnit.SECONDS);
+        HappeningLog.LOG_ENABLED = false;
+        HappeningLog.setSink(mPreviousSink);
+    }
+
+    @Benchmark
+    public void varargsLog() {
+        HappeningLog.log(LogBenchmark.class,
+                "SEND", mEventName,
+                "eventGroupId", mGroupId,
+                "uid", mUid
+        );
+    }
+
+    @Benchmark
+    public void entry() {
+        HappeningLog.entry(LogBenchmark.class)
+                .put("SEND", mEventName)
+                .put("eventGroupId", mGroupId)
+                .put("uid", mUid)
+                .commit();
+    }
+
+}
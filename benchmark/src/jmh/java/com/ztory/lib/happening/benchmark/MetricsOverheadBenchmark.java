@@ -0,0 +1,80 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.HappeningMetrics;
+import com.ztory.lib.happening.RunObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of HappeningMetrics by publishing to listenerCount listeners with metrics
+ * disabled and enabled, the difference is the per-send overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    @Param({"false", "true"})
+    public boolean metricsEnabled;
+
+    @Param({"1", "10"})
+    public int listenerCount;
+
+    private final Object mPayload = new Object();
+
+    private String mEventName;
+
+    @Setup
+    public void setup() {
+
+        mEventName = Happening.getEventName(getClass(), "metrics");
+
+        for (int i = 0; i < listenerCount; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventName,
+                    Happening.GROUP_ID_GLOBAL
+            ).startListening();
+        }
+
+        HappeningMetrics.setEnabled(metricsEnabled);
+    }
+
+    @TearDown
+    public void tearDown() {
+        HappeningMetrics.setEnabled(false);
+        HappeningMetrics.reset();
+        Happening.removeListeners(mEventName);
+    }
+
+    @Benchmark
+    public void publish() {
+        Happening.publish(Happening.GROUP_ID_GLOBAL, mEventName, mPayload);
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.pod.PodCache;
+import com.ztory.lib.happening.typed.Slab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures asynchronous HappeningPod.pod() calls that are answered by a PodCache, against the
+ * executor round-trip of PodRoundTripBenchmark.podAsync(), and the hit rate of both eviction
+ * policies for Zipf distributed keys. The hit rate is printed after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PodCacheBenchmark {
+
+    private static final int
+            CACHE_SIZE = 1000,
+            DISTINCT_KEY_COUNT = 100000,
+            KEY_COUNT = 1 << 20;
+
+    @Param({"0", "1"})
+    public int eviction;
+
+    private ExecutorService mExecutor;
+
+    private BenchmarkPod mPod;
+
+    private PodCache<Object> mCache;
+
+    private Integer[] mKeys;
+
+    private int mKeyIndex = 0;
+
+    @Setup
+    public void setup() {
+
+        mExecutor = Executors.newFixedThreadPool(2);
+        mCache = new PodCache<>(CACHE_SIZE).setEviction(eviction);
+        mPod = new BenchmarkPod(mExecutor);
+        mPod.setCache(mCache);
+
+        // Zipf distributed keys, a few keys are very popular and most are rarely requested
+        double[] cumulativeWeights = new double[DISTINCT_KEY_COUNT];
+        double totalWeight = 0;
+        for (int i = 0; i < DISTINCT_KEY_COUNT; i++) {
+            totalWeight += 1.0 / Math.pow(i + 1, 0.8);
+            cumulativeWeights[i] = totalWeight;
+        }
+
+        Random random = new Random(42);
+        mKeys = new Integer[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            int keyIndex = Arrays.binarySearch(
+                    cumulativeWeights,
+                    random.nextDouble() * totalWeight
+            );
+            mKeys[i] = (keyIndex < 0) ? -keyIndex - 1 : keyIndex;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printHitRate() {
+        System.out.println("hitRate=" + mCache.getHitRate());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public Object podCachedHit() {
+        return mPod.pod(true, new Slab<>(0)).getData();
+    }
+
+    @Benchmark
+    public Object podMixedKeys() {
+        return mPod.pod(false, new Slab<>(mKeys[mKeyIndex++ & (KEY_COUNT - 1)])).getData();
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.deed.Deed;
+import com.ztory.lib.happening.deed.DeedCallback;
+import com.ztory.lib.happening.deed.DeedException;
+import com.ztory.lib.happening.pod.PodResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating a PodResult, adding listenerCount listeners to it and finishing it with
+ * setSuccess(), which notifies the listeners and broadcasts the result from the pod.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PodResultBenchmark {
+
+    private static final DeedCallback<Deed<Object, Object>> NO_OP_CALLBACK =
+            new DeedCallback<Deed<Object, Object>>() {
+                @Override
+                public void callback(Deed<Object, Object> result) {
+
+                }
+            };
+
+    @Param({"0", "1", "10"})
+    public int listenerCount;
+
+    private final Object mData = new Object();
+
+    private BenchmarkPod mPod;
+
+    @Setup
+    public void setup() {
+        mPod = new BenchmarkPod(null);
+    }
+
+    @Benchmark
+    public Object notifyListeners() throws DeedException {
+
+        PodResult<Object, Object> result = mPod.newResult();
+
+        for (int i = 0; i < listenerCount; i++) {
+            result.addListener(NO_OP_CALLBACK);
+        }
+
+        mPod.finish(result, mData);
+
+        return result;
+    }
+
+    @Benchmark
+    public Object addListenerWhenFinished() throws DeedException {
+
+        PodResult<Object, Object> result = mPod.newResult();
+
+        mPod.finish(result, mData);
+
+        for (int i = 0; i < listenerCount; i++) {
+            result.addListener(NO_OP_CALLBACK);
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.deed.Deed;
+import com.ztory.lib.happening.deed.DeedCallback;
+import com.ztory.lib.happening.typed.Slab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a HappeningPod.pod() round-trip, from query to finished Deed, when the pod runs
+ * podProcess() on the calling thread and when it runs it on the pod Executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PodRoundTripBenchmark {
+
+    private final Object mPayload = new Object();
+
+    private ExecutorService mExecutor;
+
+    private BenchmarkPod mPod;
+
+    @Setup
+    public void setup() {
+        // Not podCreateExecutor(), it reads Build.VERSION which only exists as a stub here
+        mExecutor = Executors.newFixedThreadPool(2);
+        mPod = new BenchmarkPod(mExecutor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public Object podSync() {
+        return mPod.pod(false, new Slab<>(mPayload)).getData();
+    }
+
+    @Benchmark
+    public Object podAsync() throws InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Deed<Object, Object> deed = mPod.pod(true, new Slab<>(mPayload));
+
+        deed.addListener(new DeedCallback<Deed<Object, Object>>() {
+            @Override
+            public void callback(Deed<Object, Object> result) {
+                latch.countDown();
+            }
+        });
+
+        latch.await();
+
+        return deed.getData();
+    }
+
+}
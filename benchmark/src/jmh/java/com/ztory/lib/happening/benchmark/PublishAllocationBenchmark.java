@@ -0,0 +1,104 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+import com.ztory.lib.happening.RunReduce;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sendEvent(), which collects listener return values in an ArrayList, with publish()
+ * and publishReduce() that should not allocate at all. Check the gc.alloc.rate.norm column of
+ * the gc profiler (enabled in build.gradle), it should be 0 B/op for publish and publishReduce.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishAllocationBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    /** Counts the listeners that returned a value, in a mutable accumulator. */
+    private static final RunReduce<int[]> COUNT_RETURNS = new RunReduce<int[]>() {
+        @Override
+        public int[] r(int[] accumulator, Object listenerReturn) {
+            if (listenerReturn != null) {
+                accumulator[0]++;
+            }
+            return accumulator;
+        }
+    };
+
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+
+    private final Object mPayload = new Object();
+
+    private final int[] mAccumulator = new int[1];
+
+    private String mEventName;
+
+    @Setup
+    public void setup() {
+
+        mEventName = Happening.getEventName(getClass(), "publish");
+
+        for (int i = 0; i < listenerCount; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventName,
+                    Happening.GROUP_ID_GLOBAL
+            ).startListening();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Happening.removeListeners(mEventName);
+    }
+
+    @Benchmark
+    public Object sendEvent() {
+        return Happening.sendEvent(Happening.GROUP_ID_GLOBAL, mEventName, mPayload);
+    }
+
+    @Benchmark
+    public void publish() {
+        Happening.publish(Happening.GROUP_ID_GLOBAL, mEventName, mPayload);
+    }
+
+    @Benchmark
+    public int publishReduce() {
+        mAccumulator[0] = 0;
+        return Happening.publishReduce(
+                Happening.GROUP_ID_GLOBAL,
+                mEventName,
+                mPayload,
+                mAccumulator,
+                COUNT_RETURNS
+        )[0];
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures registering releasedCount listeners on a new groupId and releasing them with
+ * Happening.removeListeners(int) while registeredCount other listeners stay registered.
+ * The cost should depend on releasedCount, not on registeredCount.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReleaseGroupBenchmark {
+
+    private static final int EVENT_NAME_COUNT = 100;
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    @Param({"1000", "100000"})
+    public int registeredCount;
+
+    @Param({"1", "10"})
+    public int releasedCount;
+
+    private String[] mEventNames;
+
+    private int mRegisteredGroupId;
+
+    @Setup
+    public void setup() {
+
+        mEventNames = new String[EVENT_NAME_COUNT];
+
+        for (int i = 0; i < EVENT_NAME_COUNT; i++) {
+            mEventNames[i] = Happening.getEventName(getClass(), "release_" + i);
+        }
+
+        mRegisteredGroupId = Happening.getUniqueCustomGroupId();
+
+        for (int i = 0; i < registeredCount; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventNames[i % EVENT_NAME_COUNT],
+                    Happening.getUniqueCustomGroupId(),
+                    mRegisteredGroupId
+            ).startListening();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Happening.removeListeners(mRegisteredGroupId);
+    }
+
+    @Benchmark
+    public void registerAndReleaseGroup() {
+
+        int releaseGroupId = Happening.getUniqueCustomGroupId();
+
+        for (int i = 0; i < releasedCount; i++) {
+            new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventNames[i % EVENT_NAME_COUNT],
+                    releaseGroupId
+            ).startListening();
+        }
+
+        Happening.removeListeners(releaseGroupId);
+    }
+
+}
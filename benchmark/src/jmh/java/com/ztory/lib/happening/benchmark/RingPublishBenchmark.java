@@ -0,0 +1,101 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+import com.ztory.lib.happening.ring.HappeningRing;
+import com.ztory.lib.happening.ring.RingWaitStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HappeningRing.publish() throughput with listenerCount consumer threads, for each
+ * RingWaitStrategy. The publisher is gated by the slowest consumer, so the score is the rate
+ * that events are consumed at. Needs at least listenerCount + 1 free cores for busySpin.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class RingPublishBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    @Param({"busySpin", "yield", "park"})
+    public String waitStrategy;
+
+    @Param({"1", "2"})
+    public int listenerCount;
+
+    @Param({"1024"})
+    public int bufferSize;
+
+    private final Object mPayload = new Object();
+
+    private HappeningRing mRing;
+
+    private String mEventName;
+
+    @Setup
+    public void setup() {
+
+        mEventName = Happening.getEventName(getClass(), "ring");
+
+        RingWaitStrategy strategy;
+
+        if ("busySpin".equals(waitStrategy)) {
+            strategy = RingWaitStrategy.BUSY_SPIN;
+        }
+        else if ("yield".equals(waitStrategy)) {
+            strategy = RingWaitStrategy.YIELD;
+        }
+        else {
+            strategy = RingWaitStrategy.parking(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+
+        mRing = new HappeningRing(bufferSize, strategy);
+
+        for (int i = 0; i < listenerCount; i++) {
+            mRing.addListener(new HappeningListener(
+                    RETURN_PAYLOAD,
+                    mEventName,
+                    Happening.GROUP_ID_GLOBAL
+            ));
+        }
+
+        mRing.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRing.halt();
+    }
+
+    @Benchmark
+    public void publish() {
+        mRing.publish(mEventName, mPayload);
+    }
+
+}
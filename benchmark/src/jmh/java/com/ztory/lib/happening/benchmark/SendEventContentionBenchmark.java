@@ -0,0 +1,98 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.RunObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Happening.sendEvent() throughput with an increasing number of concurrent senders on
+ * the same eventName. Since senders only read the published listener snapshot the total
+ * throughput should scale with the number of available cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendEventContentionBenchmark {
+
+    private static final RunObject RETURN_PAYLOAD = new RunObject() {
+        @Override
+        public Object r(Object o) {
+            return o;
+        }
+    };
+
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+
+    private final Object mPayload = new Object();
+
+    private int mGroupId;
+
+    private String mEventName;
+
+    @Setup
+    public void setup() {
+
+        mGroupId = Happening.getUniqueCustomGroupId();
+        mEventName = Happening.getEventName(getClass(), "contention");
+
+        for (int i = 0; i < listenerCount; i++) {
+            new HappeningListener(RETURN_PAYLOAD, mEventName, mGroupId).startListening();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Happening.removeListeners(mGroupId);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object sendThreads1() {
+        return Happening.sendEvent(mGroupId, mEventName, mPayload);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object sendThreads2() {
+        return Happening.sendEvent(mGroupId, mEventName, mPayload);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object sendThreads4() {
+        return Happening.sendEvent(mGroupId, mEventName, mPayload);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object sendThreads8() {
+        return Happening.sendEvent(mGroupId, mEventName, mPayload);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object sendThreadsMax() {
+        return Happening.sendEvent(mGroupId, mEventName, mPayload);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.ztory.lib.happening.benchmark;
+
+import com.ztory.lib.happening.typed.Slab;
+import com.ztory.lib.happening.typed.TypedMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a Slab query with putSlab() and reading it back with typed().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlabBenchmark {
+
+    private static final Integer MODE_VALUE = 44;
+
+    private final Object mPayload = new Object();
+
+    private Slab<Object> mSlab;
+
+    @Setup
+    public void setup() {
+        mSlab = new Slab<>(mPayload)
+                .putSlab(TypedMap.MODE, MODE_VALUE)
+                .putSlab(TypedMap.NAME, "name")
+                .putSlab(TypedMap.ASYNC, Boolean.TRUE);
+    }
+
+    @Benchmark
+    public Object putSlab() {
+        return new Slab<>(mPayload)
+                .putSlab(TypedMap.MODE, MODE_VALUE)
+                .putSlab(TypedMap.NAME, "name")
+                .putSlab(TypedMap.ASYNC, Boolean.TRUE);
+    }
+
+    @Benchmark
+    public int typed() {
+        Integer mode = mSlab.typed(TypedMap.MODE);
+        return mode;
+    }
+
+    @Benchmark
+    public int typedDefault() {
+        return mSlab.typed(TypedMap.MODE, -1) + mSlab.typed(TypedMap.ID, -1);
+    }
+
+    @Benchmark
+    public Object getPayload() {
+        return mSlab.getPayload();
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.ztory.lib.happening;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers only the latest payload sent to one conflating listener for one eventName in one
+ * eventGroupId. Sends replace the pending payload and schedule this Runnable only if it is not
+ * already scheduled, so while the listener is busy or its Executor is backed up any number of
+ * sends are merged into one delivery of the last payload, and deliveries of the same eventName
+ * and groupId never overlap.
+ * A delivery that has run and has nothing pending retires and removes itself from its listener,
+ * so listeners only keep deliveries for the eventNames and groupIds that are in flight. Sends
+ * that find a retired delivery replace it with a new one, which can only be scheduled once the
+ * retired delivery is done.
+ */
+final class ConflatedDelivery implements Runnable {
+
+    /** Marks that no payload is pending, payloads themselves may be null. */
+    private static final Object NONE = new Object();
+
+    /** Marks that this delivery has been removed from its listener and takes no more sends. */
+    private static final Object RETIRED = new Object();
+
+    final String eventName;
+
+    final int eventGroupId;
+
+    private final HappeningListener mListener;
+
+    private final AtomicReference<Object> mPending = new AtomicReference<>(NONE);
+
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+    private volatile Executor mExecutor;
+
+    ConflatedDelivery(HappeningListener theListener, String theEventName, int theEventGroupId) {
+        mListener = theListener;
+        eventName = theEventName;
+        eventGroupId = theEventGroupId;
+    }
+
+    /**
+     * @return false if this delivery has retired, then payload must be offered to a new one
+     */
+    boolean offer(Executor executor, Object payload) {
+
+        mExecutor = executor;
+
+        Object pending;
+
+        do {
+            pending = mPending.get();
+
+            if (pending == RETIRED) {
+                return false;
+            }
+        } while (!mPending.compareAndSet(pending, payload));
+
+        if (mScheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+
+        return true;
+    }
+
+    @Override
+    public void run() {
+
+        Object payload = mPending.getAndSet(NONE);
+
+        try {
+            if (payload != NONE) {
+
+                RunObject listenerRun = mListener.getListenerRun();
+
+                if (listenerRun != null) {
+                    listenerRun.r(payload);
+                }
+            }
+        } finally {
+
+            // Retired while still scheduled, so no other run of this delivery can overlap
+            if (mPending.compareAndSet(NONE, RETIRED)) {
+                mListener.removeConflatedDelivery(this);
+            }
+            else {
+                mScheduled.set(false);
+
+                // A send that saw mScheduled still true relies on this check to be delivered
+                if (mPending.get() != NONE && mScheduled.compareAndSet(false, true)) {
+                    mExecutor.execute(this);
+                }
+            }
+        }
+    }
+
+}
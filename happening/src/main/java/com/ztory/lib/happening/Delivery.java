@@ -0,0 +1,106 @@
+package com.ztory.lib.happening;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs one listener on its Executor, the return value of the listener is ignored. If mPayloads
+ * is not null then the listener gets the batch, otherwise mPayload.
+ * <p>
+ * Deliveries are recycled through a small pool instead of being allocated for every event and
+ * listener. Each pool slot is taken with a CAS from the Delivery to null, so a Delivery is owned
+ * by exactly one thread or slot at a time and there is no linked structure that could suffer
+ * from ABA. Slots are probed from an index derived from the
+ * listener uid, so that a listener's deliveries are returned to the slots it takes them from.
+ */
+final class Delivery implements Runnable {
+
+    private static final int
+            POOL_SIZE = 256,
+            POOL_MASK = POOL_SIZE - 1,
+            PROBE_COUNT = 4;
+
+    private static final AtomicReferenceArray<Delivery> sPool =
+            new AtomicReferenceArray<>(POOL_SIZE);
+
+    private int mPoolIndex;
+    private RunObject mListenerRun;
+    private Object mPayload;
+    private Collection<?> mPayloads;
+
+    private Delivery() {
+
+    }
+
+    /**
+     * @return a pooled Delivery, or a new one if none was found, that is owned by the caller
+     * until it has been run
+     */
+    static Delivery obtain(
+            int listenerUid,
+            RunObject listenerRun,
+            Object payload,
+            Collection<?> payloads
+    ) {
+        int poolIndex = (listenerUid * PROBE_COUNT) & POOL_MASK;
+
+        Delivery delivery = null;
+
+        for (int i = 0; i < PROBE_COUNT; i++) {
+
+            int index = (poolIndex + i) & POOL_MASK;
+            Delivery pooled = sPool.get(index);
+
+            if (pooled != null && sPool.compareAndSet(index, pooled, null)) {
+                delivery = pooled;
+                break;
+            }
+        }
+
+        if (delivery == null) {
+            delivery = new Delivery();
+        }
+
+        delivery.mPoolIndex = poolIndex;
+        delivery.mListenerRun = listenerRun;
+        delivery.mPayload = payload;
+        delivery.mPayloads = payloads;
+
+        return delivery;
+    }
+
+    @Override
+    public void run() {
+
+        RunObject listenerRun = mListenerRun;
+        Object payload = mPayload;
+        Collection<?> payloads = mPayloads;
+
+        // Recycle before invoking, the fields have been read and an exception cannot leak it
+        mListenerRun = null;
+        mPayload = null;
+        mPayloads = null;
+        recycle();
+
+        if (payloads == null) {
+            listenerRun.r(payload);
+        }
+        else {
+            Happening.deliverBatch(listenerRun, payloads, null);
+        }
+    }
+
+    private void recycle() {
+        for (int i = 0; i < PROBE_COUNT; i++) {
+            int index = (mPoolIndex + i) & POOL_MASK;
+
+            // No CAS needed, if two threads race for an empty slot one Delivery is just dropped
+            if (sPool.get(index) == null) {
+                sPool.set(index, this);
+                return;
+            }
+        }
+        //pool region is full, leave this Delivery to the garbage collector
+    }
+
+}
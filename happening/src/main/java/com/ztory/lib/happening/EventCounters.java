@@ -0,0 +1,28 @@
+package com.ztory.lib.happening;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live metrics of one eventName, updated by sends while HappeningMetrics is enabled.
+ */
+final class EventCounters {
+
+    final String eventName;
+
+    final AtomicLong
+            sendCount = new AtomicLong(),
+            matchedListenerCount = new AtomicLong();
+
+    final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    EventCounters(String theEventName) {
+        eventName = theEventName;
+    }
+
+    void recordSend(int matchedListeners, long nanos) {
+        sendCount.incrementAndGet();
+        matchedListenerCount.addAndGet(matchedListeners);
+        sendLatency.record(nanos);
+    }
+
+}
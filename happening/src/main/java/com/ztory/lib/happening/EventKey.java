@@ -0,0 +1,33 @@
+package com.ztory.lib.happening;
+
+/**
+ * Handle for an eventName obtained from HappeningHub.key(), there is only one instance per
+ * eventName and hub so keys can be compared by reference. Holds a direct reference to the
+ * listeners of the eventName, so sending with a key or registering a HappeningListener created
+ * with a key does not need to look up the eventName.
+ */
+public final class EventKey {
+
+    /** Dense id, keys of a hub are numbered from 0 in the order they are created. */
+    public final int id;
+
+    public final String eventName;
+
+    final EventListeners listeners;
+
+    /** The hub that created this key, keys can only be used with this hub. */
+    final HappeningHub hub;
+
+    EventKey(int theId, String theEventName, EventListeners theListeners, HappeningHub theHub) {
+        id = theId;
+        eventName = theEventName;
+        listeners = theListeners;
+        hub = theHub;
+    }
+
+    @Override
+    public String toString() {
+        return eventName;
+    }
+
+}
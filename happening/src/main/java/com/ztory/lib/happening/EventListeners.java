@@ -0,0 +1,246 @@
+package com.ztory.lib.happening;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * The listeners registered for one eventName in a HappeningHub, indexed by listenGroupId so that
+ * sending an event to a groupId only visits the listeners of that groupId and the listeners of
+ * GROUP_ID_GLOBAL. All values are immutable ListenerSnapshot instances so they can be read
+ * without locking, the methods that modify them must only be called while holding the lock of
+ * the hub.
+ */
+final class EventListeners {
+
+    /** Listeners with listenGroupId == GROUP_ID_GLOBAL, never null. */
+    volatile ListenerSnapshot globalListeners = ListenerSnapshot.EMPTY;
+
+    /** Listeners with listenGroupId != GROUP_ID_GLOBAL, keyed by listenGroupId. */
+    final IntMap<ListenerSnapshot> groupListeners = new IntMap<>();
+
+    /** If not null then sendEvent() dispatches this eventName asynchronously on this Executor. */
+    volatile Executor asyncExecutor;
+
+    /** If true then deliveries of this eventName on an Executor are conflated. */
+    volatile boolean conflate;
+
+    /** If not null then this instance is referenced by the key and must never be removed. */
+    volatile EventKey key;
+
+    /** Cached HappeningMetrics counters of the eventName, set on the first send when enabled. */
+    volatile EventCounters metrics;
+
+    /** Not null if this instance is a WildcardTrie bucket, the pattern that it was built for. */
+    String wildcardPattern;
+
+    /**
+     * @param groupId the groupId of a sent event
+     * @return the listeners of groupId, not including the GROUP_ID_GLOBAL listeners, or null
+     */
+    ListenerSnapshot getGroupListeners(int groupId) {
+        if (groupId == Happening.GROUP_ID_GLOBAL) {
+            return null;
+        }
+        return groupListeners.get(groupId);
+    }
+
+    void add(HappeningListener listener) {
+        if (listener.listenGroupId == Happening.GROUP_ID_GLOBAL) {
+            globalListeners = globalListeners.insert(listener);
+        }
+        else {
+            ListenerSnapshot snapshot = groupListeners.get(listener.listenGroupId);
+            if (snapshot == null) {
+                snapshot = ListenerSnapshot.EMPTY;
+            }
+            groupListeners.put(listener.listenGroupId, snapshot.insert(listener));
+        }
+    }
+
+    /**
+     * @param uid the uid of the listener to remove
+     * @param releaseIndex the removed listener is unregistered from this index
+     * @return true if a listener was removed
+     */
+    boolean remove(int uid, ReleaseIndex releaseIndex) {
+
+        ListenerSnapshot snapshot = globalListeners;
+        ListenerSnapshot removedSnapshot = snapshot.remove(uid, releaseIndex);
+
+        if (removedSnapshot != snapshot) {
+            putGlobalListeners(removedSnapshot);
+            return true;
+        }
+
+        for (int i = 0; i < groupListeners.capacity(); i++) {
+
+            snapshot = groupListeners.valueAt(i);
+
+            if (snapshot == null) {
+                continue;
+            }
+
+            removedSnapshot = snapshot.remove(uid, releaseIndex);
+
+            if (removedSnapshot != snapshot) {
+                putGroupListeners(groupListeners.keyAt(i), removedSnapshot);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Same as remove(int, ReleaseIndex) but only looks in the listenGroupId of listener.
+     * @param listener the listener to remove
+     * @param releaseIndex the removed listener is unregistered from this index
+     * @return true if the listener was removed
+     */
+    boolean remove(HappeningListener listener, ReleaseIndex releaseIndex) {
+
+        ListenerSnapshot snapshot = (listener.listenGroupId == Happening.GROUP_ID_GLOBAL)
+                ? globalListeners
+                : groupListeners.get(listener.listenGroupId);
+
+        if (snapshot == null) {
+            return false;
+        }
+
+        ListenerSnapshot removedSnapshot = snapshot.remove(listener.uid, releaseIndex);
+
+        if (removedSnapshot == snapshot) {
+            return false;
+        }
+
+        if (listener.listenGroupId == Happening.GROUP_ID_GLOBAL) {
+            putGlobalListeners(removedSnapshot);
+        }
+        else {
+            putGroupListeners(listener.listenGroupId, removedSnapshot);
+        }
+
+        return true;
+    }
+
+    /**
+     * @param ignoreGroupId if true then all listeners are removed
+     * @param releaseGroupId listeners that return true from releaseOnGroupId(releaseGroupId)
+     *                       are removed
+     * @param releaseIndex the removed listeners are unregistered from this index
+     * @return true if any listener was removed
+     */
+    boolean release(boolean ignoreGroupId, int releaseGroupId, ReleaseIndex releaseIndex) {
+
+        boolean released = false;
+
+        ListenerSnapshot snapshot = globalListeners;
+        ListenerSnapshot releasedSnapshot =
+                snapshot.release(ignoreGroupId, releaseGroupId, releaseIndex);
+
+        if (releasedSnapshot != snapshot) {
+            putGlobalListeners(releasedSnapshot);
+            released = true;
+        }
+
+        for (int i = 0; i < groupListeners.capacity(); i++) {
+
+            snapshot = groupListeners.valueAt(i);
+
+            if (snapshot == null) {
+                continue;
+            }
+
+            releasedSnapshot = snapshot.release(ignoreGroupId, releaseGroupId, releaseIndex);
+
+            if (releasedSnapshot != snapshot) {
+                putGroupListeners(groupListeners.keyAt(i), releasedSnapshot);
+                released = true;
+            }
+        }
+
+        return released;
+    }
+
+    /**
+     * Removes the listeners with listenGroupId that have already been unregistered from the
+     * ReleaseIndex.
+     * @param listenGroupId the listenGroupId of the unregistered listeners
+     */
+    void removeUnregistered(int listenGroupId) {
+
+        if (listenGroupId == Happening.GROUP_ID_GLOBAL) {
+            putGlobalListeners(globalListeners.removeUnregistered());
+        }
+        else {
+            ListenerSnapshot snapshot = groupListeners.get(listenGroupId);
+            if (snapshot != null) {
+                putGroupListeners(listenGroupId, snapshot.removeUnregistered());
+            }
+        }
+    }
+
+    /**
+     * @param listeners all listeners in this instance are added to this list
+     */
+    void collectListeners(ArrayList<HappeningListener> listeners) {
+
+        ListenerSnapshot snapshot = globalListeners;
+
+        for (int i = 0; i < snapshot.size; i++) {
+            listeners.add(snapshot.listeners[i]);
+        }
+
+        for (int i = 0; i < groupListeners.capacity(); i++) {
+
+            snapshot = groupListeners.valueAt(i);
+
+            if (snapshot != null) {
+                for (int j = 0; j < snapshot.size; j++) {
+                    listeners.add(snapshot.listeners[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all listeners without unregistering them from the ReleaseIndex.
+     */
+    void clear() {
+
+        globalListeners = ListenerSnapshot.EMPTY;
+
+        IntSet listenGroupIds = new IntSet();
+
+        for (int i = 0; i < groupListeners.capacity(); i++) {
+            if (groupListeners.valueAt(i) != null) {
+                listenGroupIds.add(groupListeners.keyAt(i));
+            }
+        }
+
+        for (int i = 0; i < listenGroupIds.capacity(); i++) {
+            if (listenGroupIds.isUsed(i)) {
+                groupListeners.remove(listenGroupIds.valueAt(i));
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return globalListeners.size == 0 && groupListeners.isEmpty() && asyncExecutor == null
+                && !conflate && key == null;
+    }
+
+    private void putGlobalListeners(ListenerSnapshot snapshot) {
+        globalListeners = (snapshot != null) ? snapshot : ListenerSnapshot.EMPTY;
+    }
+
+    private void putGroupListeners(int listenGroupId, ListenerSnapshot snapshot) {
+        if (snapshot != null) {
+            groupListeners.put(listenGroupId, snapshot);
+        }
+        else {
+            groupListeners.remove(listenGroupId);
+        }
+    }
+
+}
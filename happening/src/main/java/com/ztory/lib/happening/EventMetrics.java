@@ -0,0 +1,46 @@
+package com.ztory.lib.happening;
+
+import java.util.List;
+
+/**
+ * Snapshot of the metrics of one eventName, returned by HappeningMetrics.snapshot().
+ */
+public final class EventMetrics {
+
+    public final String eventName;
+
+    /** Number of sends of eventName that found a listener bucket. */
+    public final long sendCount;
+
+    /** Sum of the number of listeners that each send dispatched to. */
+    public final long matchedListenerCount;
+
+    /** Duration of each send, including all synchronous listener invocations. */
+    public final HistogramSnapshot sendLatency;
+
+    /** The listeners of eventName that are registered and have been invoked. */
+    public final List<ListenerMetrics> listeners;
+
+    EventMetrics(
+            String theEventName,
+            long theSendCount,
+            long theMatchedListenerCount,
+            HistogramSnapshot theSendLatency,
+            List<ListenerMetrics> theListeners
+    ) {
+        eventName = theEventName;
+        sendCount = theSendCount;
+        matchedListenerCount = theMatchedListenerCount;
+        sendLatency = theSendLatency;
+        listeners = theListeners;
+    }
+
+    @Override
+    public String toString() {
+        return eventName
+                + " sends=" + sendCount
+                + " matchedListeners=" + matchedListenerCount
+                + " sendLatency[" + sendLatency + "]";
+    }
+
+}
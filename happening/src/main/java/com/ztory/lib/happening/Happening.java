@@ -1,12 +1,10 @@
 package com.ztory.lib.happening;
 
-import android.annotation.SuppressLint;
-
+import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -14,15 +12,32 @@ import java.util.concurrent.atomic.AtomicInteger;
  * groupId. This is also the class that you call when you want to send an event to listeners of
  * that eventName / groupId combo. Listeners with listenId == GROUP_ID_GLOBAL will listen to all
  * groupIds of its eventName.
+ * The listeners of each eventName are indexed by listenGroupId in an EventListeners instance,
+ * every index holds an immutable ListenerSnapshot that is replaced atomically when listeners are
+ * added or removed, so sendEvent() never locks or copies and only visits the listeners of the
+ * sent groupId and GROUP_ID_GLOBAL.
+ * The static methods of this class use the HappeningHub returned by getDefaultHub(), create a
+ * HappeningHub to get listeners that are isolated from the rest of the process.
  * Created by jonruna on 01/12/15.
  */
-@SuppressLint("UseSparseArrays")
 public class Happening {
 
     public static final int
             GROUP_ID_GLOBAL = -1,
             GROUP_ID_DO_NOT_RELEASE = -2;
 
+    /**
+     * Return this from a listener that runs on the sending thread to consume the event, the
+     * listeners after it in priority order are not called and STOP_PROPAGATION is not part of
+     * the returned list. Returned by listeners that run on an Executor it has no effect.
+     */
+    public static final Object STOP_PROPAGATION = new Object() {
+        @Override
+        public String toString() {
+            return "Happening.STOP_PROPAGATION";
+        }
+    };
+
     private static final String
             EVENT_NAME_PREFIX = "Happening.Event.",
             EVENT_NAME_SEPARATOR = ".";
@@ -31,10 +46,24 @@ public class Happening {
             sActivityIdAtomInt = new AtomicInteger(0),
             sGroupIdAtomInt = new AtomicInteger(-10);
 
-    private static final Object sLockObj = new Object();
+    /** Used by the static methods of this class and by listeners created with an eventName. */
+    private static final HappeningHub sDefaultHub = new HappeningHub();
 
-    private static final ConcurrentHashMap<String, HashMap<Integer, HappeningListener>> sListenerMap =
-            new ConcurrentHashMap<>(100, 0.75f, 2);
+    /**
+     * Weak listeners of all hubs whose callbacks have been garbage collected, see
+     * sweepWeakListeners().
+     */
+    static final ReferenceQueue<RunObject> sWeakRunQueue = new ReferenceQueue<>();
+
+    /** Max number of weak listeners removed per call to sweepWeakBatch(). */
+    private static final int SWEEP_BATCH_SIZE = 32;
+
+    /**
+     * @return the hub that the static methods of this class delegate to
+     */
+    public static HappeningHub getDefaultHub() {
+        return sDefaultHub;
+    }
 
     /**
      * Use this to aquire a unique int id to be used to scope events to an id.
@@ -64,29 +93,39 @@ public class Happening {
     }
 
     /**
-     * Register an event listener
-     * @param listener the listener to register
+     * @param clazz Class that is used for namespacing by getEventName()
+     * @return a pattern for HappeningListener.wildcard(), to receive every event with an
+     * eventName from getEventName(clazz, eventNameSuffix)
      */
-    public static void addListener(final HappeningListener listener) {
-
-        synchronized (sLockObj) {
-
-            HashMap<Integer, HappeningListener> eventMap = sListenerMap.get(listener.eventName);
+    public static String getEventNamePattern(Class clazz) {
+        return getEventName(clazz, HappeningListener.WILDCARD);
+    }
 
-            if (eventMap == null) {
-                eventMap = new HashMap<>();
-                sListenerMap.put(listener.eventName, eventMap);
-            }
+    /**
+     * Same as key(String) with the eventName from getEventName(clazz, eventNameSuffix).
+     */
+    public static EventKey key(Class clazz, String eventNameSuffix) {
+        return sDefaultHub.key(clazz, eventNameSuffix);
+    }
 
-            eventMap.put(listener.uid, listener);
-        }
+    /**
+     * Returns the EventKey of eventName, the same instance is returned on every call. Sending
+     * with an EventKey skips hashing and looking up eventName. The listener bucket of a keyed
+     * eventName is kept for the lifetime of the process, so only use keys for a bounded set of
+     * eventNames. The key can only be used with the default hub.
+     * @param eventName the name of the event
+     * @return the EventKey of eventName
+     */
+    public static EventKey key(String eventName) {
+        return sDefaultHub.key(eventName);
+    }
 
-        if (HappeningLog.LOG_ENABLED) {
-            HappeningLog.log(Happening.class,
-                    "ADDED listener, eventName", listener.eventName,
-                    "uid", listener.uid
-            );
-        }
+    /**
+     * Register an event listener
+     * @param listener the listener to register
+     */
+    public static void addListener(final HappeningListener listener) {
+        sDefaultHub.addListener(listener);
     }
 
     /**
@@ -98,7 +137,7 @@ public class Happening {
             final int eventGroupId,
             final String... eventNames
     ) {
-        removeListeners(false, eventGroupId, eventNames);
+        sDefaultHub.removeListeners(eventGroupId, eventNames);
     }
 
     /**
@@ -106,7 +145,7 @@ public class Happening {
      * @param eventNames the eventNames to remove listeners from
      */
     public static void removeListeners(final String... eventNames) {
-        removeListeners(true, -1, eventNames);
+        sDefaultHub.removeListeners(eventNames);
     }
 
     /**
@@ -122,266 +161,327 @@ public class Happening {
             final int eventGroupId,
             final String... eventNames
     ) {
+        sDefaultHub.removeListeners(ignoreGroupId, eventGroupId, eventNames);
+    }
 
-        if (!ignoreGroupId && eventGroupId == GROUP_ID_DO_NOT_RELEASE) {
-            throw new IllegalArgumentException(
-                    "Can not release on GROUP_ID_DO_NOT_RELEASE (" + GROUP_ID_DO_NOT_RELEASE + ")."
-            );
-        }
-
-        HashMap<Integer, HappeningListener> newEventMap;
-
-        for (String iterEvent : eventNames) {
-
-            synchronized (sLockObj) {
+    /**
+     * Will remove all listeners that have eventGroupId in their releaseId-array.
+     * @param eventGroupId the eventGroupId to release
+     */
+    public static void removeListeners(final int eventGroupId) {
+        sDefaultHub.removeListeners(eventGroupId);
+    }
 
-                if (sListenerMap.get(iterEvent) != null) {
+    /**
+     * Remove a single listener
+     * @param theHappeningListener the listener to remove
+     */
+    public static void removeListener(HappeningListener theHappeningListener) {
+        sDefaultHub.removeListener(theHappeningListener);
+    }
 
-                    newEventMap = getReleasedEventMap(ignoreGroupId, eventGroupId, iterEvent);
+    /**
+     * Remove a single listener
+     * @param eventName the listener eventName
+     * @param eventUid the listener uid
+     */
+    public static void removeListener(final String eventName, final int eventUid) {
+        sDefaultHub.removeListener(eventName, eventUid);
+    }
 
-                    if (newEventMap != null) {
-                        sListenerMap.put(iterEvent, newEventMap);
-                    }
-                    else {
-                        sListenerMap.remove(iterEvent);
-                    }
-                }
-            }
+    public static ArrayList<Object> sendEvent(String eventName) {
+        return sDefaultHub.sendEvent(eventName);
+    }
 
-            if (HappeningLog.LOG_ENABLED) {
-                HappeningLog.log(Happening.class,
-                        "REMOVED all listeners for eventName", iterEvent,
-                        " in groudId", eventGroupId
-                );
-            }
-        }
+    public static ArrayList<Object> sendEvent(int eventGroupId, String eventName) {
+        return sDefaultHub.sendEvent(eventGroupId, eventName);
     }
 
     /**
-     * Returns new HashMap<Integer, HappeningListener> instance with the listeners that are not
-     * removed by parameters, will return null if no listeners are left after operation.
-     * @param ignoreGroupId if true then all listeners for eventName will be removed
-     * @param eventGroupId used to determine releasing with listener.releaseOnGroupId(eventGroupId)
-     * @param eventName the eventName of the listeners
-     * @return new HashMap<Integer, HappeningListener> or null if no listeners left
+     * Sends an event. If the eventName has been made asynchronous with setAsyncEvent() then the
+     * listeners are run on that Executor and null is returned.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     * @return an ArrayList with all return data from listeners that are not posting to a Handler.
      */
-    private static HashMap<Integer, HappeningListener> getReleasedEventMap(
-            boolean ignoreGroupId,
+    public static ArrayList<Object> sendEvent(
             int eventGroupId,
-            String eventName
+            String eventName,
+            final Object payload
     ) {
-
-        HashMap<Integer, HappeningListener> newEventMap = null;
-
-        for (
-                Entry<Integer, HappeningListener> iterEntry :
-                sListenerMap.get(eventName).entrySet()
-                ) {
-
-            if (
-                    !ignoreGroupId &&
-                    !iterEntry.getValue().releaseOnGroupId(eventGroupId)
-                    ) {
-
-                if (newEventMap == null) {
-                    newEventMap = new HashMap<>(20);
-                }
-
-                newEventMap.put(iterEntry.getKey(), iterEntry.getValue());
-            }
-        }
-
-        return newEventMap;
+        return sDefaultHub.sendEvent(eventGroupId, eventName, payload);
     }
 
     /**
-     * Will remove all listeners that have eventGroupId in their releaseId-array.
-     * @param eventGroupId the eventGroupId to release
+     * Same as sendEvent(int, String, Object) but uses the listeners referenced by eventKey
+     * instead of looking up eventName.
      */
-    public static void removeListeners(final int eventGroupId) {
-
-        if (eventGroupId == GROUP_ID_DO_NOT_RELEASE) {
-            throw new IllegalArgumentException(
-                    "Can not release on GROUP_ID_DO_NOT_RELEASE (" + GROUP_ID_DO_NOT_RELEASE + ")."
-            );
-        }
+    public static ArrayList<Object> sendEvent(
+            int eventGroupId,
+            EventKey eventKey,
+            Object payload
+    ) {
+        return sDefaultHub.sendEvent(eventGroupId, eventKey, payload);
+    }
 
-        synchronized (sLockObj) {
+    public static void sendEventAsync(String eventName) {
+        sDefaultHub.sendEventAsync(eventName);
+    }
 
-            Iterator<Entry<String, HashMap<Integer, HappeningListener>>> it;
-            it = sListenerMap.entrySet().iterator();
+    public static void sendEventAsync(int eventGroupId, String eventName) {
+        sDefaultHub.sendEventAsync(eventGroupId, eventName);
+    }
 
-            Entry<String, HashMap<Integer, HappeningListener>> iterPairs;
+    /**
+     * Sends an event without waiting for the listeners, every listener that is not posting to a
+     * Handler is run as a separate task on the Executor set with setAsyncEvent() for eventName,
+     * or on the Executor returned by getAsyncExecutor(). Return values of listeners are ignored.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     */
+    public static void sendEventAsync(
+            int eventGroupId,
+            String eventName,
+            final Object payload
+    ) {
+        sDefaultHub.sendEventAsync(eventGroupId, eventName, payload);
+    }
 
-            while (it.hasNext()) {
+    /**
+     * Same as sendEventAsync(int, String, Object) but uses the listeners referenced by eventKey
+     * instead of looking up eventName.
+     */
+    public static void sendEventAsync(int eventGroupId, EventKey eventKey, Object payload) {
+        sDefaultHub.sendEventAsync(eventGroupId, eventKey, payload);
+    }
 
-                iterPairs = it.next();
+    public static void publish(String eventName) {
+        sDefaultHub.publish(eventName);
+    }
 
-                Iterator<Entry<Integer, HappeningListener>> innerIterator;
-                innerIterator = iterPairs.getValue().entrySet().iterator();
+    public static void publish(int eventGroupId, String eventName) {
+        sDefaultHub.publish(eventGroupId, eventName);
+    }
 
-                Entry<Integer, HappeningListener> innerIterPairs;
+    /**
+     * Sends an event like sendEvent() but ignores the return values of listeners, so nothing
+     * is allocated while dispatching to listeners that run synchronously.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     */
+    public static void publish(int eventGroupId, String eventName, Object payload) {
+        sDefaultHub.publish(eventGroupId, eventName, payload);
+    }
 
-                while (innerIterator.hasNext()) {
+    /**
+     * Same as publish(int, String, Object) but uses the listeners referenced by eventKey
+     * instead of looking up eventName.
+     */
+    public static void publish(int eventGroupId, EventKey eventKey, Object payload) {
+        sDefaultHub.publish(eventGroupId, eventKey, payload);
+    }
 
-                    innerIterPairs = innerIterator.next();
+    /**
+     * Sends an event like sendEvent() but folds the return values of listeners that run
+     * synchronously into accumulator instead of collecting them in an ArrayList, in the same
+     * order as sendEvent() would have returned them. Nothing is allocated while dispatching
+     * if reducer updates a mutable accumulator and returns it. Listeners that post to a Handler
+     * or run asynchronously are not folded.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     * @param accumulator the initial value that is passed to reducer
+     * @param reducer called with the current accumulator and the return value of a listener,
+     *                returns the next accumulator
+     * @return the last accumulator returned by reducer, accumulator if no listener was called
+     */
+    public static <A> A publishReduce(
+            int eventGroupId,
+            String eventName,
+            Object payload,
+            A accumulator,
+            RunReduce<A> reducer
+    ) {
+        return sDefaultHub.publishReduce(eventGroupId, eventName, payload, accumulator, reducer);
+    }
 
-                    if (innerIterPairs.getValue().releaseOnGroupId(eventGroupId)) {
+    public static ArrayList<Object> sendEvents(String eventName, Collection<?> payloads) {
+        return sDefaultHub.sendEvents(eventName, payloads);
+    }
 
-                        innerIterator.remove();
+    /**
+     * Sends one event per payload in payloads with a single lookup of the listeners. Listeners
+     * with a RunObjectBatch callback get all payloads in one rBatch() call, other listeners get
+     * one r() call per payload. Each listener gets the whole batch before the next listener.
+     * A payload that a listener returns STOP_PROPAGATION for is not delivered to the listeners
+     * after it, the other payloads are, and STOP_PROPAGATION from rBatch() consumes the batch.
+     * @param eventGroupId the groupId that will scope the events
+     * @param eventName the name of the events
+     * @param payloads the payloads of the events, must not be modified during the call
+     * @return an ArrayList with all return data from listeners that are not posting to a Handler,
+     * one item per batch for RunObjectBatch listeners and one item per payload for the others.
+     */
+    public static ArrayList<Object> sendEvents(
+            int eventGroupId,
+            String eventName,
+            Collection<?> payloads
+    ) {
+        return sDefaultHub.sendEvents(eventGroupId, eventName, payloads);
+    }
 
-                        if (HappeningLog.LOG_ENABLED) {
-                            HappeningLog.log(Happening.class,
-                                    "REMOVED listener with uid", innerIterPairs.getValue().uid,
-                                    "releaseGroupId", eventGroupId
-                            );
-                        }
-                    }
-                }
-            }
-        }
+    /**
+     * Sets the Executor that is used by sendEventAsync() for eventNames that have not been
+     * given an Executor with setAsyncEvent().
+     * @param executor the Executor to use, or null to go back to the default Executor
+     */
+    public static void setAsyncExecutor(Executor executor) {
+        sDefaultHub.setAsyncExecutor(executor);
     }
 
     /**
-     * Remove a single listener
-     * @param theHappeningListener the listener to remove
+     * @return the Executor used by sendEventAsync(), if none has been set then an Executor that
+     * runs listeners on virtual threads (when supported) or on a small thread pool is created.
      */
-    public static void removeListener(HappeningListener theHappeningListener) {
+    public static Executor getAsyncExecutor() {
+        return sDefaultHub.getAsyncExecutor();
+    }
 
-        if (theHappeningListener == null) {
-            return;
-        }
+    /**
+     * Makes every event sent with eventName asynchronous, including events sent with
+     * sendEvent(), using the Executor that getAsyncExecutor() returns at the time of this call.
+     * @param eventName the name of the event
+     * @param async true to dispatch eventName asynchronously, false to restore synchronous sends
+     */
+    public static void setAsyncEvent(String eventName, boolean async) {
+        sDefaultHub.setAsyncEvent(eventName, async);
+    }
 
-        removeListener(
-                theHappeningListener.eventName,
-                theHappeningListener.uid
-        );
+    /**
+     * Makes every event sent with eventName asynchronous on executor, including events sent with
+     * sendEvent() which will then return null.
+     * @param eventName the name of the event
+     * @param executor the Executor that will run the listeners, or null to restore synchronous
+     *                 sends of eventName
+     */
+    public static void setAsyncEvent(String eventName, Executor executor) {
+        sDefaultHub.setAsyncEvent(eventName, executor);
     }
 
     /**
-     * Remove a single listener
-     * @param eventName the listener eventName
-     * @param eventUid the listener uid
+     * Conflates every event sent with eventName that is delivered on an Executor, see
+     * HappeningListener.setConflate(). Combine with setAsyncEvent() to conflate all listeners.
+     * @param eventName the name of the event
+     * @param conflate true to conflate deliveries of eventName
      */
-    public static void removeListener(final String eventName, final int eventUid) {
-        synchronized (sLockObj) {
+    public static void setConflateEvent(String eventName, boolean conflate) {
+        sDefaultHub.setConflateEvent(eventName, conflate);
+    }
 
-            HashMap<Integer, HappeningListener> eventMap = sListenerMap.get(eventName);
+    /**
+     * Removes weak listeners whose callbacks have been garbage collected, in every hub. This is
+     * also done incrementally when listeners are added and when a send finds a collected
+     * callback, so calling this is only needed to reclaim memory right away.
+     * @return the number of removed listeners
+     */
+    public static int sweepWeakListeners() {
 
-            if (eventMap != null) {
-                eventMap.remove(Integer.valueOf(eventUid));
+        int sweptCount = 0, batchCount;
 
-                if (HappeningLog.LOG_ENABLED) {
-                    HappeningLog.log(Happening.class,
-                            "REMOVED listener for eventName", eventName,
-                            "eventUid", eventUid
-                    );
-                }
-            }
+        do {
+            batchCount = sweepWeakBatch();
+            sweptCount += batchCount;
         }
-    }
+        while (batchCount == SWEEP_BATCH_SIZE);
 
-    public static ArrayList<Object> sendEvent(String eventName) {
-        return sendEvent(GROUP_ID_GLOBAL, eventName, null);
-    }
-
-    public static ArrayList<Object> sendEvent(int eventGroupId, String eventName) {
-        return sendEvent(eventGroupId, eventName, null);
+        return sweptCount;
     }
 
     /**
-     * Sends an event.
-     * @param eventGroupId the groupId that will scope the event
-     * @param eventName the name of the event
-     * @param payload the payload of the event
-     * @return an ArrayList with all return data from listeners that are not posting to a Handler.
+     * Removes at most SWEEP_BATCH_SIZE collected weak listeners from their hubs, must not be
+     * called while holding the lock of a hub since every listener is removed while holding the
+     * lock of its own hub.
+     * @return the number of weak listeners taken from sWeakRunQueue
      */
-    public static ArrayList<Object> sendEvent(
-            int eventGroupId,
-            String eventName,
-            final Object payload
-    ) {
+    static int sweepWeakBatch() {
 
-        final long execStartTs;
+        int batchCount = 0;
+        WeakRun weakRun;
+        HappeningHub listenerHub;
 
-        if (HappeningLog.LOG_ENABLED) {
-            execStartTs = System.currentTimeMillis();
-        }
-        else {
-            execStartTs = 0;
-        }
+        while (batchCount < SWEEP_BATCH_SIZE) {
 
-        HashMap<Integer, HappeningListener> eventMap = sListenerMap.get(eventName);
+            weakRun = (WeakRun) sWeakRunQueue.poll();
 
-        if (HappeningLog.LOG_ENABLED) {
-            HappeningLog.log(Happening.class,
-                    "SEND", eventName,
-                    "eventGroupId", eventGroupId,
-                    "payload", payload
-            );
-        }
+            if (weakRun == null) {
+                break;
+            }
 
-        if (eventMap == null || eventMap.size() == 0) {
-            return null;//no listeners for eventName
-        }
+            batchCount++;
+
+            listenerHub = weakRun.listener.hub;
 
-        ArrayList<HappeningListener> listeners;
-        synchronized (sLockObj) {
-            listeners = new ArrayList<>(eventMap.values().size());
-            listeners.addAll(eventMap.values());
+            if (listenerHub != null) {
+                listenerHub.removeSwept(weakRun.listener);
+            }
         }
 
-        boolean foundListener = false;
-        ArrayList<Object> synchronousReturnData = null;
+        return batchCount;
+    }
 
-        for (HappeningListener iterListener : listeners) {
+    /**
+     * Drops the HappeningMetrics counters that are cached by listeners and listener buckets of
+     * every hub.
+     */
+    static void clearMetrics() {
+        for (HappeningHub iterHub : HappeningHub.getHubs()) {
+            iterHub.clearMetrics();
+        }
+    }
 
-            // Listener with listenGroupId == GROUP_ID_GLOBAL listens to events from all groupIds
-            if (
-                    iterListener.listenGroupId != GROUP_ID_GLOBAL &&
-                    eventGroupId != iterListener.listenGroupId
-                    ) {
-                continue;
-            }
+    /**
+     * @return null if the listener did not return STOP_PROPAGATION, otherwise true at the
+     * position of every payload that it consumed, which is all of them for rBatch()
+     */
+    static boolean[] deliverBatch(
+            RunObject listenerRun,
+            Collection<?> payloads,
+            ArrayList<Object> returnData
+    ) {
+        boolean[] stoppedMask = null;
 
-            if (!foundListener) {
-                foundListener = true;
-                synchronousReturnData = new ArrayList<>(listeners.size());
+        if (listenerRun instanceof RunObjectBatch) {
+            Object batchReturn = ((RunObjectBatch) listenerRun).rBatch(payloads);
+            if (batchReturn == STOP_PROPAGATION) {
+                stoppedMask = new boolean[payloads.size()];
+                Arrays.fill(stoppedMask, true);
             }
-
-            if (HappeningLog.LOG_ENABLED) {
-                HappeningLog.log(Happening.class,
-                        "GET", eventName,
-                        "listenGroupId", iterListener.listenGroupId,
-                        "uid", iterListener.uid
-                );
+            else if (returnData != null) {
+                returnData.add(batchReturn);
             }
-
-            if (iterListener.postToUiHandler != null) {
-                final HappeningListener finalIterListener = iterListener;
-                Runnable uiRun = new Runnable() {
-                    @Override
-                    public void run() {
-                        finalIterListener.listenerAsyncRun.r(payload);
+        }
+        else {
+            // Every payload is delivered, STOP_PROPAGATION only consumes the payload it was
+            // returned for
+            int index = 0;
+            for (Object iterPayload : payloads) {
+                Object iterReturn = listenerRun.r(iterPayload);
+                if (iterReturn == STOP_PROPAGATION) {
+                    if (stoppedMask == null) {
+                        stoppedMask = new boolean[payloads.size()];
                     }
-                };
-                iterListener.postToUiHandler.post(uiRun);
-            }
-            else {
-                synchronousReturnData.add(iterListener.listenerAsyncRun.r(payload));
+                    stoppedMask[index] = true;
+                }
+                else if (returnData != null) {
+                    returnData.add(iterReturn);
+                }
+                index++;
             }
         }
 
-        if (HappeningLog.LOG_ENABLED) {
-            HappeningLog.log(Happening.class,
-                    "SEND", eventName,
-                    "eventGroupId", eventGroupId,
-                    "payload", payload,
-                    "execution duration", System.currentTimeMillis() - execStartTs
-            );
-        }
-
-        return synchronousReturnData;
+        return stoppedMask;
     }
 
 }
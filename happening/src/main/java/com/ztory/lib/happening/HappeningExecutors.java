@@ -0,0 +1,312 @@
+package com.ztory.lib.happening;
+
+import android.os.Build;
+import android.os.Handler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the Executor instances used by Happening and HappeningPod.
+ * Virtual threads are created with reflection, since they are only available on JDK 21+ and
+ * never on Android.
+ */
+public class HappeningExecutors {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return getVirtualThreadFactory("Happening") != null;
+    }
+
+    /**
+     * Creates an ExecutorService that starts a new virtual thread for each task.
+     * @param threadNamePrefix prefix for the names of the created threads
+     * @return a new ExecutorService, or null if the runtime does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor(String threadNamePrefix) {
+
+        ThreadFactory virtualThreadFactory = getVirtualThreadFactory(threadNamePrefix);
+
+        if (virtualThreadFactory == null) {
+            return null;
+        }
+
+        try {
+            Method newThreadPerTaskExecutor = java.util.concurrent.Executors.class.getMethod(
+                    "newThreadPerTaskExecutor",
+                    ThreadFactory.class
+            );
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, virtualThreadFactory);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a pool with a fixed number of threads that are allowed to time out when idle.
+     * @param threadNamePrefix prefix for the names of the created threads
+     * @param poolSizeMax the number of threads in the pool
+     * @return a new ThreadPoolExecutor with an unbounded queue
+     */
+    public static ThreadPoolExecutor newThreadPool(
+            final String threadNamePrefix,
+            int poolSizeMax
+    ) {
+
+        //http://docs.oracle.com/javase/6/docs/api/java/util/concurrent/ThreadPoolExecutor.html
+        //If there are more than corePoolSize but less than maximumPoolSize threads running,
+        //a new thread will be created only if the queue is full.
+
+        ThreadPoolExecutor returnPool = new ThreadPoolExecutor(
+                poolSizeMax,//CORE_POOL_SIZE,
+                poolSizeMax,//MAX_POOL_SIZE,
+                4,//KEEP_ALIVE
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(
+                                runnable,
+                                threadNamePrefix + " #" + mCount.getAndIncrement()
+                        );
+                    }
+                }
+        );
+
+        if (Build.VERSION.SDK_INT >= 9) {
+            returnPool.allowCoreThreadTimeOut(true);
+        }
+
+        return returnPool;
+    }
+
+    /**
+     * Creates the executor used by Happening.sendEventAsync() when no executor has been set,
+     * runs each task on a virtual thread if supported, otherwise on a pool with one thread
+     * per CPU (but at least two threads).
+     * @param threadNamePrefix prefix for the names of the created threads
+     * @return a new ExecutorService
+     */
+    public static ExecutorService newDefaultExecutor(String threadNamePrefix) {
+
+        ExecutorService virtualThreadExecutor = newVirtualThreadExecutor(threadNamePrefix);
+
+        if (virtualThreadExecutor != null) {
+            return virtualThreadExecutor;
+        }
+
+        return newThreadPool(threadNamePrefix, Math.max(2, CPU_COUNT));
+    }
+
+    /**
+     * Creates an Executor that runs its tasks one at a time, in the order they were submitted,
+     * on threads of executor. Give each HappeningListener its own serial executor over a shared
+     * thread pool to have its events delivered in send order without a thread per listener.
+     * @param executor runs the tasks, typically a thread pool
+     * @return a new serial Executor
+     */
+    public static Executor newSerialExecutor(Executor executor) {
+
+        if (executor == null) {
+            throw new IllegalArgumentException("executor == null");
+        }
+
+        return new LimitedExecutor(executor, 1);
+    }
+
+    /**
+     * Creates an Executor that runs at most maxConcurrency of its tasks at the same time on
+     * threads of executor, the other tasks wait in a queue without taking up a thread. Each
+     * thread of executor runs queued tasks one after another, so use newBlockingExecutor() for
+     * tasks that block.
+     * @param executor runs the tasks
+     * @param maxConcurrency the max number of tasks that run at the same time
+     * @return a new limited Executor
+     */
+    public static Executor newLimitedExecutor(Executor executor, int maxConcurrency) {
+
+        if (executor == null) {
+            throw new IllegalArgumentException("executor == null");
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency < 1");
+        }
+
+        return new LimitedExecutor(executor, maxConcurrency);
+    }
+
+    /**
+     * Creates an Executor for blocking tasks that never runs more than maxConcurrency tasks at
+     * the same time. If virtual threads are supported each task is started on its own virtual
+     * thread right away and waits there for one of maxConcurrency permits, so a task that blocks
+     * only delays the tasks that are waiting for its permit. Otherwise the tasks run on a pool
+     * with min(poolSizeMax, maxConcurrency) threads.
+     * @param threadNamePrefix prefix for the names of the created threads
+     * @param maxConcurrency the max number of tasks that run at the same time
+     * @param poolSizeMax the number of threads in the pool if virtual threads are not supported
+     * @return a new Executor
+     */
+    public static Executor newBlockingExecutor(
+            String threadNamePrefix,
+            int maxConcurrency,
+            int poolSizeMax
+    ) {
+
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency < 1");
+        }
+
+        Executor virtualThreadExecutor = newVirtualThreadExecutor(threadNamePrefix);
+
+        if (virtualThreadExecutor != null) {
+            return newPermitExecutor(virtualThreadExecutor, maxConcurrency);
+        }
+
+        return newThreadPool(threadNamePrefix, Math.min(poolSizeMax, maxConcurrency));
+    }
+
+    /**
+     * Only for an executor that starts a thread per task, since every task holds a thread of
+     * executor while it waits for a permit.
+     * @param executor runs each task on a new thread
+     * @param maxConcurrency the number of permits
+     * @return an Executor that runs at most maxConcurrency of its tasks at the same time
+     */
+    static Executor newPermitExecutor(final Executor executor, int maxConcurrency) {
+
+        final Semaphore permits = new Semaphore(maxConcurrency);
+
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                executor.execute(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                permits.acquireUninterruptibly();
+                                try {
+                                    command.run();
+                                } finally {
+                                    permits.release();
+                                }
+                            }
+                        }
+                );
+            }
+        };
+    }
+
+    /**
+     * @param handler the Handler that tasks are posted to
+     * @return an Executor that posts each task to handler
+     */
+    public static Executor forHandler(final Handler handler) {
+
+        if (handler == null) {
+            throw new IllegalArgumentException("handler == null");
+        }
+
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    /**
+     * Equivalent to <code>Thread.ofVirtual().name(threadNamePrefix + " #", 1).factory()</code>.
+     * @return a ThreadFactory for virtual threads, or null if not supported
+     */
+    private static ThreadFactory getVirtualThreadFactory(String threadNamePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            builder = builderClass
+                    .getMethod("name", String.class, long.class)
+                    .invoke(builder, threadNamePrefix + " #", 1L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keeps at most mMaxConcurrency runs scheduled on mExecutor, each run takes tasks from
+     * mTasks. With mMaxConcurrency == 1 the tasks run one at a time in submit order.
+     * Each run runs at most DRAIN_MAX tasks, so that a busy limited executor gives other tasks
+     * of a shared pool a chance to run.
+     */
+    private static final class LimitedExecutor implements Executor, Runnable {
+
+        private static final int DRAIN_MAX = 64;
+
+        private final Executor mExecutor;
+        private final int mMaxConcurrency;
+        private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger mScheduledCount = new AtomicInteger(0);
+
+        private LimitedExecutor(Executor theExecutor, int theMaxConcurrency) {
+            mExecutor = theExecutor;
+            mMaxConcurrency = theMaxConcurrency;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.offer(command);
+            schedule();
+        }
+
+        private void schedule() {
+
+            int scheduledCount;
+
+            while ((scheduledCount = mScheduledCount.get()) < mMaxConcurrency
+                    && !mTasks.isEmpty()) {
+
+                if (mScheduledCount.compareAndSet(scheduledCount, scheduledCount + 1)) {
+                    try {
+                        mExecutor.execute(this);
+                    } catch (RuntimeException e) {
+                        mScheduledCount.decrementAndGet();
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                for (int i = 0; i < DRAIN_MAX && (task = mTasks.poll()) != null; i++) {
+                    task.run();
+                }
+            } finally {
+                mScheduledCount.decrementAndGet();
+
+                // Tasks offered while all runs were scheduled have not scheduled a run
+                if (!mTasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+}
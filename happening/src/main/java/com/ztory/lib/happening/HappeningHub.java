@@ -0,0 +1,1305 @@
+package com.ztory.lib.happening;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Event hub that will handle adding and removing of listeners, explicitly or by eventName or
+ * groupId. This is also the class that you call when you want to send an event to listeners of
+ * that eventName / groupId combo. Listeners with listenId == GROUP_ID_GLOBAL will listen to all
+ * groupIds of its eventName.
+ * The listeners of each eventName are indexed by listenGroupId in an EventListeners instance,
+ * every index holds an immutable ListenerSnapshot that is replaced atomically when listeners are
+ * added or removed, so sendEvent() never locks or copies and only visits the listeners of the
+ * sent groupId and GROUP_ID_GLOBAL.
+ * Every HappeningHub has its own listeners, lock and async Executor, so events sent on one hub
+ * never reach the listeners of another hub and hubs do not contend with each other. The static
+ * methods of Happening use the hub returned by Happening.getDefaultHub().
+ */
+public class HappeningHub {
+
+    /** How dispatchEvent() handles the return values of listeners. */
+    private static final int
+            RETURN_LIST = 0,
+            RETURN_NONE = 1,
+            RETURN_REDUCE = 2;
+
+    /**
+     * Every hub that has been created, so that HappeningMetrics can visit the listeners of all
+     * hubs. Hubs that are no longer referenced are dropped by the WeakHashMap.
+     */
+    private static final Map<HappeningHub, Boolean> sHubs =
+            Collections.synchronizedMap(new WeakHashMap<HappeningHub, Boolean>());
+
+    /** Created lazily by getAsyncExecutor() for hubs that have not been given an Executor. */
+    private static volatile Executor sDefaultAsyncExecutor;
+
+    /** Only held by writers, sendEvent() reads mListenerMap without taking this lock. */
+    private final Object mLockObj = new Object();
+
+    private final ConcurrentHashMap<String, EventListeners> mListenerMap =
+            new ConcurrentHashMap<>(100, 0.75f, 2);
+
+    /** Guarded by mLockObj, replaced by removeAllListeners(). */
+    private ReleaseIndex mReleaseIndex = new ReleaseIndex();
+
+    /**
+     * Guarded by mLockObj, registered wildcard listeners. They are added to the listeners of
+     * every matching eventName when they are registered and when the listeners of a new
+     * eventName are created, so sends of an eventName with listeners never match patterns.
+     */
+    private final ArrayList<HappeningListener> mWildcardListeners = new ArrayList<>();
+
+    /**
+     * Built from mWildcardListeners while holding mLockObj, null if there are none. Sends of an
+     * eventName without listeners of its own read it without locking.
+     */
+    private volatile WildcardTrie mWildcardTrie;
+
+    /** Guarded by mLockObj, the id of the next EventKey. */
+    private int mKeyIdCounter = 0;
+
+    /** HappeningMetrics counters of the eventNames that have been sent while enabled. */
+    private final ConcurrentHashMap<String, EventCounters> mEventCounters =
+            new ConcurrentHashMap<>();
+
+    /** Written while holding mLockObj, null to use the Executor shared by all hubs. */
+    private volatile Executor mAsyncExecutor;
+
+    /**
+     * Creates a hub without listeners, sendEventAsync() uses the Executor that is shared by all
+     * hubs until setAsyncExecutor() is called.
+     */
+    public HappeningHub() {
+        this(null);
+    }
+
+    /**
+     * Creates a hub without listeners that runs asynchronous events on theAsyncExecutor.
+     * @param theAsyncExecutor the Executor used by sendEventAsync(), or null to use the
+     *                         Executor that is shared by all hubs
+     */
+    public HappeningHub(Executor theAsyncExecutor) {
+        mAsyncExecutor = theAsyncExecutor;
+        sHubs.put(this, Boolean.TRUE);
+    }
+
+    /**
+     * @return all hubs that are still referenced, for HappeningMetrics
+     */
+    static ArrayList<HappeningHub> getHubs() {
+        synchronized (sHubs) {
+            return new ArrayList<>(sHubs.keySet());
+        }
+    }
+
+    /**
+     * Same as key(String) with the eventName from Happening.getEventName(clazz, eventNameSuffix).
+     */
+    public EventKey key(Class clazz, String eventNameSuffix) {
+        return key(Happening.getEventName(clazz, eventNameSuffix));
+    }
+
+    /**
+     * Returns the EventKey of eventName, the same instance is returned on every call. Sending
+     * with an EventKey skips hashing and looking up eventName. The listener bucket of a keyed
+     * eventName is kept for the lifetime of this hub, so only use keys for a bounded set of
+     * eventNames. The key can only be used with this hub.
+     * @param eventName the name of the event
+     * @return the EventKey of eventName
+     */
+    public EventKey key(String eventName) {
+
+        EventListeners eventListeners = mListenerMap.get(eventName);
+
+        if (eventListeners != null && eventListeners.key != null) {
+            return eventListeners.key;
+        }
+
+        synchronized (mLockObj) {
+
+            eventListeners = getOrCreateEventListeners(eventName);
+
+            if (eventListeners.key == null) {
+                eventListeners.key = new EventKey(
+                        mKeyIdCounter++,
+                        eventName,
+                        eventListeners,
+                        this
+                );
+            }
+
+            return eventListeners.key;
+        }
+    }
+
+    /** Must be called while holding mLockObj. */
+    private EventListeners getOrCreateEventListeners(String eventName) {
+
+        EventListeners eventListeners = mListenerMap.get(eventName);
+
+        if (eventListeners == null) {
+
+            eventListeners = new EventListeners();
+
+            for (HappeningListener iterListener : mWildcardListeners) {
+                if (iterListener.matchesEventName(eventName)) {
+                    eventListeners.add(iterListener);
+                }
+            }
+
+            mListenerMap.put(eventName, eventListeners);
+        }
+
+        return eventListeners;
+    }
+
+    /**
+     * Register an event listener, a listener can only be registered in one hub at a time.
+     * @param listener the listener to register
+     */
+    public void addListener(final HappeningListener listener) {
+
+        if (listener.eventKey != null && listener.eventKey.hub != this) {
+            throw new IllegalArgumentException(
+                    "The EventKey of the listener belongs to another HappeningHub."
+            );
+        }
+
+        // Weak listeners are removed while holding the lock of their own hub, not this one
+        Happening.sweepWeakBatch();
+
+        synchronized (mLockObj) {
+
+            if (listener.registered || listener.getListenerRun() == null) {
+                return;
+            }
+
+            listener.hub = this;
+
+            if (listener.eventNamePrefix != null) {
+                addWildcardListener(listener);
+                return;
+            }
+
+            EventListeners eventListeners = (listener.eventKey != null)
+                    ? listener.eventKey.listeners
+                    : getOrCreateEventListeners(listener.eventName);
+
+            mReleaseIndex.register(listener);
+            eventListeners.add(listener);
+        }
+
+        if (HappeningLog.LOG_ENABLED) {
+            HappeningLog.entry(HappeningHub.class)
+                    .put("ADDED listener, eventName", listener.eventName)
+                    .put("uid", listener.uid)
+                    .commit();
+        }
+    }
+
+    /**
+     * Registers a listener with a wildcard eventName to all matching eventNames, must be called
+     * while holding mLockObj.
+     */
+    private void addWildcardListener(HappeningListener listener) {
+
+        mReleaseIndex.register(listener);
+        mWildcardListeners.add(listener);
+        mWildcardTrie = new WildcardTrie(mWildcardListeners);
+
+        for (Entry<String, EventListeners> iterEntry : mListenerMap.entrySet()) {
+            if (listener.matchesEventName(iterEntry.getKey())) {
+                iterEntry.getValue().add(listener);
+            }
+        }
+    }
+
+    /**
+     * Removes the wildcard listeners that have been unregistered from the ReleaseIndex from all
+     * eventNames they matched, must be called while holding mLockObj.
+     */
+    private void removeUnregisteredWildcards() {
+
+        HappeningListener iterListener;
+        boolean removed = false;
+
+        for (int i = mWildcardListeners.size() - 1; i >= 0; i--) {
+
+            iterListener = mWildcardListeners.get(i);
+
+            if (iterListener.registered) {
+                continue;
+            }
+
+            mWildcardListeners.remove(i);
+            removed = true;
+
+            for (Entry<String, EventListeners> iterEntry : mListenerMap.entrySet()) {
+                if (iterListener.matchesEventName(iterEntry.getKey())) {
+                    iterEntry.getValue().removeUnregistered(iterListener.listenGroupId);
+                    removeIfEmpty(iterEntry.getKey(), iterEntry.getValue());
+                }
+            }
+        }
+
+        if (removed) {
+            mWildcardTrie = !mWildcardListeners.isEmpty()
+                    ? new WildcardTrie(mWildcardListeners)
+                    : null;
+        }
+    }
+
+    /**
+     * Remove all listeners that will release on eventGroupId for each of the the eventNames.
+     * @param eventGroupId groupId used to check if a listener will release on
+     * @param eventNames eventNames that will check its listeners for removal
+     */
+    public void removeListeners(
+            final int eventGroupId,
+            final String... eventNames
+    ) {
+        removeListeners(false, eventGroupId, eventNames);
+    }
+
+    /**
+     * Will remove all listeners on all events in the eventNames array.
+     * @param eventNames the eventNames to remove listeners from
+     */
+    public void removeListeners(final String... eventNames) {
+        removeListeners(true, -1, eventNames);
+    }
+
+    /**
+     * Remove all listeners that will release on eventGroupId for each of the the eventNames.
+     * If ignoreGroupId==true then all listeners that listen to any of the eventNames will be
+     * removed.
+     * @param ignoreGroupId if true then only eventNames are taken into consideration for removal
+     * @param eventGroupId groupId used to check if a listener will release on
+     * @param eventNames eventNames that will check its listeners for removal
+     */
+    public void removeListeners(
+            final boolean ignoreGroupId,
+            final int eventGroupId,
+            final String... eventNames
+    ) {
+
+        if (!ignoreGroupId && eventGroupId == Happening.GROUP_ID_DO_NOT_RELEASE) {
+            throw new IllegalArgumentException(
+                    "Can not release on GROUP_ID_DO_NOT_RELEASE ("
+                            + Happening.GROUP_ID_DO_NOT_RELEASE + ")."
+            );
+        }
+
+        EventListeners eventListeners;
+
+        for (String iterEvent : eventNames) {
+
+            synchronized (mLockObj) {
+
+                eventListeners = mListenerMap.get(iterEvent);
+
+                if (eventListeners != null) {
+                    eventListeners.release(ignoreGroupId, eventGroupId, mReleaseIndex);
+                    removeIfEmpty(iterEvent, eventListeners);
+                }
+
+                if (!mWildcardListeners.isEmpty()) {
+                    releaseWildcards(ignoreGroupId, eventGroupId, iterEvent);
+                    removeUnregisteredWildcards();
+                }
+            }
+
+            if (HappeningLog.LOG_ENABLED) {
+                HappeningLog.entry(HappeningHub.class)
+                        .put("REMOVED all listeners for eventName", iterEvent)
+                        .put(" in groudId", eventGroupId)
+                        .commit();
+            }
+        }
+    }
+
+    /**
+     * Unregisters the wildcard listeners that were registered with the pattern, must be called
+     * while holding mLockObj.
+     */
+    private void releaseWildcards(boolean ignoreGroupId, int eventGroupId, String pattern) {
+        for (HappeningListener iterListener : mWildcardListeners) {
+            if (
+                    iterListener.eventName.equals(pattern) &&
+                    (ignoreGroupId || iterListener.releaseOnGroupId(eventGroupId))
+                    ) {
+                mReleaseIndex.unregister(iterListener);
+            }
+        }
+    }
+
+    /**
+     * @return the number of eventNames with listeners or settings, for tests
+     */
+    int getEventNameCount() {
+        return mListenerMap.size();
+    }
+
+    /**
+     * Removes eventName from mListenerMap if it has no listeners left, must be called while
+     * holding mLockObj.
+     * @param eventName the eventName of the listeners
+     * @param eventListeners the listeners registered for eventName
+     */
+    private void removeIfEmpty(String eventName, EventListeners eventListeners) {
+        if (eventListeners.isEmpty()) {
+            mListenerMap.remove(eventName);
+        }
+    }
+
+    /**
+     * Will remove all listeners that have eventGroupId in their releaseId-array.
+     * @param eventGroupId the eventGroupId to release
+     */
+    public void removeListeners(final int eventGroupId) {
+
+        if (eventGroupId == Happening.GROUP_ID_DO_NOT_RELEASE) {
+            throw new IllegalArgumentException(
+                    "Can not release on GROUP_ID_DO_NOT_RELEASE ("
+                            + Happening.GROUP_ID_DO_NOT_RELEASE + ")."
+            );
+        }
+
+        synchronized (mLockObj) {
+
+            // Only visits the listeners that are released, instead of all registered listeners
+            HappeningListener[] releasedListeners = mReleaseIndex.release(eventGroupId);
+
+            if (releasedListeners == null) {
+                return;
+            }
+
+            // Every affected snapshot is only copied once, no matter how many of its
+            // listeners that are released
+            HashMap<String, IntSet> releasedGroups = new HashMap<>();
+            IntSet eventGroups;
+
+            for (HappeningListener iterListener : releasedListeners) {
+
+                if (iterListener.eventNamePrefix != null) {
+                    continue;//removed by removeUnregisteredWildcards() below
+                }
+
+                eventGroups = releasedGroups.get(iterListener.eventName);
+
+                if (eventGroups == null) {
+                    eventGroups = new IntSet();
+                    releasedGroups.put(iterListener.eventName, eventGroups);
+                }
+
+                eventGroups.add(iterListener.listenGroupId);
+
+                if (HappeningLog.LOG_ENABLED) {
+                    HappeningLog.entry(HappeningHub.class)
+                            .put("REMOVED listener with uid", iterListener.uid)
+                            .put("releaseGroupId", eventGroupId)
+                            .commit();
+                }
+            }
+
+            EventListeners eventListeners;
+
+            for (Entry<String, IntSet> iterEntry : releasedGroups.entrySet()) {
+
+                eventListeners = mListenerMap.get(iterEntry.getKey());
+                eventGroups = iterEntry.getValue();
+
+                if (eventListeners != null) {
+
+                    for (int i = 0; i < eventGroups.capacity(); i++) {
+                        if (eventGroups.isUsed(i)) {
+                            eventListeners.removeUnregistered(eventGroups.valueAt(i));
+                        }
+                    }
+
+                    removeIfEmpty(iterEntry.getKey(), eventListeners);
+                }
+            }
+
+            if (!mWildcardListeners.isEmpty()) {
+                removeUnregisteredWildcards();
+            }
+        }
+    }
+
+    /**
+     * Remove a single listener
+     * @param theHappeningListener the listener to remove
+     */
+    public void removeListener(HappeningListener theHappeningListener) {
+
+        if (theHappeningListener == null) {
+            return;
+        }
+
+        boolean removed;
+
+        synchronized (mLockObj) {
+            removed = removeRegistered(theHappeningListener);
+        }
+
+        if (removed && HappeningLog.LOG_ENABLED) {
+            HappeningLog.entry(HappeningHub.class)
+                    .put("REMOVED listener for eventName", theHappeningListener.eventName)
+                    .put("eventUid", theHappeningListener.uid)
+                    .commit();
+        }
+    }
+
+    /**
+     * Removes a listener by going straight to its listenGroupId, must be called while holding
+     * mLockObj.
+     * @return true if the listener was registered and has been removed
+     */
+    private boolean removeRegistered(HappeningListener listener) {
+
+        if (!listener.registered || listener.hub != this) {
+            return false;
+        }
+
+        if (listener.eventNamePrefix != null) {
+            mReleaseIndex.unregister(listener);
+            removeUnregisteredWildcards();
+            return true;
+        }
+
+        EventListeners eventListeners = (listener.eventKey != null)
+                ? listener.eventKey.listeners
+                : mListenerMap.get(listener.eventName);
+
+        if (eventListeners != null && eventListeners.remove(listener, mReleaseIndex)) {
+            removeIfEmpty(listener.eventName, eventListeners);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes every listener of this hub with a single acquisition of the lock, which is cheaper
+     * than releasing them one groupId at a time. Listeners keep receiving the events that are
+     * being sent while this is called. EventKeys of this hub stay valid.
+     */
+    public void removeAllListeners() {
+
+        ArrayList<HappeningListener> removedListeners = new ArrayList<>();
+
+        synchronized (mLockObj) {
+
+            for (Entry<String, EventListeners> iterEntry : mListenerMap.entrySet()) {
+                iterEntry.getValue().collectListeners(removedListeners);
+                iterEntry.getValue().clear();
+                removeIfEmpty(iterEntry.getKey(), iterEntry.getValue());
+            }
+
+            // Wildcard listeners are in the listeners of every eventName they matched
+            for (HappeningListener iterListener : removedListeners) {
+                iterListener.registered = false;
+            }
+
+            mWildcardListeners.clear();
+            mWildcardTrie = null;
+            mReleaseIndex = new ReleaseIndex();
+        }
+
+        if (HappeningLog.LOG_ENABLED) {
+            HappeningLog.entry(HappeningHub.class)
+                    .put("REMOVED all listeners, count", removedListeners.size())
+                    .commit();
+        }
+    }
+
+    /**
+     * @param eventName the name of the event, or a wildcard pattern
+     * @return all listeners that are registered for eventName, including the wildcard listeners
+     * that match it, or for a pattern the listeners of its WildcardTrie bucket
+     */
+    ArrayList<HappeningListener> getListeners(String eventName) {
+
+        ArrayList<HappeningListener> listeners = new ArrayList<>();
+
+        synchronized (mLockObj) {
+
+            EventListeners eventListeners = mListenerMap.get(eventName);
+
+            if (eventListeners != null) {
+                eventListeners.collectListeners(listeners);
+            }
+
+            EventListeners wildcardBucket = (mWildcardTrie != null)
+                    ? mWildcardTrie.get(eventName)
+                    : null;
+
+            if (wildcardBucket != null) {
+
+                ArrayList<HappeningListener> bucketListeners = new ArrayList<>();
+                wildcardBucket.collectListeners(bucketListeners);
+
+                // A literal eventName that is also a pattern already has the matching wildcards
+                for (HappeningListener iterListener : bucketListeners) {
+                    if (!listeners.contains(iterListener)) {
+                        listeners.add(iterListener);
+                    }
+                }
+            }
+        }
+
+        return listeners;
+    }
+
+    /**
+     * @return the HappeningMetrics counters of this hub, keyed by eventName
+     */
+    ConcurrentHashMap<String, EventCounters> getEventCounters() {
+        return mEventCounters;
+    }
+
+    /**
+     * Drops the HappeningMetrics counters of this hub, including the ones that are cached by
+     * listeners and listener buckets.
+     */
+    void clearMetrics() {
+
+        mEventCounters.clear();
+
+        ArrayList<HappeningListener> listeners = new ArrayList<>();
+
+        synchronized (mLockObj) {
+            for (EventListeners iterEventListeners : mListenerMap.values()) {
+                iterEventListeners.metrics = null;
+                iterEventListeners.collectListeners(listeners);
+            }
+
+            // New buckets without cached counters
+            if (mWildcardTrie != null) {
+                mWildcardTrie = new WildcardTrie(mWildcardListeners);
+                listeners.addAll(mWildcardListeners);
+            }
+        }
+
+        for (HappeningListener iterListener : listeners) {
+            iterListener.metrics = null;
+        }
+    }
+
+    /**
+     * Removes a weak listener whose callback has been garbage collected, called by
+     * Happening.sweepWeakListeners() without holding the lock of any hub.
+     */
+    void removeSwept(HappeningListener listener) {
+
+        boolean removed;
+
+        synchronized (mLockObj) {
+            removed = removeRegistered(listener);
+        }
+
+        if (removed && HappeningLog.LOG_ENABLED) {
+            HappeningLog.entry(HappeningHub.class)
+                    .put("SWEPT weak listener for eventName", listener.eventName)
+                    .put("uid", listener.uid)
+                    .commit();
+        }
+    }
+
+    /**
+     * Remove a single listener
+     * @param eventName the listener eventName
+     * @param eventUid the listener uid
+     */
+    public void removeListener(final String eventName, final int eventUid) {
+        synchronized (mLockObj) {
+
+            EventListeners eventListeners = mListenerMap.get(eventName);
+            boolean removed = false;
+
+            if (eventListeners != null && eventListeners.remove(eventUid, mReleaseIndex)) {
+                removeIfEmpty(eventName, eventListeners);
+                removed = true;
+            }
+
+            if (!mWildcardListeners.isEmpty()) {
+                for (HappeningListener iterListener : mWildcardListeners) {
+                    if (iterListener.uid == eventUid && iterListener.eventName.equals(eventName)) {
+                        mReleaseIndex.unregister(iterListener);
+                        removed = true;
+                    }
+                }
+                removeUnregisteredWildcards();
+            }
+
+            if (removed && HappeningLog.LOG_ENABLED) {
+                HappeningLog.entry(HappeningHub.class)
+                        .put("REMOVED listener for eventName", eventName)
+                        .put("eventUid", eventUid)
+                        .commit();
+            }
+        }
+    }
+
+    public ArrayList<Object> sendEvent(String eventName) {
+        return sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+    }
+
+    public ArrayList<Object> sendEvent(int eventGroupId, String eventName) {
+        return sendEvent(eventGroupId, eventName, null);
+    }
+
+    /**
+     * Sends an event. If the eventName has been made asynchronous with setAsyncEvent() then the
+     * listeners are run on that Executor and null is returned.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     * @return an ArrayList with all return data from listeners that are not posting to a Handler.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<Object> sendEvent(
+            int eventGroupId,
+            String eventName,
+            final Object payload
+    ) {
+        return (ArrayList<Object>) dispatchEvent(
+                null, eventGroupId, eventName, payload, null, false, RETURN_LIST, null, null
+        );
+    }
+
+    /**
+     * Same as sendEvent(int, String, Object) but uses the listeners referenced by eventKey
+     * instead of looking up eventName.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<Object> sendEvent(
+            int eventGroupId,
+            EventKey eventKey,
+            Object payload
+    ) {
+        return (ArrayList<Object>) dispatchEvent(
+                eventKey,
+                eventGroupId,
+                eventKey.eventName,
+                payload,
+                null,
+                false,
+                RETURN_LIST,
+                null,
+                null
+        );
+    }
+
+    public void sendEventAsync(String eventName) {
+        sendEventAsync(Happening.GROUP_ID_GLOBAL, eventName, null);
+    }
+
+    public void sendEventAsync(int eventGroupId, String eventName) {
+        sendEventAsync(eventGroupId, eventName, null);
+    }
+
+    /**
+     * Sends an event without waiting for the listeners, every listener that is not posting to a
+     * Handler is run as a separate task on the Executor set with setAsyncEvent() for eventName,
+     * or on the Executor returned by getAsyncExecutor(). Return values of listeners are ignored.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     */
+    public void sendEventAsync(
+            int eventGroupId,
+            String eventName,
+            final Object payload
+    ) {
+        dispatchEvent(
+                null, eventGroupId, eventName, payload, null, true, RETURN_NONE, null, null
+        );
+    }
+
+    /**
+     * Same as sendEventAsync(int, String, Object) but uses the listeners referenced by eventKey
+     * instead of looking up eventName.
+     */
+    public void sendEventAsync(int eventGroupId, EventKey eventKey, Object payload) {
+        dispatchEvent(
+                eventKey,
+                eventGroupId,
+                eventKey.eventName,
+                payload,
+                null,
+                true,
+                RETURN_NONE,
+                null,
+                null
+        );
+    }
+
+    public void publish(String eventName) {
+        publish(Happening.GROUP_ID_GLOBAL, eventName, null);
+    }
+
+    public void publish(int eventGroupId, String eventName) {
+        publish(eventGroupId, eventName, null);
+    }
+
+    /**
+     * Sends an event like sendEvent() but ignores the return values of listeners, so nothing
+     * is allocated while dispatching to listeners that run synchronously.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     */
+    public void publish(int eventGroupId, String eventName, Object payload) {
+        dispatchEvent(
+                null, eventGroupId, eventName, payload, null, false, RETURN_NONE, null, null
+        );
+    }
+
+    /**
+     * Same as publish(int, String, Object) but uses the listeners referenced by eventKey
+     * instead of looking up eventName.
+     */
+    public void publish(int eventGroupId, EventKey eventKey, Object payload) {
+        dispatchEvent(
+                eventKey,
+                eventGroupId,
+                eventKey.eventName,
+                payload,
+                null,
+                false,
+                RETURN_NONE,
+                null,
+                null
+        );
+    }
+
+    /**
+     * Sends an event like sendEvent() but folds the return values of listeners that run
+     * synchronously into accumulator instead of collecting them in an ArrayList, in the same
+     * order as sendEvent() would have returned them. Nothing is allocated while dispatching
+     * if reducer updates a mutable accumulator and returns it. Listeners that post to a Handler
+     * or run asynchronously are not folded.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     * @param accumulator the initial value that is passed to reducer
+     * @param reducer called with the current accumulator and the return value of a listener,
+     *                returns the next accumulator
+     * @return the last accumulator returned by reducer, accumulator if no listener was called
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A publishReduce(
+            int eventGroupId,
+            String eventName,
+            Object payload,
+            A accumulator,
+            RunReduce<A> reducer
+    ) {
+        return (A) dispatchEvent(
+                null,
+                eventGroupId,
+                eventName,
+                payload,
+                null,
+                false,
+                RETURN_REDUCE,
+                (RunReduce<Object>) reducer,
+                accumulator
+        );
+    }
+
+    public ArrayList<Object> sendEvents(String eventName, Collection<?> payloads) {
+        return sendEvents(Happening.GROUP_ID_GLOBAL, eventName, payloads);
+    }
+
+    /**
+     * Sends one event per payload in payloads with a single lookup of the listeners. Listeners
+     * with a RunObjectBatch callback get all payloads in one rBatch() call, other listeners get
+     * one r() call per payload. Each listener gets the whole batch before the next listener.
+     * A payload that a listener returns STOP_PROPAGATION for is not delivered to the listeners
+     * after it, the other payloads are, and STOP_PROPAGATION from rBatch() consumes the batch.
+     * @param eventGroupId the groupId that will scope the events
+     * @param eventName the name of the events
+     * @param payloads the payloads of the events, must not be modified during the call
+     * @return an ArrayList with all return data from listeners that are not posting to a Handler,
+     * one item per batch for RunObjectBatch listeners and one item per payload for the others.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<Object> sendEvents(
+            int eventGroupId,
+            String eventName,
+            Collection<?> payloads
+    ) {
+
+        if (payloads.size() == 0) {
+            return null;
+        }
+
+        return (ArrayList<Object>) dispatchEvent(
+                null, eventGroupId, eventName, null, payloads, false, RETURN_LIST, null, null
+        );
+    }
+
+    /**
+     * Sets the Executor that is used by sendEventAsync() for eventNames that have not been
+     * given an Executor with setAsyncEvent().
+     * @param executor the Executor to use, or null to go back to the default Executor
+     */
+    public void setAsyncExecutor(Executor executor) {
+        synchronized (mLockObj) {
+            mAsyncExecutor = executor;
+        }
+    }
+
+    /**
+     * @return the Executor used by sendEventAsync(), if none has been set then the Executor that
+     * is shared by all hubs, which runs listeners on virtual threads (when supported) or on a
+     * small thread pool and is created on first use.
+     */
+    public Executor getAsyncExecutor() {
+
+        Executor asyncExecutor = mAsyncExecutor;
+
+        if (asyncExecutor != null) {
+            return asyncExecutor;
+        }
+
+        asyncExecutor = sDefaultAsyncExecutor;
+
+        if (asyncExecutor != null) {
+            return asyncExecutor;
+        }
+
+        synchronized (HappeningHub.class) {
+            if (sDefaultAsyncExecutor == null) {
+                sDefaultAsyncExecutor = HappeningExecutors.newDefaultExecutor("Happening.async");
+            }
+            return sDefaultAsyncExecutor;
+        }
+    }
+
+    /**
+     * Makes every event sent with eventName asynchronous, including events sent with
+     * sendEvent(), using the Executor that getAsyncExecutor() returns at the time of this call.
+     * @param eventName the name of the event
+     * @param async true to dispatch eventName asynchronously, false to restore synchronous sends
+     */
+    public void setAsyncEvent(String eventName, boolean async) {
+        setAsyncEvent(eventName, async ? getAsyncExecutor() : null);
+    }
+
+    /**
+     * Makes every event sent with eventName asynchronous on executor, including events sent with
+     * sendEvent() which will then return null.
+     * @param eventName the name of the event
+     * @param executor the Executor that will run the listeners, or null to restore synchronous
+     *                 sends of eventName
+     */
+    public void setAsyncEvent(String eventName, Executor executor) {
+        synchronized (mLockObj) {
+
+            EventListeners eventListeners = mListenerMap.get(eventName);
+
+            if (eventListeners == null) {
+                if (executor == null) {
+                    return;
+                }
+                eventListeners = getOrCreateEventListeners(eventName);
+            }
+
+            eventListeners.asyncExecutor = executor;
+
+            removeIfEmpty(eventName, eventListeners);
+        }
+    }
+
+    /**
+     * Conflates every event sent with eventName that is delivered on an Executor, see
+     * HappeningListener.setConflate(). Combine with setAsyncEvent() to conflate all listeners.
+     * @param eventName the name of the event
+     * @param conflate true to conflate deliveries of eventName
+     */
+    public void setConflateEvent(String eventName, boolean conflate) {
+        synchronized (mLockObj) {
+
+            EventListeners eventListeners = mListenerMap.get(eventName);
+
+            if (eventListeners == null) {
+                if (!conflate) {
+                    return;
+                }
+                eventListeners = getOrCreateEventListeners(eventName);
+            }
+
+            eventListeners.conflate = conflate;
+
+            removeIfEmpty(eventName, eventListeners);
+        }
+    }
+
+    private Object dispatchEvent(
+            EventKey eventKey,
+            int eventGroupId,
+            String eventName,
+            Object payload,
+            Collection<?> payloads,
+            boolean async,
+            int returnMode,
+            RunReduce<Object> reducer,
+            Object accumulator
+    ) {
+
+        final long execStartTs;
+
+        if (HappeningLog.LOG_ENABLED) {
+            execStartTs = System.currentTimeMillis();
+        }
+        else {
+            execStartTs = 0;
+        }
+
+        if (eventKey != null && eventKey.hub != this) {
+            throw new IllegalArgumentException("The EventKey belongs to another HappeningHub.");
+        }
+
+        // Lock-free read, the listeners in a snapshot never change after it has been published
+        EventListeners eventListeners = (eventKey != null)
+                ? eventKey.listeners
+                : mListenerMap.get(eventName);
+
+        // Listeners of an eventName are only created when a listener is registered for it, so
+        // sends of other eventNames use the bucket of the longest matching wildcard pattern
+        if (eventListeners == null) {
+            WildcardTrie wildcardTrie = mWildcardTrie;
+            if (wildcardTrie != null) {
+                eventListeners = wildcardTrie.match(eventName);
+            }
+        }
+
+        if (HappeningLog.LOG_ENABLED) {
+            HappeningLog.entry(HappeningHub.class)
+                    .put("SEND", eventName)
+                    .put("eventGroupId", eventGroupId)
+                    .put("payload", (payloads != null) ? payloads : payload)
+                    .commit();
+        }
+
+        if (eventListeners == null) {
+            return (returnMode == RETURN_LIST) ? null : accumulator;//no listeners for eventName
+        }
+
+        Executor asyncExecutor = eventListeners.asyncExecutor;
+
+        // Timestamps are chained, the end of one listener invocation is the start of the next
+        final EventCounters metrics = HappeningMetrics.isEnabled()
+                ? HappeningMetrics.getEventCounters(mEventCounters, eventListeners, eventName)
+                : null;
+        final long sendStartNanos = (metrics != null) ? System.nanoTime() : 0;
+        long invocationStartNanos = sendStartNanos;
+        int matchedCount = 0;
+
+        if (async && asyncExecutor == null) {
+            asyncExecutor = getAsyncExecutor();
+        }
+
+        // Only the listeners of eventGroupId and GROUP_ID_GLOBAL are visited, the two snapshots
+        // are sorted in dispatch order and merged with the same order
+        final ListenerSnapshot groupSnapshot = eventListeners.getGroupListeners(eventGroupId);
+        final ListenerSnapshot globalSnapshot = eventListeners.globalListeners;
+
+        final HappeningListener[] groupListeners, globalListeners;
+        final int groupCount, globalCount;
+
+        if (groupSnapshot != null) {
+            groupListeners = groupSnapshot.listeners;
+            groupCount = groupSnapshot.size;
+        }
+        else {
+            groupListeners = null;
+            groupCount = 0;
+        }
+
+        globalListeners = globalSnapshot.listeners;
+        globalCount = globalSnapshot.size;
+
+        boolean foundListener = false, foundCollectedRun = false;
+        ArrayList<Object> synchronousReturnData = null;
+        Collection<?> deferredPayloads = null;
+
+        // The payloads that no listener has consumed with STOP_PROPAGATION yet, never modified
+        Collection<?> remainingPayloads = payloads;
+        HappeningListener iterListener;
+        int groupIndex = 0, globalIndex = 0;
+
+        while (groupIndex < groupCount || globalIndex < globalCount) {
+
+            if (
+                    globalIndex == globalCount || (
+                            groupIndex < groupCount && ListenerSnapshot.isBefore(
+                                    groupListeners[groupIndex],
+                                    globalListeners[globalIndex]
+                            )
+                    )
+                    ) {
+                iterListener = groupListeners[groupIndex++];
+            }
+            else {
+                iterListener = globalListeners[globalIndex++];
+            }
+
+            final RunObject listenerRun = iterListener.getListenerRun();
+
+            if (listenerRun == null) {
+                foundCollectedRun = true;//weak listener that has not been swept yet
+                continue;
+            }
+
+            // Filtered on the sending thread, so discarded payloads never reach an Executor
+            Collection<?> listenerPayloads = remainingPayloads;
+            boolean[] acceptedMask = null;
+
+            if (iterListener.filter != null) {
+
+                boolean accepted;
+
+                if (payloads == null) {
+                    accepted = Boolean.TRUE.equals(iterListener.filter.r(payload));
+                }
+                else {
+                    acceptedMask = new boolean[remainingPayloads.size()];
+                    listenerPayloads = filterPayloads(
+                            iterListener.filter,
+                            remainingPayloads,
+                            acceptedMask
+                    );
+                    accepted = !listenerPayloads.isEmpty();
+                }
+
+                if (!accepted) {
+                    if (metrics != null) {
+                        invocationStartNanos = System.nanoTime();
+                    }
+                    continue;
+                }
+            }
+
+            matchedCount++;
+
+            final Executor listenerExecutor = (iterListener.executor != null)
+                    ? iterListener.executor
+                    : asyncExecutor;
+
+            if (!foundListener && asyncExecutor == null && returnMode == RETURN_LIST) {
+                foundListener = true;
+                synchronousReturnData = new ArrayList<>(groupCount + globalCount);
+            }
+
+            if (HappeningLog.LOG_ENABLED) {
+                HappeningLog.entry(HappeningHub.class)
+                        .put("GET", eventName)
+                        .put("listenGroupId", iterListener.listenGroupId)
+                        .put("uid", iterListener.uid)
+                        .commit();
+            }
+
+            if (listenerExecutor == null) {
+
+                boolean stopped;
+
+                if (listenerPayloads != null) {
+
+                    boolean[] stoppedMask = Happening.deliverBatch(
+                            listenerRun,
+                            listenerPayloads,
+                            synchronousReturnData
+                    );
+
+                    // Like separate sends, only the consumed payloads skip the next listeners
+                    if (stoppedMask != null) {
+                        remainingPayloads = removeStopped(
+                                remainingPayloads,
+                                acceptedMask,
+                                stoppedMask
+                        );
+                    }
+
+                    stopped = remainingPayloads.isEmpty();
+                }
+                else {
+                    Object listenerReturn = listenerRun.r(payload);
+                    stopped = listenerReturn == Happening.STOP_PROPAGATION;
+
+                    if (!stopped && returnMode == RETURN_LIST) {
+                        synchronousReturnData.add(listenerReturn);
+                    }
+                    else if (!stopped && returnMode == RETURN_REDUCE) {
+                        accumulator = reducer.r(accumulator, listenerReturn);
+                    }
+                }
+
+                if (metrics != null) {
+                    long invocationEndNanos = System.nanoTime();
+                    HappeningMetrics.recordInvocation(
+                            iterListener,
+                            invocationEndNanos - invocationStartNanos
+                    );
+                    invocationStartNanos = invocationEndNanos;
+                }
+
+                if (stopped) {
+                    break;
+                }
+                continue;
+            }
+
+            if (iterListener.conflate || eventListeners.conflate) {
+                iterListener.conflate(
+                        eventName,
+                        eventGroupId,
+                        listenerExecutor,
+                        (listenerPayloads != null) ? lastPayload(listenerPayloads) : payload
+                );
+            }
+            else {
+                // Deferred listeners run after this method returns, so they get a copy of payloads
+                Collection<?> listenerDeferredPayloads = null;
+
+                if (listenerPayloads != payloads) {
+                    listenerDeferredPayloads = Collections.unmodifiableCollection(listenerPayloads);
+                }
+                else if (payloads != null) {
+                    if (deferredPayloads == null) {
+                        deferredPayloads =
+                                Collections.unmodifiableList(new ArrayList<Object>(payloads));
+                    }
+                    listenerDeferredPayloads = deferredPayloads;
+                }
+
+                Delivery delivery = Delivery.obtain(
+                        iterListener.uid,
+                        listenerRun,
+                        payload,
+                        listenerDeferredPayloads
+                );
+
+                if (iterListener.queue != null) {
+                    iterListener.queue.offer(listenerExecutor, delivery);
+                }
+                else {
+                    listenerExecutor.execute(delivery);
+                }
+            }
+
+            if (metrics != null) {
+                invocationStartNanos = System.nanoTime();
+            }
+        }
+
+        if (metrics != null) {
+            metrics.recordSend(matchedCount, System.nanoTime() - sendStartNanos);
+        }
+
+        if (foundCollectedRun) {
+            Happening.sweepWeakBatch();
+        }
+
+        if (HappeningLog.LOG_ENABLED) {
+            HappeningLog.entry(HappeningHub.class)
+                    .put("SEND", eventName)
+                    .put("eventGroupId", eventGroupId)
+                    .put("payload", (payloads != null) ? payloads : payload)
+                    .put("execution duration", System.currentTimeMillis() - execStartTs)
+                    .commit();
+        }
+
+        return (returnMode == RETURN_LIST) ? synchronousReturnData : accumulator;
+    }
+
+    /**
+     * @return payloads if filter accepts all of them, otherwise a new list with the accepted
+     * payloads
+     */
+    /**
+     * @param acceptedMask set to true at the position of every payload that filter accepts
+     * @return the accepted payloads, payloads itself if all of them are accepted
+     */
+    private static Collection<?> filterPayloads(
+            Run<Boolean, Object> filter,
+            Collection<?> payloads,
+            boolean[] acceptedMask
+    ) {
+        ArrayList<Object> acceptedPayloads = new ArrayList<>(payloads.size());
+        int index = 0;
+
+        for (Object iterPayload : payloads) {
+            if (Boolean.TRUE.equals(filter.r(iterPayload))) {
+                acceptedPayloads.add(iterPayload);
+                acceptedMask[index] = true;
+            }
+            index++;
+        }
+
+        return (acceptedPayloads.size() == payloads.size()) ? payloads : acceptedPayloads;
+    }
+
+    /**
+     * @param payloads the payloads that a listener was sent
+     * @param acceptedMask the payloads that the filter of the listener accepted, null if the
+     *                     listener got all payloads
+     * @param stoppedMask the payloads that the listener returned STOP_PROPAGATION for, by
+     *                    position in the payloads that it got
+     * @return a new list with the payloads that are not stopped
+     */
+    private static ArrayList<Object> removeStopped(
+            Collection<?> payloads,
+            boolean[] acceptedMask,
+            boolean[] stoppedMask
+    ) {
+        ArrayList<Object> remainingPayloads = new ArrayList<>(payloads.size());
+        int index = 0, listenerIndex = 0;
+
+        for (Object iterPayload : payloads) {
+
+            boolean delivered = acceptedMask == null || acceptedMask[index];
+
+            if (!delivered || !stoppedMask[listenerIndex]) {
+                remainingPayloads.add(iterPayload);
+            }
+
+            if (delivered) {
+                listenerIndex++;
+            }
+            index++;
+        }
+
+        return remainingPayloads;
+    }
+
+    private static Object lastPayload(Collection<?> payloads) {
+
+        if (payloads instanceof List) {
+            List<?> payloadList = (List<?>) payloads;
+            return payloadList.get(payloadList.size() - 1);
+        }
+
+        Object lastPayload = null;
+
+        for (Object iterPayload : payloads) {
+            lastPayload = iterPayload;
+        }
+
+        return lastPayload;
+    }
+
+}
@@ -2,23 +2,89 @@ package com.ztory.lib.happening;
 
 import android.os.Handler;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Class used to register listeners in the Happening class.
+ * Class used to register listeners in a HappeningHub, or in the Happening class.
  * Created by jonruna on 01/12/15.
  */
 public class HappeningListener {
 
+    /** Overflow policies of setQueue(), applied when a send finds the queue full. */
+    public static final int
+            QUEUE_BLOCK = 0,
+            QUEUE_DROP_OLDEST = 1,
+            QUEUE_DROP_NEWEST = 2,
+            QUEUE_FAIL_FAST = 3;
+
+    /**
+     * A listener created with wildcard() and a pattern that ends with WILDCARD subscribes to
+     * every eventName that starts with the rest of the pattern, see
+     * Happening.getEventNamePattern(). Listeners created with a constructor always listen to
+     * their literal eventName, also when it ends with WILDCARD.
+     */
+    public static final String WILDCARD = "*";
+
     private static final AtomicInteger uidAtomInt = new AtomicInteger(0);
 
     public final int uid;
     public final int listenGroupId;
-    private final int[] releaseGroupIds;
+    final int[] releaseGroupIds;
     public final String eventName;
+
+    /** Not null if this listener was created with an EventKey. */
+    final EventKey eventKey;
+
+    /** Not null if created with wildcard(), matched eventNames start with this prefix. */
+    final String eventNamePrefix;
+
+    /** The callback of the listener, null for weak listeners, see getListenerRun(). */
     public final RunObject listenerAsyncRun;
     public final Handler postToUiHandler;
 
+    /**
+     * Runs the callback when not null, set from postToUiHandler or with setExecutor(). Written
+     * before the listener is registered and only read by sends after that.
+     */
+    Executor executor;
+
+    /** If not null then only payloads it returns true for are delivered, see setFilter(). */
+    Run<Boolean, Object> filter;
+
+    /** Listeners with a higher priority are called first, see setPriority(). */
+    int priority = 0;
+
+    /** If true then deliveries on an Executor are conflated, see setConflate(). */
+    boolean conflate = false;
+
+    /** Not null if deliveries on an Executor go through a bounded queue, see setQueue(). */
+    ListenerQueue queue;
+
+    /**
+     * The conflated deliveries in flight, keyed by eventName and eventGroupId. Read without
+     * locking, modified while holding this.
+     */
+    private final ConcurrentHashMap<String, IntMap<ConflatedDelivery>> conflatedDeliveries =
+            new ConcurrentHashMap<>(4, 0.75f, 1);
+
+    /** Not null for weak listeners, holds the callback instead of listenerAsyncRun. */
+    final WeakRun weakRun;
+
+    /**
+     * Written while holding the lock of hub, true while this listener is registered in hub.
+     * Volatile since the setters read it without that lock to reject changes once registered,
+     * it is set before the listener is published to sends.
+     */
+    volatile boolean registered = false;
+
+    /** The hub that this listener was last registered in, set while holding its lock. */
+    volatile HappeningHub hub;
+
+    /** Created by HappeningMetrics on the first timed invocation of this listener. */
+    volatile ListenerCounters metrics;
+
     public HappeningListener(
             RunObject theListenerAsyncRun,
             String theEventName,
@@ -34,6 +100,21 @@ public class HappeningListener {
         );
     }
 
+    public HappeningListener(
+            RunObject theListenerAsyncRun,
+            EventKey theEventKey,
+            int theListenGroupId,
+            int... theReleaseGroupIds
+    ) {
+        this(
+                theListenerAsyncRun,
+                null,
+                theEventKey,
+                theListenGroupId,
+                theReleaseGroupIds
+        );
+    }
+
     /**
      * Create a listener that can be used to listen to events in the Happening class.
      * If no theReleaseGroupIds are supplied, then an array containing only theListenGroupId
@@ -52,10 +133,172 @@ public class HappeningListener {
             int theListenGroupId,
             int... theReleaseGroupIds
     ) {
+        this(
+                theListenerAsyncRun,
+                thePostToUiHandler,
+                theEventName,
+                null,
+                theListenGroupId,
+                theReleaseGroupIds,
+                false,
+                false
+        );
+    }
+
+    /**
+     * Same as the constructor that takes an eventName, but registering this listener uses the
+     * listeners referenced by theEventKey instead of looking up the eventName.
+     */
+    public HappeningListener(
+            RunObject theListenerAsyncRun,
+            Handler thePostToUiHandler,
+            EventKey theEventKey,
+            int theListenGroupId,
+            int... theReleaseGroupIds
+    ) {
+        this(
+                theListenerAsyncRun,
+                thePostToUiHandler,
+                theEventKey.eventName,
+                theEventKey,
+                theListenGroupId,
+                theReleaseGroupIds,
+                false,
+                false
+        );
+    }
+
+    /**
+     * Creates a weak listener, Happening only holds theListenerAsyncRun weakly so the caller
+     * must keep a reference to it for as long as the listener should receive events. When
+     * theListenerAsyncRun has been garbage collected the listener stops receiving events and
+     * is removed from Happening without having to be released.
+     * Note that an anonymous RunObject is collected right away unless it is stored somewhere.
+     */
+    public static HappeningListener weak(
+            RunObject theListenerAsyncRun,
+            String theEventName,
+            int theListenGroupId,
+            int... theReleaseGroupIds
+    ) {
+        return weak(
+                theListenerAsyncRun,
+                null,
+                theEventName,
+                theListenGroupId,
+                theReleaseGroupIds
+        );
+    }
+
+    /**
+     * Same as weak(RunObject, String, int, int...) but posts the callback to thePostToUiHandler.
+     */
+    public static HappeningListener weak(
+            RunObject theListenerAsyncRun,
+            Handler thePostToUiHandler,
+            String theEventName,
+            int theListenGroupId,
+            int... theReleaseGroupIds
+    ) {
+        return new HappeningListener(
+                theListenerAsyncRun,
+                thePostToUiHandler,
+                theEventName,
+                null,
+                theListenGroupId,
+                theReleaseGroupIds,
+                true,
+                false
+        );
+    }
+
+    /**
+     * Same as weak(RunObject, String, int, int...) but registers with theEventKey.
+     */
+    public static HappeningListener weak(
+            RunObject theListenerAsyncRun,
+            EventKey theEventKey,
+            int theListenGroupId,
+            int... theReleaseGroupIds
+    ) {
+        return new HappeningListener(
+                theListenerAsyncRun,
+                null,
+                theEventKey.eventName,
+                theEventKey,
+                theListenGroupId,
+                theReleaseGroupIds,
+                true,
+                false
+        );
+    }
+
+    /**
+     * Creates a listener that receives the events of every eventName that starts with
+     * thePattern without its trailing WILDCARD, for example a pattern from
+     * Happening.getEventNamePattern(). Remove it with endListening(), its groupIds or
+     * Happening.removeListeners(thePattern).
+     * @param theListenerAsyncRun the callback interface
+     * @param thePattern an eventName prefix followed by WILDCARD
+     * @param theListenGroupId the groupId to listen to
+     * @param theReleaseGroupIds the groupIds that this listener will release on
+     * @return a new wildcard listener
+     * @throws IllegalArgumentException if thePattern does not end with WILDCARD
+     */
+    public static HappeningListener wildcard(
+            RunObject theListenerAsyncRun,
+            String thePattern,
+            int theListenGroupId,
+            int... theReleaseGroupIds
+    ) {
+        return new HappeningListener(
+                theListenerAsyncRun,
+                null,
+                thePattern,
+                null,
+                theListenGroupId,
+                theReleaseGroupIds,
+                false,
+                true
+        );
+    }
+
+    private HappeningListener(
+            RunObject theListenerAsyncRun,
+            Handler thePostToUiHandler,
+            String theEventName,
+            EventKey theEventKey,
+            int theListenGroupId,
+            int[] theReleaseGroupIds,
+            boolean theWeakRun,
+            boolean theWildcard
+    ) {
+        if (theWildcard && !theEventName.endsWith(WILDCARD)) {
+            throw new IllegalArgumentException(
+                    "A wildcard pattern must end with " + WILDCARD + ": " + theEventName
+            );
+        }
+
         uid = uidAtomInt.incrementAndGet();
-        listenerAsyncRun = theListenerAsyncRun;
+
+        if (theWeakRun) {
+            listenerAsyncRun = null;
+            weakRun = new WeakRun(theListenerAsyncRun, this);
+        }
+        else {
+            listenerAsyncRun = theListenerAsyncRun;
+            weakRun = null;
+        }
+
         postToUiHandler = thePostToUiHandler;
+        executor = (thePostToUiHandler != null)
+                ? HappeningExecutors.forHandler(thePostToUiHandler)
+                : null;
         eventName = theEventName;
+        eventKey = theEventKey;
+        eventNamePrefix = theWildcard
+                ? theEventName.substring(0, theEventName.length() - WILDCARD.length())
+                : null;
         listenGroupId = theListenGroupId;
 
         if (theReleaseGroupIds.length == 0) {
@@ -66,6 +309,272 @@ public class HappeningListener {
         }
     }
 
+    /**
+     * @return the callback of this listener, or null if this is a weak listener and the
+     * callback has been garbage collected
+     */
+    public RunObject getListenerRun() {
+        return (weakRun == null) ? listenerAsyncRun : weakRun.get();
+    }
+
+    /**
+     * Delivers events to this listener on theExecutor instead of the sending thread, replacing
+     * postToUiHandler if one was supplied. The return value of the callback is then not part
+     * of the list returned by Happening.sendEvent(). Use
+     * HappeningExecutors.newSerialExecutor() to keep events in send order on a thread pool.
+     * @param theExecutor runs the callback, or null to run it on the sending thread
+     * @return this listener
+     * @throws IllegalStateException if this listener has been started
+     */
+    public HappeningListener setExecutor(Executor theExecutor) {
+
+        if (registered) {
+            throw new IllegalStateException(
+                    "setExecutor() must be called before startListening()"
+            );
+        }
+
+        executor = theExecutor;
+        return this;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Only delivers the payloads that theFilter returns true for. The filter is called on the
+     * sending thread before the callback is invoked or posted to an Executor, so discarded
+     * payloads cost neither a task nor a thread hop. Batches sent with sendEvents() are filtered
+     * payload by payload. The filter must be thread-safe if events are sent from several
+     * threads, and should be cheap since it runs on the sending thread.
+     * @param theFilter returns true for payloads to deliver, or null to deliver all payloads
+     * @return this listener
+     * @throws IllegalStateException if this listener has been started
+     */
+    public HappeningListener setFilter(Run<Boolean, Object> theFilter) {
+
+        if (registered) {
+            throw new IllegalStateException(
+                    "setFilter() must be called before startListening()"
+            );
+        }
+
+        filter = theFilter;
+        return this;
+    }
+
+    public Run<Boolean, Object> getFilter() {
+        return filter;
+    }
+
+    /**
+     * Listeners with a higher priority get events before listeners with a lower priority,
+     * listeners with the same priority are called in the order they were created. The order is
+     * resolved when the listener is registered, so it costs nothing when events are sent. A
+     * listener on the sending thread can return Happening.STOP_PROPAGATION to keep the event
+     * from the listeners after it.
+     * @param thePriority the priority, defaults to 0
+     * @return this listener
+     * @throws IllegalStateException if this listener has been started
+     */
+    public HappeningListener setPriority(int thePriority) {
+
+        if (registered) {
+            throw new IllegalStateException(
+                    "setPriority() must be called before startListening()"
+            );
+        }
+
+        priority = thePriority;
+        return this;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Conflates the events that are delivered to this listener on an Executor, either the one
+     * set with setExecutor() or the executor of an async event: only the latest payload per
+     * eventName and eventGroupId is delivered once the previous delivery has finished, earlier
+     * payloads that were still pending are dropped. Events delivered on the sending thread are
+     * not affected. Use it for high-frequency events where only the latest state matters, like
+     * progress.
+     * @param theConflate true to conflate deliveries
+     * @return this listener
+     * @throws IllegalStateException if this listener has been started
+     */
+    public HappeningListener setConflate(boolean theConflate) {
+
+        if (registered) {
+            throw new IllegalStateException(
+                    "setConflate() must be called before startListening()"
+            );
+        }
+
+        conflate = theConflate;
+        return this;
+    }
+
+    public boolean isConflate() {
+        return conflate;
+    }
+
+    /**
+     * Bounds the number of deliveries to this listener that can be waiting for its Executor,
+     * the Executor set with setExecutor() or the executor of an async event. Queued deliveries
+     * are run one at a time in send order. When a send finds the queue full, overflowPolicy
+     * decides what happens:
+     * <ul>
+     * <li>QUEUE_BLOCK - the sending thread waits for room in the queue. Do not use it if this
+     * listener can send its own event, or if the sender may be the thread of the Executor.</li>
+     * <li>QUEUE_DROP_OLDEST - the oldest queued delivery is dropped to make room.</li>
+     * <li>QUEUE_DROP_NEWEST - the new delivery is dropped.</li>
+     * <li>QUEUE_FAIL_FAST - the send throws a RejectedExecutionException, listeners after this
+     * one do not get the event.</li>
+     * </ul>
+     * Dropped and rejected deliveries are counted by getQueueDroppedCount(). Conflating
+     * listeners are not queued, they never have more than one pending delivery.
+     * @param capacity the maximum number of queued deliveries
+     * @param overflowPolicy one of the QUEUE_ constants
+     * @return this listener
+     * @throws IllegalStateException if this listener has been started
+     */
+    public HappeningListener setQueue(int capacity, int overflowPolicy) {
+
+        if (registered) {
+            throw new IllegalStateException(
+                    "setQueue() must be called before startListening()"
+            );
+        }
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than zero.");
+        }
+
+        if (overflowPolicy < QUEUE_BLOCK || overflowPolicy > QUEUE_FAIL_FAST) {
+            throw new IllegalArgumentException("Unknown overflowPolicy: " + overflowPolicy);
+        }
+
+        queue = new ListenerQueue(uid, capacity, overflowPolicy);
+        return this;
+    }
+
+    /**
+     * @return the number of deliveries waiting in the queue of this listener, 0 if it has no
+     * queue
+     */
+    public int getQueueDepth() {
+        return (queue != null) ? queue.depth() : 0;
+    }
+
+    /**
+     * @return the capacity set with setQueue(), 0 if this listener has no queue
+     */
+    public int getQueueCapacity() {
+        return (queue != null) ? queue.capacity() : 0;
+    }
+
+    /**
+     * @return the number of deliveries dropped or rejected because the queue was full
+     */
+    public long getQueueDroppedCount() {
+        return (queue != null) ? queue.droppedCount.get() : 0;
+    }
+
+    /**
+     * Delivers payload on executor, merged with the other undelivered payloads of eventName in
+     * eventGroupId, see setConflate().
+     */
+    void conflate(String eventName, int eventGroupId, Executor executor, Object payload) {
+        ConflatedDelivery delivery = getConflatedDelivery(eventName, eventGroupId);
+
+        // A retired delivery may not have removed itself yet, then this send replaces it
+        while (!delivery.offer(executor, payload)) {
+            removeConflatedDelivery(delivery);
+            delivery = getConflatedDelivery(eventName, eventGroupId);
+        }
+    }
+
+    /**
+     * @return the ConflatedDelivery of eventName in eventGroupId, created if needed
+     */
+    private ConflatedDelivery getConflatedDelivery(String eventName, int eventGroupId) {
+
+        IntMap<ConflatedDelivery> deliveries = conflatedDeliveries.get(eventName);
+        ConflatedDelivery delivery = (deliveries != null) ? deliveries.get(eventGroupId) : null;
+
+        if (delivery != null) {
+            return delivery;
+        }
+
+        synchronized (this) {
+
+            deliveries = conflatedDeliveries.get(eventName);
+
+            if (deliveries == null) {
+                deliveries = new IntMap<>();
+                conflatedDeliveries.put(eventName, deliveries);
+            }
+
+            delivery = deliveries.get(eventGroupId);
+
+            if (delivery == null) {
+                delivery = new ConflatedDelivery(this, eventName, eventGroupId);
+                deliveries.put(eventGroupId, delivery);
+            }
+
+            return delivery;
+        }
+    }
+
+    /**
+     * Removes a retired delivery, does nothing if it has already been replaced.
+     */
+    synchronized void removeConflatedDelivery(ConflatedDelivery delivery) {
+
+        IntMap<ConflatedDelivery> deliveries = conflatedDeliveries.get(delivery.eventName);
+
+        if (deliveries == null || deliveries.get(delivery.eventGroupId) != delivery) {
+            return;
+        }
+
+        deliveries.remove(delivery.eventGroupId);
+
+        if (deliveries.isEmpty()) {
+            conflatedDeliveries.remove(delivery.eventName);
+        }
+    }
+
+    /**
+     * @return the number of conflated deliveries that are kept for this listener, for tests
+     */
+    synchronized int getConflatedDeliveryCount() {
+
+        int count = 0;
+
+        for (IntMap<ConflatedDelivery> iterDeliveries : conflatedDeliveries.values()) {
+            count += iterDeliveries.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * @param sentEventName the eventName of a sent event
+     * @return true if this listener listens to sentEventName, either because it is equal to
+     * eventName or because this is a wildcard listener whose pattern matches it
+     */
+    public boolean matchesEventName(String sentEventName) {
+
+        if (eventNamePrefix != null) {
+            return sentEventName.startsWith(eventNamePrefix);
+        }
+
+        return eventName == sentEventName || eventName.equals(sentEventName);
+    }
+
     public boolean releaseOnGroupId(int groupIdToRelease) {
         for (int iterGroupId : releaseGroupIds) {
             if (iterGroupId == groupIdToRelease) {
@@ -75,13 +584,30 @@ public class HappeningListener {
         return false;
     }
 
+    /**
+     * Registers this listener in the hub of its EventKey, or in Happening.getDefaultHub() if it
+     * was created with an eventName.
+     */
     public HappeningListener startListening() {
-        Happening.addListener(this);
+        return startListening((eventKey != null) ? eventKey.hub : Happening.getDefaultHub());
+    }
+
+    public HappeningListener startListening(HappeningHub theHub) {
+        theHub.addListener(this);
         return this;
     }
 
+    /**
+     * Removes this listener from the hub that it is registered in.
+     */
     public HappeningListener endListening() {
-        Happening.removeListener(this);
+
+        HappeningHub registeredHub = hub;
+
+        if (registeredHub != null) {
+            registeredHub.removeListener(this);
+        }
+
         return this;
     }
 
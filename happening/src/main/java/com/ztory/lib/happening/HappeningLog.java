@@ -1,10 +1,20 @@
 package com.ztory.lib.happening;
 
-import android.util.Log;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Simple log helper class that prints Log.d() statements in a key-value pattern.
- * Created by jonruna on 01/12/15.
+ * Asynchronous key-value logger. Log lines are recorded into a preallocated ring buffer of
+ * LogEntry slots without boxing or string building on the calling thread, and are formatted and
+ * written to a HappeningLogSink by a single daemon thread:
+ * <pre>
+ * if (HappeningLog.LOG_ENABLED) {
+ *     HappeningLog.entry(getClass()).put("eventName", eventName).put("uid", uid).commit();
+ * }
+ * </pre>
+ * When the ring buffer is full new entries are dropped rather than blocking the caller, see
+ * getDroppedCount().
  */
 public class HappeningLog {
 
@@ -15,12 +25,57 @@ public class HappeningLog {
      */
     public static boolean LOG_ENABLED = false;
 
-    private static final String
-            LOG_TAG_PRE = "[",
-            LOG_TAG_POST = "] ",
-            KV_SEPARATOR = " | ",
-            VALUE_PREFIX = ": ";
+    static final int RING_SIZE = 1024;
 
+    private static final int CONSUMED_BATCH_MASK = 63;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Handed out when the ring buffer is full, ignores all fields and commits. */
+    private static final LogEntry DROPPED_ENTRY = new LogEntry(null);
+
+    private static final Object sLockObj = new Object();
+
+    private static volatile Ring sRing;
+
+    private static volatile HappeningLogSink sSink =
+            "Dalvik".equals(System.getProperty("java.vm.name"))
+                    ? HappeningLogSink.ANDROID
+                    : HappeningLogSink.SYSTEM_OUT;
+
+    /**
+     * @param sink receives every formatted log line, defaults to HappeningLogSink.ANDROID on
+     *             Android and to HappeningLogSink.SYSTEM_OUT everywhere else
+     */
+    public static void setSink(HappeningLogSink sink) {
+
+        if (sink == null) {
+            throw new IllegalArgumentException("sink == null");
+        }
+
+        sSink = sink;
+    }
+
+    public static HappeningLogSink getSink() {
+        return sSink;
+    }
+
+    /**
+     * Claims a slot in the ring buffer for one log line, add fields with put() and hand it over
+     * with commit(). Does not check LOG_ENABLED, callers check it before building the entry.
+     * @param callingClass the simple name of callingClass is used as log tag
+     * @return the claimed LogEntry, must be committed
+     */
+    public static LogEntry entry(Class callingClass) {
+        return getRing().claim(callingClass);
+    }
+
+    /**
+     * Logs msgs as key-value pairs, prefer entry() which neither allocates a varargs array nor
+     * boxes primitive values.
+     * @param callingClass the simple name of callingClass is used as log tag
+     * @param msgs alternating keys and values
+     */
     public static void log(Class callingClass, Object... msgs) {
 
         if (!LOG_ENABLED) {
@@ -34,27 +89,182 @@ public class HappeningLog {
             throw new IllegalArgumentException("msgs.length must be dividable by 2.");
         }
 
-        String logTag = callingClass.getSimpleName();
+        LogEntry entry = entry(callingClass);
+
+        for (int i = 0; i < msgs.length; i += 2) {
+            entry.put(String.valueOf(msgs[i]), msgs[i + 1]);
+        }
+
+        entry.commit();
+    }
 
-        StringBuilder sb = new StringBuilder();
+    /**
+     * Waits until every entry that was claimed before this call has been written to the sink.
+     * @param timeout the maximum time to wait
+     * @param unit the unit of timeout
+     * @return true if all entries were written, false if timeout elapsed first
+     */
+    public static boolean flush(long timeout, TimeUnit unit) {
 
-        sb.append(LOG_TAG_PRE);
-        sb.append(logTag);
-        sb.append(LOG_TAG_POST);
+        Ring ring = sRing;
 
-        for (int i = 0; i < msgs.length; i += 2) {
+        if (ring == null) {
+            return true;
+        }
+
+        long target = ring.claimCursor.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
 
-            if (i > 0) {
-                sb.append(KV_SEPARATOR);
+        while (ring.consumed < target) {
+
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
             }
-            sb.append(msgs[i]);
-            sb.append(VALUE_PREFIX);
-            sb.append(msgs[i + 1]);
+
+            LockSupport.unpark(ring.thread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
         }
 
-        String entireLog = sb.toString();
+        return true;
+    }
+
+    /**
+     * @return the number of entries that have been dropped because the ring buffer was full
+     */
+    public static long getDroppedCount() {
+        Ring ring = sRing;
+        return (ring != null) ? ring.droppedCount.get() : 0;
+    }
+
+    private static Ring getRing() {
+
+        Ring ring = sRing;
+
+        if (ring != null) {
+            return ring;
+        }
+
+        synchronized (sLockObj) {
+            if (sRing == null) {
+                sRing = new Ring(RING_SIZE);
+                sRing.thread.start();
+            }
+            return sRing;
+        }
+    }
+
+    /**
+     * Multi-producer, single-consumer ring buffer of LogEntry slots. Producers claim a sequence
+     * with a CAS on claimCursor and publish the slot by writing its publishedSequence, the log
+     * thread consumes slots in sequence order.
+     */
+    static final class Ring implements Runnable {
+
+        final AtomicLong
+                claimCursor = new AtomicLong(),
+                droppedCount = new AtomicLong();
+
+        final Thread thread;
+
+        /**
+         * Sequence of the next entry the log thread will write, a slot is free once passed.
+         * Updated every CONSUMED_BATCH_MASK + 1 entries and whenever the log thread runs dry.
+         */
+        volatile long consumed;
+
+        /** True while the log thread is parked, or about to park, waiting for entries. */
+        volatile boolean waiting;
+
+        private final LogEntry[] mSlots;
+        private final int mMask;
+
+        Ring(int size) {
+
+            mSlots = new LogEntry[size];
+            mMask = size - 1;
+
+            for (int i = 0; i < size; i++) {
+                mSlots[i] = new LogEntry(this);
+            }
+
+            thread = new Thread(this, "HappeningLog");
+            thread.setDaemon(true);
+        }
+
+        LogEntry claim(Class tag) {
+
+            long sequence;
+
+            do {
+                sequence = claimCursor.get();
+
+                if (sequence - consumed >= mSlots.length) {
+                    droppedCount.incrementAndGet();
+                    return DROPPED_ENTRY;
+                }
+            }
+            while (!claimCursor.compareAndSet(sequence, sequence + 1));
+
+            LogEntry entry = mSlots[(int) sequence & mMask];
+            entry.begin(sequence, tag);
+            return entry;
+        }
+
+        void publish(LogEntry entry, long sequence) {
+
+            entry.publishedSequence = sequence;
+
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+
+            StringBuilder sb = new StringBuilder();
+            long sequence = consumed;
+
+            while (true) {
+
+                LogEntry entry = mSlots[(int) sequence & mMask];
+
+                if (entry.publishedSequence != sequence) {
+
+                    if (consumed != sequence) {
+                        consumed = sequence;
+                        continue;
+                    }
+
+                    waiting = true;
+
+                    // Check again after announcing that we park, publish() may have missed it
+                    if (entry.publishedSequence != sequence) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+
+                    waiting = false;
+                    continue;
+                }
+
+                String logTag = entry.format(sb);
+
+                try {
+                    sSink.write(logTag, sb.toString());
+                }
+                catch (RuntimeException e) {
+                    //a failing sink must not stop the log thread, the line is lost
+                }
+
+                sequence++;
+
+                // Free slots in batches, every write of consumed is a cache miss for producers
+                if ((sequence & CONSUMED_BATCH_MASK) == 0) {
+                    consumed = sequence;
+                }
+            }
+        }
 
-        Log.d(logTag, entireLog);
     }
 
 }
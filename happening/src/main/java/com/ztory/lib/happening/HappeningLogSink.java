@@ -0,0 +1,32 @@
+package com.ztory.lib.happening;
+
+import android.util.Log;
+
+/**
+ * Receives the formatted lines of HappeningLog, always called from the HappeningLog thread.
+ * Set a custom sink with HappeningLog.setSink() to forward logs to a logging framework.
+ */
+public interface HappeningLogSink {
+
+    /**
+     * Writes to android.util.Log with Log.d(), the default sink when running on Android.
+     */
+    HappeningLogSink ANDROID = new HappeningLogSink() {
+        @Override
+        public void write(String tag, String message) {
+            Log.d(tag, message);
+        }
+    };
+
+    /**
+     * Writes to System.out, the default sink when not running on Android.
+     */
+    HappeningLogSink SYSTEM_OUT = new PrintStreamLogSink(System.out);
+
+    /**
+     * @param tag the simple name of the class that logged
+     * @param message the formatted log line, including the tag
+     */
+    void write(String tag, String message);
+
+}
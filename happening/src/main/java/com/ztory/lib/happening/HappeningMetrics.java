@@ -0,0 +1,200 @@
+package com.ztory.lib.happening;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Low-overhead dispatch metrics for Happening: per eventName send counts, matched listener
+ * counts and send latency, and per listener invocation latency and slow invocations. Only
+ * synchronous invocations are timed, listeners that post to a Handler or run async are counted
+ * as matched but not timed. Latencies are recorded in lock-free log-linear histograms, read them
+ * with snapshot(). Each HappeningHub has its own event metrics, the methods without a hub
+ * parameter read the metrics of Happening.getDefaultHub(). Sends of an eventName that only has
+ * wildcard listeners are recorded under the longest matching wildcard pattern, so dynamic
+ * eventNames do not add counters.
+ */
+public class HappeningMetrics {
+
+    private static volatile boolean sEnabled = false;
+
+    private static final AtomicReferenceFieldUpdater<HappeningListener, ListenerCounters>
+            LISTENER_COUNTERS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+                    HappeningListener.class,
+                    ListenerCounters.class,
+                    "metrics"
+            );
+
+    /** Defaults to one frame at 60 fps, a listener slower than that will drop frames on UI. */
+    private static volatile long sSlowListenerNanos = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private static volatile Run<?, ListenerMetrics> sSlowListenerCallback;
+
+    /**
+     * Defaults to false, so nothing is recorded if not explicitly enabled. Costs two
+     * System.nanoTime() calls per send and one more per synchronous listener when enabled,
+     * each listener that is timed also gets a ~4KB histogram.
+     * @param enabled true to start recording, false to stop, recorded metrics are kept
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param duration invocations of a listener that take at least this long are counted as slow
+     * @param unit the unit of duration
+     */
+    public static void setSlowListenerThreshold(long duration, TimeUnit unit) {
+        sSlowListenerNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * @param callback called on the sending thread after each slow invocation of a listener,
+     *                 with a snapshot of the metrics of that listener, or null for no callback
+     */
+    public static void setSlowListenerCallback(Run<?, ListenerMetrics> callback) {
+        sSlowListenerCallback = callback;
+    }
+
+    /**
+     * Same as snapshot(HappeningHub) with the hub from Happening.getDefaultHub().
+     */
+    public static ArrayList<EventMetrics> snapshot() {
+        return snapshot(Happening.getDefaultHub());
+    }
+
+    /**
+     * @param hub the hub that the events were sent to
+     * @return a snapshot of the metrics of every eventName that has been sent to hub while
+     * enabled
+     */
+    public static ArrayList<EventMetrics> snapshot(HappeningHub hub) {
+
+        ConcurrentHashMap<String, EventCounters> eventCounters = hub.getEventCounters();
+
+        ArrayList<EventMetrics> snapshot = new ArrayList<>(eventCounters.size());
+
+        for (EventCounters iterCounters : eventCounters.values()) {
+            snapshot.add(snapshot(hub, iterCounters));
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Same as snapshot(HappeningHub, String) with the hub from Happening.getDefaultHub().
+     */
+    public static EventMetrics snapshot(String eventName) {
+        return snapshot(Happening.getDefaultHub(), eventName);
+    }
+
+    /**
+     * @param hub the hub that the events were sent to
+     * @param eventName the name of the event, or a wildcard pattern
+     * @return a snapshot of the metrics of eventName, or null if it has not been sent to hub
+     * while enabled, the listeners include the wildcard listeners that match eventName
+     */
+    public static EventMetrics snapshot(HappeningHub hub, String eventName) {
+
+        EventCounters counters = hub.getEventCounters().get(eventName);
+
+        return (counters != null) ? snapshot(hub, counters) : null;
+    }
+
+    /**
+     * Discards all recorded metrics, of every hub.
+     */
+    public static void reset() {
+        Happening.clearMetrics();
+    }
+
+    private static EventMetrics snapshot(HappeningHub hub, EventCounters counters) {
+
+        ArrayList<ListenerMetrics> listenerMetrics = new ArrayList<>();
+
+        for (HappeningListener iterListener : hub.getListeners(counters.eventName)) {
+
+            ListenerCounters listenerCounters = iterListener.metrics;
+
+            if (listenerCounters != null) {
+                listenerMetrics.add(new ListenerMetrics(iterListener, listenerCounters));
+            }
+        }
+
+        return new EventMetrics(
+                counters.eventName,
+                counters.sendCount.get(),
+                counters.matchedListenerCount.get(),
+                counters.sendLatency.snapshot(),
+                listenerMetrics
+        );
+    }
+
+    /**
+     * @param hubCounters the counters of the hub that eventListeners belongs to
+     * @return the counters of eventName, or of the wildcard pattern if eventListeners is a
+     * WildcardTrie bucket, cached in eventListeners so that only the first send of each bucket
+     * looks them up
+     */
+    static EventCounters getEventCounters(
+            ConcurrentHashMap<String, EventCounters> hubCounters,
+            EventListeners eventListeners,
+            String eventName
+    ) {
+
+        EventCounters counters = eventListeners.metrics;
+
+        if (counters != null) {
+            return counters;
+        }
+
+        // Wildcard sends share the counters of their pattern, so dynamic eventNames do not add up
+        String countersName = (eventListeners.wildcardPattern != null)
+                ? eventListeners.wildcardPattern
+                : eventName;
+
+        counters = hubCounters.get(countersName);
+
+        if (counters == null) {
+            EventCounters newCounters = new EventCounters(countersName);
+            counters = hubCounters.putIfAbsent(countersName, newCounters);
+            if (counters == null) {
+                counters = newCounters;
+            }
+        }
+
+        eventListeners.metrics = counters;
+
+        return counters;
+    }
+
+    static void recordInvocation(HappeningListener listener, long nanos) {
+
+        ListenerCounters counters = listener.metrics;
+
+        if (counters == null) {
+            LISTENER_COUNTERS_UPDATER.compareAndSet(listener, null, new ListenerCounters());
+            counters = listener.metrics;
+        }
+
+        counters.latency.record(nanos);
+
+        if (nanos >= sSlowListenerNanos) {
+
+            counters.slowCount.incrementAndGet();
+            counters.lastSlowNanos = nanos;
+
+            Run<?, ListenerMetrics> slowListenerCallback = sSlowListenerCallback;
+
+            if (slowListenerCallback != null) {
+                slowListenerCallback.r(new ListenerMetrics(listener, counters));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.ztory.lib.happening;
+
+/**
+ * Immutable copy of a latency histogram from HappeningMetrics, all values are nanoseconds.
+ * Percentiles are reported as the highest value of the bucket they fall in, with a relative
+ * error of at most 6.25%.
+ */
+public final class HistogramSnapshot {
+
+    private final long[] mCounts;
+
+    private final long mCount, mTotalNanos, mMaxNanos;
+
+    HistogramSnapshot(long[] theCounts, long theTotalNanos, long theMaxNanos) {
+
+        long count = 0;
+
+        for (long iterCount : theCounts) {
+            count += iterCount;
+        }
+
+        mCounts = theCounts;
+        mCount = count;
+        mTotalNanos = theTotalNanos;
+        mMaxNanos = theMaxNanos;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    public long getMeanNanos() {
+        return (mCount > 0) ? mTotalNanos / mCount : 0;
+    }
+
+    /**
+     * @param percentile a value from 0 to 100
+     * @return the value that percentile % of the recorded values are less than or equal to,
+     * 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+
+        if (mCount == 0) {
+            return 0;
+        }
+
+        long countAtPercentile = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * mCount);
+        countAtPercentile = Math.max(countAtPercentile, 1);
+
+        long count = 0;
+
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= countAtPercentile) {
+                return Math.min(LatencyHistogram.bucketHighestValue(i), mMaxNanos);
+            }
+        }
+
+        return mMaxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mCount
+                + " mean=" + getMeanNanos()
+                + " p50=" + getValueAtPercentile(50)
+                + " p99=" + getValueAtPercentile(99)
+                + " max=" + mMaxNanos;
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.ztory.lib.happening;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open-addressing map from primitive int keys to non-null values, used by Happening instead of
+ * HashMap<Integer, V> so that keys are not boxed and no entry object is allocated per mapping.
+ * Only one thread at a time may modify the map, Happening only modifies it while holding its
+ * lock. get() is safe to call from any thread without locking: a value is written with a
+ * volatile write after its key, and removed mappings leave a tombstone in their slot instead of
+ * moving other mappings, so a concurrent get() never misses a mapping that is not being removed.
+ * Tombstones are cleared when the table is rehashed.
+ */
+final class IntMap<V> {
+
+    private static final Object REMOVED = new Object();
+
+    private static final int MIN_CAPACITY = 2;
+
+    private static final class Table {
+
+        final int[] keys;
+
+        /** null == free slot, REMOVED == tombstone. */
+        final AtomicReferenceArray<Object> values;
+
+        final int mask;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table mTable;
+
+    private int mSize = 0, mRemovedCount = 0;
+
+    IntMap() {
+        this(0);
+    }
+
+    IntMap(int expectedSize) {
+        mTable = new Table(getCapacity(expectedSize));
+    }
+
+    /**
+     * Thread-safe and non-blocking.
+     * @param key the key of the value
+     * @return the value mapped to key, or null if key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+
+        final Table table = mTable;
+        int index = hash(key) & table.mask;
+        Object value;
+
+        while ((value = table.values.get(index)) != null) {
+
+            if (value != REMOVED && table.keys[index] == key) {
+                return (V) value;
+            }
+
+            index = (index + 1) & table.mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * @param key the key of the value
+     * @param value the value to map to key, must not be null
+     * @return the previous value mapped to key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+
+        if (value == null) {
+            throw new IllegalArgumentException("value == null");
+        }
+
+        Table table = mTable;
+        int index = hash(key) & table.mask;
+        Object current;
+
+        while ((current = table.values.get(index)) != null) {
+
+            // The tombstone of the same key can be reused since its key never changes
+            if (table.keys[index] == key) {
+
+                table.values.set(index, value);
+
+                if (current == REMOVED) {
+                    mRemovedCount--;
+                    mSize++;
+                    return null;
+                }
+
+                return (V) current;
+            }
+
+            index = (index + 1) & table.mask;
+        }
+
+        if ((mSize + mRemovedCount + 1) * 4 > table.keys.length * 3) {
+            rehash(mSize + 1);
+            return put(key, value);
+        }
+
+        table.keys[index] = key;
+        table.values.set(index, value);// publishes keys[index] to get()
+        mSize++;
+
+        return null;
+    }
+
+    /**
+     * @param key the key to remove
+     * @return the value that was mapped to key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+
+        final Table table = mTable;
+        int index = hash(key) & table.mask;
+        Object current;
+
+        while ((current = table.values.get(index)) != null) {
+
+            if (table.keys[index] == key) {
+
+                if (current == REMOVED) {
+                    return null;
+                }
+
+                table.values.set(index, REMOVED);
+                mSize--;
+                mRemovedCount++;
+
+                return (V) current;
+            }
+
+            index = (index + 1) & table.mask;
+        }
+
+        return null;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Use together with keyAt() and valueAt() to iterate the mappings, do not put() new keys
+     * while iterating since that may rehash the map.
+     * @return the number of slots in the map
+     */
+    int capacity() {
+        return mTable.keys.length;
+    }
+
+    /**
+     * @param index the slot index, 0 <= index < capacity()
+     * @return the key in slot index, only valid if valueAt(index) != null
+     */
+    int keyAt(int index) {
+        return mTable.keys[index];
+    }
+
+    /**
+     * @param index the slot index, 0 <= index < capacity()
+     * @return the value in slot index, or null if the slot is free or removed
+     */
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        Object value = mTable.values.get(index);
+        return (value != REMOVED) ? (V) value : null;
+    }
+
+    private void rehash(int expectedSize) {
+
+        final Table oldTable = mTable;
+        final Table newTable = new Table(getCapacity(expectedSize));
+
+        Object value;
+        int index;
+
+        for (int i = 0; i < oldTable.keys.length; i++) {
+
+            value = oldTable.values.get(i);
+
+            if (value == null || value == REMOVED) {
+                continue;
+            }
+
+            index = hash(oldTable.keys[i]) & newTable.mask;
+
+            while (newTable.values.get(index) != null) {
+                index = (index + 1) & newTable.mask;
+            }
+
+            newTable.keys[index] = oldTable.keys[i];
+            newTable.values.set(index, value);
+        }
+
+        mRemovedCount = 0;
+        mTable = newTable;// volatile write publishes the new table
+    }
+
+    /**
+     * @return a power of two capacity that keeps the load factor at or below 0.75
+     */
+    private static int getCapacity(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (expectedSize * 4 > capacity * 3) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.ztory.lib.happening;
+
+/**
+ * Open-addressing set of primitive int values, used by Happening instead of HashSet<Integer>
+ * to avoid boxing. Not thread-safe.
+ */
+final class IntSet {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private int[] mValues;
+    private boolean[] mUsed;
+    private int mSize = 0;
+
+    IntSet() {
+        mValues = new int[MIN_CAPACITY];
+        mUsed = new boolean[MIN_CAPACITY];
+    }
+
+    /**
+     * @param value the value to add
+     * @return true if value was not already in the set
+     */
+    boolean add(int value) {
+
+        int mask = mValues.length - 1;
+        int index = IntMap.hash(value) & mask;
+
+        while (mUsed[index]) {
+
+            if (mValues[index] == value) {
+                return false;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        if ((mSize + 1) * 4 > mValues.length * 3) {
+            grow();
+            return add(value);
+        }
+
+        mValues[index] = value;
+        mUsed[index] = true;
+        mSize++;
+
+        return true;
+    }
+
+    boolean contains(int value) {
+
+        int mask = mValues.length - 1;
+        int index = IntMap.hash(value) & mask;
+
+        while (mUsed[index]) {
+
+            if (mValues[index] == value) {
+                return true;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return false;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Use together with isUsed() and valueAt() to iterate the values.
+     * @return the number of slots in the set
+     */
+    int capacity() {
+        return mValues.length;
+    }
+
+    boolean isUsed(int index) {
+        return mUsed[index];
+    }
+
+    int valueAt(int index) {
+        return mValues[index];
+    }
+
+    private void grow() {
+
+        int[] oldValues = mValues;
+        boolean[] oldUsed = mUsed;
+
+        mValues = new int[oldValues.length * 2];
+        mUsed = new boolean[oldValues.length * 2];
+        mSize = 0;
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldUsed[i]) {
+                add(oldValues[i]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.ztory.lib.happening;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations in nanoseconds, in the style of HdrHistogram.
+ * Every power of two range is split in SUB_BUCKET_COUNT linear buckets, so a recorded value is
+ * reported with a relative error of at most 1 / SUB_BUCKET_COUNT. Recording is two atomic adds
+ * and never allocates, values above 2^MAX_MAGNITUDE ns (~68 seconds) end up in the last bucket.
+ */
+final class LatencyHistogram {
+
+    private static final int
+            SUB_BUCKET_BITS = 4,
+            SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS,
+            MAX_MAGNITUDE = 36,
+            BUCKET_COUNT =
+                    SUB_BUCKET_COUNT + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong
+            mTotalNanos = new AtomicLong(),
+            mMaxNanos = new AtomicLong();
+
+    void record(long nanos) {
+
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        mCounts.incrementAndGet(bucketIndex(nanos));
+        mTotalNanos.addAndGet(nanos);
+
+        long maxNanos = mMaxNanos.get();
+
+        while (nanos > maxNanos && !mMaxNanos.compareAndSet(maxNanos, nanos)) {
+            maxNanos = mMaxNanos.get();
+        }
+    }
+
+    /**
+     * @return a copy of the histogram, concurrent record() calls may or may not be included
+     */
+    HistogramSnapshot snapshot() {
+
+        long[] counts = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+        }
+
+        return new HistogramSnapshot(counts, mTotalNanos.get(), mMaxNanos.get());
+    }
+
+    static int bucketIndex(long nanos) {
+
+        if (nanos < SUB_BUCKET_COUNT) {
+            return (int) nanos;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKET_COUNT - 1;
+        }
+
+        // The SUB_BUCKET_BITS bits below the highest one bit select the linear bucket
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (nanos >>> shift) & (SUB_BUCKET_COUNT - 1);
+
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return the highest value that is recorded in the bucket at index
+     */
+    static long bucketHighestValue(int index) {
+
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowestValue = (1L << (shift + SUB_BUCKET_BITS)) | (subBucket << shift);
+
+        return lowestValue + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.ztory.lib.happening;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live metrics of one HappeningListener, created on its first timed invocation.
+ */
+final class ListenerCounters {
+
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    final AtomicLong slowCount = new AtomicLong();
+
+    volatile long lastSlowNanos;
+
+}
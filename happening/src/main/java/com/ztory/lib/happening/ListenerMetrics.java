@@ -0,0 +1,42 @@
+package com.ztory.lib.happening;
+
+/**
+ * Snapshot of the metrics of one HappeningListener, part of an EventMetrics snapshot and passed
+ * to the slow listener callback of HappeningMetrics.
+ */
+public final class ListenerMetrics {
+
+    public final int uid;
+
+    public final int listenGroupId;
+
+    public final String eventName;
+
+    /** Number of invocations that took at least the slow listener threshold. */
+    public final long slowInvocationCount;
+
+    /** Duration of the last slow invocation, 0 if there has been none. */
+    public final long lastSlowInvocationNanos;
+
+    /** Duration of each synchronous invocation of the listener. */
+    public final HistogramSnapshot latency;
+
+    ListenerMetrics(HappeningListener theListener, ListenerCounters theCounters) {
+        uid = theListener.uid;
+        listenGroupId = theListener.listenGroupId;
+        eventName = theListener.eventName;
+        slowInvocationCount = theCounters.slowCount.get();
+        lastSlowInvocationNanos = theCounters.lastSlowNanos;
+        latency = theCounters.latency.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return eventName
+                + " uid=" + uid
+                + " listenGroupId=" + listenGroupId
+                + " slow=" + slowInvocationCount
+                + " latency[" + latency + "]";
+    }
+
+}
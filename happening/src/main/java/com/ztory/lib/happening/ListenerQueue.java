@@ -0,0 +1,119 @@
+package com.ztory.lib.happening;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of the deliveries to one HappeningListener, see HappeningListener.setQueue().
+ * Deliveries are run one at a time in send order by a drain task on the listener's Executor,
+ * which is scheduled only while the queue is not empty. The queue is a preallocated
+ * ArrayBlockingQueue, so its memory use does not grow with a burst of events.
+ */
+final class ListenerQueue implements Runnable {
+
+    private static final int DRAIN_MAX = 64;
+
+    private final int mListenerUid;
+    private final int mCapacity;
+    private final int mOverflowPolicy;
+
+    private final ArrayBlockingQueue<Runnable> mDeliveries;
+
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+    final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile Executor mExecutor;
+
+    ListenerQueue(int theListenerUid, int theCapacity, int theOverflowPolicy) {
+        mListenerUid = theListenerUid;
+        mCapacity = theCapacity;
+        mOverflowPolicy = theOverflowPolicy;
+        mDeliveries = new ArrayBlockingQueue<>(theCapacity);
+    }
+
+    int depth() {
+        return mDeliveries.size();
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Queues delivery according to the overflow policy and schedules a drain on executor.
+     * @throws RejectedExecutionException if the queue is full and the policy is
+     * QUEUE_FAIL_FAST
+     */
+    void offer(Executor executor, Runnable delivery) {
+
+        mExecutor = executor;
+
+        if (!mDeliveries.offer(delivery)) {
+
+            switch (mOverflowPolicy) {
+
+                case HappeningListener.QUEUE_BLOCK:
+                    try {
+                        mDeliveries.put(delivery);
+                    } catch (InterruptedException e) {
+                        droppedCount.incrementAndGet();
+                        Thread.currentThread().interrupt();
+                    }
+                    break;
+
+                case HappeningListener.QUEUE_DROP_OLDEST:
+                    // The drain task may take the head first, then the retried offer succeeds
+                    do {
+                        if (mDeliveries.poll() != null) {
+                            droppedCount.incrementAndGet();
+                        }
+                    }
+                    while (!mDeliveries.offer(delivery));
+                    break;
+
+                case HappeningListener.QUEUE_DROP_NEWEST:
+                    droppedCount.incrementAndGet();
+                    break;
+
+                default:
+                    droppedCount.incrementAndGet();
+                    throw new RejectedExecutionException(
+                            "Queue of HappeningListener uid " + mListenerUid + " is full."
+                    );
+            }
+        }
+
+        schedule();
+    }
+
+    private void schedule() {
+        if (!mDeliveries.isEmpty() && mScheduled.compareAndSet(false, true)) {
+            try {
+                mExecutor.execute(this);
+            } catch (RuntimeException e) {
+                mScheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            Runnable delivery;
+            for (int i = 0; i < DRAIN_MAX && (delivery = mDeliveries.poll()) != null; i++) {
+                delivery.run();
+            }
+        } finally {
+            mScheduled.set(false);
+
+            // Deliveries queued while mScheduled was still true have not scheduled a drain
+            schedule();
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.ztory.lib.happening;
+
+/**
+ * Immutable snapshot of the listeners registered for an eventName, used by Happening so that
+ * sendEvent() can iterate listeners without locking or copying.
+ * The first size elements of the listeners array are never modified once the snapshot is
+ * published. Listeners are kept in dispatch order, sorted once when they are inserted. Inserting
+ * last reuses the backing array when it has spare capacity by writing to the first unused slot
+ * and publishing a new snapshot with a larger size, older snapshots never read that slot.
+ * All methods that create new snapshots must only be called by a single writer at a time,
+ * HappeningHub calls them while holding its lock.
+ */
+final class ListenerSnapshot {
+
+    static final ListenerSnapshot EMPTY = new ListenerSnapshot(new HappeningListener[0], 0);
+
+    final HappeningListener[] listeners;
+    final int size;
+
+    private ListenerSnapshot(HappeningListener[] theListeners, int theSize) {
+        listeners = theListeners;
+        size = theSize;
+    }
+
+    /**
+     * @return true if listener is called before otherListener when an event is dispatched,
+     * higher priority first and then in uid order
+     */
+    static boolean isBefore(HappeningListener listener, HappeningListener otherListener) {
+        return listener.priority > otherListener.priority || (
+                listener.priority == otherListener.priority && listener.uid < otherListener.uid
+        );
+    }
+
+    /**
+     * @param listener the listener to add
+     * @return a new snapshot containing all listeners in this snapshot and listener, in dispatch
+     * order as defined by isBefore()
+     */
+    ListenerSnapshot insert(HappeningListener listener) {
+
+        int index = size;
+
+        while (index > 0 && isBefore(listener, listeners[index - 1])) {
+            index--;
+        }
+
+        HappeningListener[] insertListeners = listeners;
+
+        if (index < size) {
+            // Listeners already in older snapshots can not move, so a new array is needed
+            insertListeners = new HappeningListener[size * 2];
+            System.arraycopy(listeners, 0, insertListeners, 0, index);
+            System.arraycopy(listeners, index, insertListeners, index + 1, size - index);
+        }
+        else if (size == insertListeners.length) {
+            // Most groupIds only have a single listener, so capacity starts at one
+            insertListeners = new HappeningListener[(size == 0) ? 1 : size * 2];
+            System.arraycopy(listeners, 0, insertListeners, 0, size);
+        }
+
+        insertListeners[index] = listener;
+
+        return new ListenerSnapshot(insertListeners, size + 1);
+    }
+
+    /**
+     * @param uid the uid of the listener to remove
+     * @param releaseIndex the removed listener is unregistered from this index
+     * @return a snapshot without the listener with uid, this instance if no listener had uid,
+     * or null if no listeners are left
+     */
+    ListenerSnapshot remove(int uid, ReleaseIndex releaseIndex) {
+
+        for (int i = 0; i < size; i++) {
+            if (listeners[i].uid == uid) {
+                releaseIndex.unregister(listeners[i]);
+                return removeIndex(i);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * @param ignoreGroupId if true then all listeners are removed
+     * @param releaseGroupId listeners that return true from releaseOnGroupId(releaseGroupId)
+     *                       are removed
+     * @param releaseIndex the removed listeners are unregistered from this index
+     * @return a snapshot without the released listeners, this instance if no listener was
+     * released, or null if no listeners are left
+     */
+    ListenerSnapshot release(
+            boolean ignoreGroupId,
+            int releaseGroupId,
+            ReleaseIndex releaseIndex
+    ) {
+
+        for (int i = 0; i < size; i++) {
+            if (ignoreGroupId || listeners[i].releaseOnGroupId(releaseGroupId)) {
+                releaseIndex.unregister(listeners[i]);
+            }
+        }
+
+        return removeUnregistered();
+    }
+
+    /**
+     * Removes the listeners that have already been unregistered, HappeningListener.registered
+     * is false for those listeners.
+     * @return a snapshot without the unregistered listeners, this instance if all listeners are
+     * registered, or null if no listeners are left
+     */
+    ListenerSnapshot removeUnregistered() {
+
+        HappeningListener[] keptListeners = null;
+        int keptCount = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            if (!listeners[i].registered) {
+                if (keptListeners == null) {
+                    keptListeners = new HappeningListener[size];
+                    System.arraycopy(listeners, 0, keptListeners, 0, i);
+                    keptCount = i;
+                }
+            }
+            else if (keptListeners != null) {
+                keptListeners[keptCount++] = listeners[i];
+            }
+        }
+
+        if (keptListeners == null) {
+            return this;
+        }
+        else if (keptCount == 0) {
+            return null;
+        }
+
+        return new ListenerSnapshot(keptListeners, keptCount);
+    }
+
+    private ListenerSnapshot removeIndex(int index) {
+
+        if (size == 1) {
+            return null;
+        }
+
+        HappeningListener[] keptListeners = new HappeningListener[size - 1];
+        System.arraycopy(listeners, 0, keptListeners, 0, index);
+        System.arraycopy(listeners, index + 1, keptListeners, index, size - index - 1);
+
+        return new ListenerSnapshot(keptListeners, size - 1);
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.ztory.lib.happening;
+
+/**
+ * A preallocated slot in the HappeningLog ring buffer. HappeningLog.entry() hands out a slot that
+ * is owned by the calling thread until commit() is called, put() stores typed key-value fields
+ * without boxing and formatting happens later on the HappeningLog thread. Object values are
+ * formatted with String.valueOf() when the entry is written, so changes made to them after
+ * commit() may show up in the log.
+ * <p>
+ * Every entry must be committed, a claimed slot that is never committed blocks the log.
+ */
+public final class LogEntry {
+
+    /** Fields beyond MAX_FIELDS are ignored, as are all fields of an entry that was dropped. */
+    public static final int MAX_FIELDS = 8;
+
+    private static final String
+            LOG_TAG_PRE = "[",
+            LOG_TAG_POST = "] ",
+            KV_SEPARATOR = " | ",
+            VALUE_PREFIX = ": ";
+
+    private final String[] mKeys = new String[MAX_FIELDS];
+    private final long[] mLongValues = new long[MAX_FIELDS];
+    private final Object[] mObjectValues = new Object[MAX_FIELDS];
+    private final boolean[] mIsLong = new boolean[MAX_FIELDS];
+
+    private final HappeningLog.Ring mRing;
+
+    private Class mTag;
+    private int mFieldCount;
+    private long mSequence;
+
+    /** Written last by commit(), the log thread only reads a slot whose sequence it has seen. */
+    volatile long publishedSequence = -1;
+
+    LogEntry(HappeningLog.Ring theRing) {
+        mRing = theRing;
+    }
+
+    void begin(long sequence, Class tag) {
+        mSequence = sequence;
+        mTag = tag;
+        mFieldCount = 0;
+    }
+
+    public LogEntry put(String key, long value) {
+
+        if (mRing != null && mFieldCount < MAX_FIELDS) {
+            mKeys[mFieldCount] = key;
+            mLongValues[mFieldCount] = value;
+            mIsLong[mFieldCount] = true;
+            mFieldCount++;
+        }
+
+        return this;
+    }
+
+    public LogEntry put(String key, Object value) {
+
+        if (mRing != null && mFieldCount < MAX_FIELDS) {
+            mKeys[mFieldCount] = key;
+            mObjectValues[mFieldCount] = value;
+            mIsLong[mFieldCount] = false;
+            mFieldCount++;
+        }
+
+        return this;
+    }
+
+    /**
+     * Hands the entry over to the HappeningLog thread, the entry must not be used after this.
+     */
+    public void commit() {
+        if (mRing != null) {
+            mRing.publish(this, mSequence);
+        }
+    }
+
+    /**
+     * Formats the entry into sb and releases its object references, called on the log thread.
+     * @return the tag of the entry
+     */
+    String format(StringBuilder sb) {
+
+        String logTag = mTag.getSimpleName();
+
+        sb.setLength(0);
+        sb.append(LOG_TAG_PRE);
+        sb.append(logTag);
+        sb.append(LOG_TAG_POST);
+
+        for (int i = 0; i < mFieldCount; i++) {
+
+            if (i > 0) {
+                sb.append(KV_SEPARATOR);
+            }
+            sb.append(mKeys[i]);
+            sb.append(VALUE_PREFIX);
+
+            if (mIsLong[i]) {
+                sb.append(mLongValues[i]);
+            }
+            else {
+                sb.append(mObjectValues[i]);
+                mObjectValues[i] = null;
+            }
+            mKeys[i] = null;
+        }
+
+        mTag = null;
+
+        return logTag;
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.ztory.lib.happening;
+
+import java.io.PrintStream;
+
+/**
+ * HappeningLogSink for non-Android deployments, prints every log line to a PrintStream.
+ */
+public class PrintStreamLogSink implements HappeningLogSink {
+
+    private final PrintStream mStream;
+
+    public PrintStreamLogSink(PrintStream theStream) {
+
+        if (theStream == null) {
+            throw new IllegalArgumentException("theStream == null");
+        }
+
+        mStream = theStream;
+    }
+
+    @Override
+    public void write(String tag, String message) {
+        mStream.println(message);
+    }
+
+}
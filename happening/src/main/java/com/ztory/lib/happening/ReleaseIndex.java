@@ -0,0 +1,119 @@
+package com.ztory.lib.happening;
+
+/**
+ * Reverse index from releaseGroupId to the registered listeners that will release on it, used
+ * by HappeningHub.removeListeners(int) so that releasing a groupId only visits the listeners that
+ * are actually released. Also keeps the HappeningListener.registered flag up to date.
+ * Most releaseGroupIds only have a single listener, so the index maps the releaseGroupId
+ * directly to that HappeningListener and only creates an IntMap (uid -> listener) when a second
+ * listener is registered on the same releaseGroupId.
+ * Not thread-safe, all methods must be called while holding the lock of its
+ * HappeningHub.
+ */
+final class ReleaseIndex {
+
+    /** Values are either a HappeningListener or an IntMap<HappeningListener> keyed by uid. */
+    private final IntMap<Object> mIndex = new IntMap<>();
+
+    @SuppressWarnings("unchecked")
+    void register(HappeningListener listener) {
+
+        listener.registered = true;
+
+        Object released;
+        IntMap<HappeningListener> releaseMap;
+
+        for (int iterGroupId : listener.releaseGroupIds) {
+
+            if (iterGroupId == Happening.GROUP_ID_DO_NOT_RELEASE) {
+                continue;
+            }
+
+            released = mIndex.get(iterGroupId);
+
+            if (released == null || released == listener) {
+                mIndex.put(iterGroupId, listener);
+            }
+            else if (released instanceof HappeningListener) {
+                releaseMap = new IntMap<>(2);
+                releaseMap.put(((HappeningListener) released).uid, (HappeningListener) released);
+                releaseMap.put(listener.uid, listener);
+                mIndex.put(iterGroupId, releaseMap);
+            }
+            else {
+                ((IntMap<HappeningListener>) released).put(listener.uid, listener);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void unregister(HappeningListener listener) {
+
+        listener.registered = false;
+
+        Object released;
+        IntMap<HappeningListener> releaseMap;
+
+        for (int iterGroupId : listener.releaseGroupIds) {
+
+            released = mIndex.get(iterGroupId);
+
+            if (released == listener) {
+                mIndex.remove(iterGroupId);
+            }
+            else if (released instanceof IntMap) {
+
+                releaseMap = (IntMap<HappeningListener>) released;
+                releaseMap.remove(listener.uid);
+
+                if (releaseMap.isEmpty()) {
+                    mIndex.remove(iterGroupId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregisters all listeners that release on releaseGroupId, the caller is responsible for
+     * removing the returned listeners from their ListenerSnapshot.
+     * @param releaseGroupId the groupId to release
+     * @return the unregistered listeners, or null if no listener released on releaseGroupId
+     */
+    @SuppressWarnings("unchecked")
+    HappeningListener[] release(int releaseGroupId) {
+
+        Object released = mIndex.remove(releaseGroupId);
+
+        if (released == null) {
+            return null;
+        }
+
+        HappeningListener[] releasedListeners;
+
+        if (released instanceof HappeningListener) {
+            releasedListeners = new HappeningListener[] { (HappeningListener) released };
+        }
+        else {
+
+            IntMap<HappeningListener> releaseMap = (IntMap<HappeningListener>) released;
+            releasedListeners = new HappeningListener[releaseMap.size()];
+
+            HappeningListener iterListener;
+            int releasedCount = 0;
+
+            for (int i = 0; i < releaseMap.capacity(); i++) {
+                iterListener = releaseMap.valueAt(i);
+                if (iterListener != null) {
+                    releasedListeners[releasedCount++] = iterListener;
+                }
+            }
+        }
+
+        for (HappeningListener iterListener : releasedListeners) {
+            unregister(iterListener);
+        }
+
+        return releasedListeners;
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.ztory.lib.happening;
+
+import java.util.Collection;
+
+/**
+ * A RunObject that also accepts a whole batch of payloads in one call. When used as the
+ * callback of a HappeningListener then Happening.sendEvents() will call rBatch() once per batch
+ * instead of calling r() once per payload, events sent with sendEvent() still call r().
+ */
+public interface RunObjectBatch extends RunObject {
+
+    /**
+     * @param payloads the payloads of the batch in send order, must not be modified
+     * @return return data for the whole batch
+     */
+    Object rBatch(Collection<?> payloads);
+
+}
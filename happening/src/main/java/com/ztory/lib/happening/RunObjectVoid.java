@@ -0,0 +1,16 @@
+package com.ztory.lib.happening;
+
+/**
+ * A RunObject for listeners that do not return anything, implement rVoid() instead of r().
+ */
+public abstract class RunObjectVoid implements RunObject {
+
+    @Override
+    public final Object r(Object o) {
+        rVoid(o);
+        return null;
+    }
+
+    public abstract void rVoid(Object o);
+
+}
@@ -0,0 +1,9 @@
+package com.ztory.lib.happening;
+
+/**
+ * Folds the return values of listeners into an accumulator, used by Happening.publishReduce().
+ * #waitingForLambda
+ */
+public interface RunReduce<A> {
+    A r(A accumulator, Object listenerReturn);
+}
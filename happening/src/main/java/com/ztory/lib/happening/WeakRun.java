@@ -0,0 +1,19 @@
+package com.ztory.lib.happening;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Weak reference to the callback of a weak HappeningListener. Enqueued in the Happening
+ * ReferenceQueue when the callback has been garbage collected, so that the listener can be
+ * removed without scanning the registry.
+ */
+final class WeakRun extends WeakReference<RunObject> {
+
+    final HappeningListener listener;
+
+    WeakRun(RunObject theRun, HappeningListener theListener) {
+        super(theRun, Happening.sWeakRunQueue);
+        listener = theListener;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.ztory.lib.happening;
+
+import java.util.ArrayList;
+
+/**
+ * Immutable prefix trie of the wildcard listeners of a HappeningHub, built while holding the
+ * lock of the hub every time a wildcard listener is registered or removed. The node at the end
+ * of each pattern prefix holds an EventListeners bucket with the listeners of that pattern and
+ * of every shorter pattern that is a prefix of it, so all wildcard listeners that match an
+ * eventName are in the bucket of its longest matching pattern. match() walks the characters of
+ * the eventName once and never allocates.
+ */
+final class WildcardTrie {
+
+    private final Node mRoot = new Node();
+
+    /**
+     * @param wildcardListeners the registered wildcard listeners, must not be empty
+     */
+    WildcardTrie(ArrayList<HappeningListener> wildcardListeners) {
+
+        for (HappeningListener iterListener : wildcardListeners) {
+
+            Node node = mRoot;
+
+            for (int i = 0; i < iterListener.eventNamePrefix.length(); i++) {
+                node = node.getOrAddChild(iterListener.eventNamePrefix.charAt(i));
+            }
+
+            if (node.listeners != null) {
+                continue;//bucket already built for an earlier listener with the same pattern
+            }
+
+            node.listeners = new EventListeners();
+            node.listeners.wildcardPattern = iterListener.eventName;
+
+            for (HappeningListener iterMatched : wildcardListeners) {
+                if (iterListener.eventNamePrefix.startsWith(iterMatched.eventNamePrefix)) {
+                    node.listeners.add(iterMatched);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param eventName the eventName of a sent event
+     * @return the bucket of the longest pattern that matches eventName, or null if no pattern
+     * matches it
+     */
+    EventListeners match(String eventName) {
+
+        Node node = mRoot;
+        EventListeners matched = node.listeners;
+
+        for (int i = 0; i < eventName.length(); i++) {
+
+            node = node.getChild(eventName.charAt(i));
+
+            if (node == null) {
+                break;
+            }
+
+            if (node.listeners != null) {
+                matched = node.listeners;
+            }
+        }
+
+        return matched;
+    }
+
+    /**
+     * @param pattern a wildcard pattern
+     * @return the bucket of pattern, or null if no listener is registered with it
+     */
+    EventListeners get(String pattern) {
+        EventListeners matched = match(pattern);
+        return (matched != null && matched.wildcardPattern.equals(pattern)) ? matched : null;
+    }
+
+    private static final class Node {
+
+        private static final char[] NO_CHARS = new char[0];
+
+        private static final Node[] NO_NODES = new Node[0];
+
+        private char[] mChars = NO_CHARS;
+
+        private Node[] mChildren = NO_NODES;
+
+        /** Not null if a pattern ends at this node. */
+        EventListeners listeners;
+
+        Node getChild(char c) {
+            for (int i = 0; i < mChars.length; i++) {
+                if (mChars[i] == c) {
+                    return mChildren[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(char c) {
+
+            Node child = getChild(c);
+
+            if (child == null) {
+
+                char[] grownChars = new char[mChars.length + 1];
+                Node[] grownChildren = new Node[mChildren.length + 1];
+
+                System.arraycopy(mChars, 0, grownChars, 0, mChars.length);
+                System.arraycopy(mChildren, 0, grownChildren, 0, mChildren.length);
+
+                child = new Node();
+                grownChars[mChars.length] = c;
+                grownChildren[mChildren.length] = child;
+
+                mChars = grownChars;
+                mChildren = grownChildren;
+            }
+
+            return child;
+        }
+    }
+
+}
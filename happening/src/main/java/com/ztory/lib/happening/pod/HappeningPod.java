@@ -1,9 +1,10 @@
 package com.ztory.lib.happening.pod;
 
-import android.os.Build;
 import android.os.Handler;
 
 import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningExecutors;
+import com.ztory.lib.happening.HappeningHub;
 import com.ztory.lib.happening.HappeningListener;
 import com.ztory.lib.happening.HappeningLog;
 import com.ztory.lib.happening.RunObject;
@@ -15,12 +16,14 @@ import com.ztory.lib.happening.deed.DeedSetter;
 import com.ztory.lib.happening.typed.TypedMap;
 import com.ztory.lib.happening.typed.TypedPayload;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class for working with arbitrary data and functionality in a thread-safe way.
@@ -64,6 +67,71 @@ public abstract class HappeningPod<D> {
         return new PodResult<>(this, podGetUniqueTaskId());
     }
 
+    /**
+     * Override this method in subclasses to coalesce identical queries. Concurrent asynchronous
+     * pod() calls with equal keys share one Deed and one podProcess() execution, a call that
+     * arrives while a query with an equal key is in flight returns the Deed of that query
+     * without calling podCreateResult(). Synchronous calls always run their own podProcess().
+     * Must not throw, the default implementation returns null which disables coalescing.
+     * @param query the query object
+     * @param <P> the parameterized payload
+     * @param <Q> TypedMap<String, ?> & TypedPayload<G>
+     * @return a key with equals() and hashCode() that identifies the query, for example the one
+     * returned by podQueryContentKey(), or null to not coalesce query
+     */
+    protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+    Object podQueryKey(Q query) {
+        return null;
+    }
+
+    /**
+     * Override this method in subclasses to cache only some queries, or to cache with another
+     * key than podQueryKey(). Only called when a PodCache has been set with podSetCache().
+     * Must not throw, the default implementation returns podQueryKey(query).
+     * @param query the query object
+     * @param <P> the parameterized payload
+     * @param <Q> TypedMap<String, ?> & TypedPayload<G>
+     * @return the key of query in the PodCache, or null to not cache query
+     */
+    protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+    Object podCacheKey(Q query) {
+        return podQueryKey(query);
+    }
+
+    /**
+     * Override this method in subclasses to prioritize queries in other ways. Only called when
+     * the pod Executor is a PodExecutor, see podCreatePriorityExecutor().
+     * Must not throw, the default implementation returns the TypedMap.PRIORITY value of query,
+     * or PRIORITY_NORMAL if that is not an Integer.
+     * @param query the query object
+     * @param <P> the parameterized payload
+     * @param <Q> TypedMap<String, ?> & TypedPayload<G>
+     * @return PodExecutor.PRIORITY_BATCH, PRIORITY_NORMAL or PRIORITY_INTERACTIVE
+     */
+    protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+    int podPriority(Q query) {
+
+        // Read as Object, typed() would throw a ClassCastException for a value of another type
+        Object priority = (query != null) ? query.get(TypedMap.PRIORITY) : null;
+
+        return (priority instanceof Integer)
+                ? (Integer) priority
+                : PodExecutor.PRIORITY_NORMAL;
+    }
+
+    /**
+     * Helper for podQueryKey() implementations, queries with equal contents get equal keys.
+     * @param query the query object, all values must implement equals() and hashCode()
+     * @return a copy of the entries of query, without TypedMap.ASYNC
+     */
+    protected static Object podQueryContentKey(Map<String, ?> query) {
+
+        HashMap<String, Object> queryKey = new HashMap<String, Object>(query);
+        queryKey.remove(TypedMap.ASYNC);
+
+        return queryKey;
+    }
+
     /**
      * Override this method in subclasses to react to exceptions caught by HappeningPod.
      */
@@ -71,16 +139,17 @@ public abstract class HappeningPod<D> {
 
         if (HappeningLog.LOG_ENABLED) {
             if (e instanceof DeedException) {
-                HappeningLog.log(getClass(),
-                        e.getClass().getSimpleName() + " | code", ((DeedException) e).getCode(),
-                        "e.getMessage()", e.getMessage()
-                );
+                HappeningLog.entry(getClass())
+                        .put("e.getClass().getSimpleName()", e.getClass().getSimpleName())
+                        .put("code", ((DeedException) e).getCode())
+                        .put("e.getMessage()", e.getMessage())
+                        .commit();
             }
             else {
-                HappeningLog.log(getClass(),
-                        "e.getClass().getSimpleName()", e.getClass().getSimpleName(),
-                        "e.getMessage()", e.getMessage()
-                );
+                HappeningLog.entry(getClass())
+                        .put("e.getClass().getSimpleName()", e.getClass().getSimpleName())
+                        .put("e.getMessage()", e.getMessage())
+                        .commit();
             }
         }
     }
@@ -155,11 +224,41 @@ public abstract class HappeningPod<D> {
      * @return a Deed<D, P> result, if pod() is called with async==FALSE then
      * Deed.isFinished() is always true after calling this method.
      */
+    @SuppressWarnings("unchecked")
     public final <P, Q extends TypedMap<String, ?> & TypedPayload<P>> Deed<D, P> pod(
             final boolean async,
             final Q query
     ) {
 
+        final PodCache<D> cache = mCache;
+        final Object cacheKey = (cache != null) ? podCacheKey(query) : null;
+
+        if (cacheKey != null) {
+
+            Deed<D, ?> cachedResult = cache.get(cacheKey);
+
+            if (cachedResult != null) {
+
+                if (mHasExecutor && cache.claimRefresh(cacheKey)) {
+                    podRefresh(query, cache, cacheKey);
+                }
+
+                return (Deed<D, P>) cachedResult;
+            }
+        }
+
+        final Object queryKey = (mHasExecutor && async) ? podQueryKey(query) : null;
+
+        if (queryKey != null) {
+
+            Deed<D, ?> inFlightResult = mInFlightResults.get(queryKey);
+
+            if (inFlightResult != null) {
+                mCoalescedCount.incrementAndGet();
+                return (Deed<D, P>) inFlightResult;
+            }
+        }
+
         final DeedSetter<D, P> result;
 
         try {
@@ -186,21 +285,133 @@ public abstract class HappeningPod<D> {
             return queryExceptionResult;
         }
 
+        if (queryKey != null) {
+
+            Deed<D, ?> inFlightResult = mInFlightResults.putIfAbsent(queryKey, result);
+
+            if (inFlightResult != null) {
+                mCoalescedCount.incrementAndGet();
+                return (Deed<D, P>) inFlightResult;
+            }
+        }
+
         if (mHasExecutor && async) {
-            podExecutor().execute(
+            try {
+                podExecute(
+                        query,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    podSafeProcess(query, result);
+                                    podCacheResult(cache, cacheKey, result);
+                                } finally {
+                                    if (queryKey != null) {
+                                        mInFlightResults.remove(queryKey, result);
+                                    }
+                                }
+                            }
+                        }
+                );
+            } catch (RejectedExecutionException e) {
+                if (queryKey != null) {
+                    mInFlightResults.remove(queryKey, result);
+                }
+                result.setFailed(
+                        podSecret(),
+                        new DeedException(e)
+                );
+                podOnException(e);
+            } catch (RuntimeException e) {
+                if (queryKey != null) {
+                    mInFlightResults.remove(queryKey, result);
+                }
+                throw e;
+            }
+        }
+        else {
+            podSafeProcess(query, result);
+            podCacheResult(cache, cacheKey, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Processes query on the pod Executor and replaces the stale Deed of cacheKey with the
+     * result, which is broadcast by podSafeProcess() like every other result. The stale Deed is
+     * kept if the refresh fails. A PodExecutor runs the refresh with PRIORITY_BATCH, since the
+     * caller already has a result.
+     */
+    private <P, Q extends TypedMap<String, ?> & TypedPayload<P>> void podRefresh(
+            final Q query,
+            final PodCache<D> cache,
+            final Object cacheKey
+    ) {
+        try {
+            final DeedSetter<D, P> result = podCreateResult(query);
+
+            if (result.isFinished()) {
+                podRefreshed(cache, cacheKey, result);
+                return;
+            }
+
+            podExecute(
+                    PodExecutor.PRIORITY_BATCH,
                     new Runnable() {
                         @Override
                         public void run() {
-                            podSafeProcess(query, result);
+                            try {
+                                podSafeProcess(query, result);
+                            } finally {
+                                podRefreshed(cache, cacheKey, result);
+                            }
                         }
                     }
             );
+        } catch (Exception e) {
+            cache.refreshFailed(cacheKey);
+            podOnException(e);
+        }
+    }
+
+    /**
+     * Runs task on the pod Executor, with the podPriority() of query if it is a PodExecutor.
+     */
+    private <P, Q extends TypedMap<String, ?> & TypedPayload<P>> void podExecute(
+            Q query,
+            Runnable task
+    ) {
+        if (mExecutor instanceof PodExecutor) {
+            ((PodExecutor) mExecutor).execute(task, podPriority(query));
         }
         else {
-            podSafeProcess(query, result);
+            mExecutor.execute(task);
         }
+    }
 
-        return result;
+    private void podExecute(int priority, Runnable task) {
+        if (mExecutor instanceof PodExecutor) {
+            ((PodExecutor) mExecutor).execute(task, priority);
+        }
+        else {
+            mExecutor.execute(task);
+        }
+    }
+
+    private void podRefreshed(PodCache<D> cache, Object cacheKey, Deed<D, ?> result) {
+        if (result.isFinished() && result.isSuccessful()) {
+            cache.put(cacheKey, result);
+        }
+        else {
+            cache.refreshFailed(cacheKey);
+        }
+    }
+
+    private void podCacheResult(PodCache<D> cache, Object cacheKey, Deed<D, ?> result) {
+        if (cacheKey != null && result.isSuccessful()) {
+            cache.put(cacheKey, result);
+        }
     }
 
     public static final boolean ASYNC_TRUE = true, ASYNC_FALSE = false;
@@ -213,6 +424,16 @@ public abstract class HappeningPod<D> {
 
     private final Executor mExecutor;
 
+    private final HappeningHub mHub;
+
+    /** Asynchronous queries that are being processed, keyed by podQueryKey(). */
+    private final ConcurrentHashMap<Object, Deed<D, ?>> mInFlightResults =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    private volatile PodCache<D> mCache;
+
     protected final boolean mHasExecutor;
 
     protected final boolean mAsyncDefault;
@@ -230,7 +451,16 @@ public abstract class HappeningPod<D> {
      * of the same subclass.
      */
     protected HappeningPod(Executor theExecutor, boolean theAsyncDefault) {
+        this(theExecutor, theAsyncDefault, Happening.getDefaultHub());
+    }
 
+    /**
+     * Same as HappeningPod(Executor, boolean) but broadcasts to the listeners of theHub instead
+     * of the listeners of Happening.getDefaultHub().
+     */
+    protected HappeningPod(Executor theExecutor, boolean theAsyncDefault, HappeningHub theHub) {
+
+        mHub = theHub;
         mAsyncDefault = theAsyncDefault;
         mTaskIdGenerator = new AtomicInteger(0);
         mEventNameBroadcast = Happening.getEventName(getClass(), "broadcast");
@@ -248,6 +478,39 @@ public abstract class HappeningPod<D> {
         return mExecutor;
     }
 
+    /**
+     * @return the hub that podBroadcast() sends to and that pod listeners are registered in
+     */
+    public final HappeningHub podHub() {
+        return mHub;
+    }
+
+    /**
+     * Successful Deeds from podProcess() are added to cache with the key from podCacheKey(), and
+     * pod() returns a cached Deed without calling podCreateResult() or scheduling any work.
+     * Cached Deeds are not broadcast again, see PodCache.setRefreshAfterWrite() to refresh
+     * them in the background.
+     * @param cache the cache to use, or null to stop caching
+     */
+    protected final void podSetCache(PodCache<D> cache) {
+        mCache = cache;
+    }
+
+    /**
+     * @return the cache set with podSetCache(), for its statistics, or null
+     */
+    public final PodCache<D> podCache() {
+        return mCache;
+    }
+
+    /**
+     * @return the number of pod() calls that returned the Deed of an identical in-flight query,
+     * see podQueryKey()
+     */
+    public final long podCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
     protected final int podGetUniqueTaskId() {
         return mTaskIdGenerator.incrementAndGet();
     }
@@ -257,7 +520,7 @@ public abstract class HappeningPod<D> {
     }
 
     public final void podBroadcast(Deed<D, ?> result) {
-        Happening.sendEvent(
+        mHub.sendEvent(
                 Happening.GROUP_ID_GLOBAL,
                 podEventNameBroadcast(),
                 result
@@ -304,15 +567,15 @@ public abstract class HappeningPod<D> {
                 releaseGroupIds
         );
 
-        return addListener.startListening();
+        return addListener.startListening(mHub);
     }
 
     public final void podRemoveListener(HappeningListener removeListener) {
-        Happening.removeListener(removeListener);
+        mHub.removeListener(removeListener);
     }
 
     public final void podRemoveAllListeners() {
-        Happening.removeListeners(
+        mHub.removeListeners(
                 true,//ignoreGroupId
                 -1,//groupId is ignored
                 podEventNameBroadcast()
@@ -323,33 +586,48 @@ public abstract class HappeningPod<D> {
             final String threadNamePrefix,
             int poolSizeMax
     ) {
+        return HappeningExecutors.newThreadPool(threadNamePrefix, poolSizeMax);
+    }
 
-        //http://docs.oracle.com/javase/6/docs/api/java/util/concurrent/ThreadPoolExecutor.html
-        //If there are more than corePoolSize but less than maximumPoolSize threads running,
-        //a new thread will be created only if the queue is full.
-
-        ThreadPoolExecutor returnPool = new ThreadPoolExecutor(
-                poolSizeMax,//CORE_POOL_SIZE,
-                poolSizeMax,//MAX_POOL_SIZE,
-                4,//KEEP_ALIVE
-                TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(),
-                new ThreadFactory() {
-                    private final AtomicInteger mCount = new AtomicInteger(1);
-                    public Thread newThread(Runnable runnable) {
-                        return new Thread(
-                                runnable,
-                                threadNamePrefix + " #" + mCount.getAndIncrement()
-                        );
-                    }
-                }
+    /**
+     * Alternative to podCreateExecutor() for pods that block on I/O in podProcess(), each query
+     * runs on its own virtual thread if the runtime supports it, so blocked queries do not take
+     * up pool threads and do not hold up the queries queued after them.
+     * See HappeningExecutors.newBlockingExecutor().
+     * @param threadNamePrefix prefix for the names of the created threads
+     * @param maxConcurrency the max number of queries that are processed at the same time, the
+     *                       other queries wait for a permit on their own virtual thread
+     * @param poolSizeMax the number of threads in the pool if virtual threads are not supported
+     * @return a new Executor
+     */
+    protected static Executor podCreateBlockingExecutor(
+            final String threadNamePrefix,
+            int maxConcurrency,
+            int poolSizeMax
+    ) {
+        return HappeningExecutors.newBlockingExecutor(
+                threadNamePrefix,
+                maxConcurrency,
+                poolSizeMax
         );
+    }
 
-        if (Build.VERSION.SDK_INT >= 9) {
-            returnPool.allowCoreThreadTimeOut(true);
-        }
-
-        return returnPool;
+    /**
+     * Alternative to podCreateExecutor() for pods that mix interactive and batch queries, the
+     * queries are run in order of podPriority() and a full queue fails the Deed of a query
+     * instead of growing without limit.
+     * @param threadNamePrefix prefix for the names of the created threads
+     * @param workerCount the number of worker threads, like the threads of podCreateExecutor()
+     *                    they stop after 4 seconds without queries
+     * @param queueCapacity the max number of queries waiting to run
+     * @return a new PodExecutor
+     */
+    protected static PodExecutor podCreatePriorityExecutor(
+            final String threadNamePrefix,
+            int workerCount,
+            int queueCapacity
+    ) {
+        return new PodExecutor(threadNamePrefix, workerCount, queueCapacity);
     }
 
 }
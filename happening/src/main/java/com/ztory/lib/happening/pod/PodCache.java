@@ -0,0 +1,580 @@
+package com.ztory.lib.happening.pod;
+
+import com.ztory.lib.happening.Run;
+import com.ztory.lib.happening.deed.Deed;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of finished Deeds for a HappeningPod, see HappeningPod.podSetCache(). Entries expire a
+ * fixed time after they were added and are evicted when the total weight of the cache goes
+ * above its maximum weight, by default every entry weighs 1 so the maximum weight is the max
+ * number of entries.
+ * EVICTION_LRU evicts the least recently used entry. EVICTION_TINY_LFU (W-TinyLFU) adds new
+ * entries to a small LRU window, and an entry that falls out of the window only replaces the
+ * least recently used entry of the main area if its key has been requested more often, which
+ * keeps popular entries in the cache when many keys are only requested once.
+ * With setRefreshAfterWrite() the cache serves stale-while-revalidate, HappeningPod returns an
+ * entry that is older than the refresh time right away and refreshes it in the background.
+ * All methods are thread-safe, every call holds the lock of this instance for a few map
+ * operations.
+ */
+public class PodCache<D> {
+
+    /** Eviction policies, see setEviction(). */
+    public static final int
+            EVICTION_LRU = 0,
+            EVICTION_TINY_LFU = 1;
+
+    /** The segment of the cache that an Entry is in. */
+    private static final int
+            SEGMENT_WINDOW = 0,
+            SEGMENT_PROBATION = 1,
+            SEGMENT_PROTECTED = 2;
+
+    private static final class Entry<D> {
+
+        final Object key;
+        final Deed<D, ?> deed;
+        final int weight;
+        final long writeNanos, expireNanos;
+
+        int segment;
+
+        /** True while a refresh of this entry is running, see claimRefresh(). */
+        boolean refreshing = false;
+
+        Entry(
+                Object theKey,
+                Deed<D, ?> theDeed,
+                int theWeight,
+                long theWriteNanos,
+                long theExpireNanos
+        ) {
+            key = theKey;
+            deed = theDeed;
+            weight = theWeight;
+            writeNanos = theWriteNanos;
+            expireNanos = theExpireNanos;
+        }
+    }
+
+    private final long mMaxWeight;
+
+    private long
+            mExpireAfterWriteNanos = 0,
+            mRefreshAfterWriteNanos = 0,
+            mWindowMaxWeight,
+            mProtectedMaxWeight;
+
+    private int mEviction = EVICTION_LRU;
+
+    private Run<Integer, Deed<D, ?>> mWeigher;
+
+    private final HashMap<Object, Entry<D>> mEntries = new HashMap<>();
+
+    /** Every segment is kept in LRU order, the first entry is the least recently used. */
+    private final LinkedHashMap<Object, Entry<D>>
+            mWindow = new LinkedHashMap<>(16, 0.75f, true),
+            mProbation = new LinkedHashMap<>(16, 0.75f, true),
+            mProtected = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long
+            mWindowWeight = 0,
+            mProbationWeight = 0,
+            mProtectedWeight = 0;
+
+    /** Created by setEviction(EVICTION_TINY_LFU). */
+    private FrequencySketch mSketch;
+
+    private long
+            mHitCount = 0,
+            mMissCount = 0,
+            mEvictionCount = 0,
+            mRefreshCount = 0;
+
+    /**
+     * @param theMaxWeight the max total weight of the entries, which is the max number of
+     *                     entries unless setWeigher() is called
+     */
+    public PodCache(long theMaxWeight) {
+
+        if (theMaxWeight < 1) {
+            throw new IllegalArgumentException("theMaxWeight must be at least 1");
+        }
+
+        mMaxWeight = theMaxWeight;
+        mWindowMaxWeight = theMaxWeight;
+    }
+
+    /**
+     * @param duration entries are removed this long after they were added, 0 to never expire
+     * @param unit the unit of duration
+     * @return this instance
+     */
+    public synchronized PodCache<D> setExpireAfterWrite(long duration, TimeUnit unit) {
+        mExpireAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Makes HappeningPod refresh entries that are older than duration on its Executor, while
+     * callers keep getting the cached Deed until the refreshed Deed replaces it. The refreshed
+     * Deed is broadcast like every other result of the pod, so pod listeners get the update.
+     * Entries are still removed after the time set with setExpireAfterWrite(), so set that to a
+     * longer duration to get stale-while-revalidate. Pods without an Executor never refresh.
+     * @param duration entries are refreshed this long after they were added, 0 to never refresh
+     * @param unit the unit of duration
+     * @return this instance
+     */
+    public synchronized PodCache<D> setRefreshAfterWrite(long duration, TimeUnit unit) {
+        mRefreshAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * @param weigher returns the weight of a Deed that is added to the cache, must be at least 1
+     * @return this instance
+     */
+    public synchronized PodCache<D> setWeigher(Run<Integer, Deed<D, ?>> weigher) {
+        checkEmpty("setWeigher()");
+        mWeigher = weigher;
+        return this;
+    }
+
+    /**
+     * @param eviction EVICTION_LRU (the default) or EVICTION_TINY_LFU
+     * @return this instance
+     */
+    public synchronized PodCache<D> setEviction(int eviction) {
+
+        checkEmpty("setEviction()");
+
+        if (eviction == EVICTION_TINY_LFU) {
+            // 1% window, the main area is split 20% probation and 80% protected
+            mWindowMaxWeight = Math.max(1, mMaxWeight / 100);
+            mProtectedMaxWeight = (mMaxWeight - mWindowMaxWeight) * 4 / 5;
+            mSketch = new FrequencySketch(mMaxWeight);
+        }
+        else if (eviction == EVICTION_LRU) {
+            mWindowMaxWeight = mMaxWeight;
+            mProtectedMaxWeight = 0;
+            mSketch = null;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown eviction: " + eviction);
+        }
+
+        mEviction = eviction;
+
+        return this;
+    }
+
+    private void checkEmpty(String methodName) {
+        if (!mEntries.isEmpty()) {
+            throw new IllegalStateException(
+                    methodName + " must be called before anything is added to the cache"
+            );
+        }
+    }
+
+    /**
+     * @param key the key of the cached Deed
+     * @return the cached Deed, or null if key is not cached or has expired
+     */
+    public synchronized Deed<D, ?> get(Object key) {
+
+        if (mSketch != null) {
+            mSketch.increment(key);
+        }
+
+        Entry<D> entry = mEntries.get(key);
+
+        if (entry != null && isExpired(entry, System.nanoTime())) {
+            removeEntry(entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+
+        if (entry.segment == SEGMENT_WINDOW) {
+            mWindow.get(key);
+        }
+        else if (entry.segment == SEGMENT_PROBATION) {
+            // A second hit in the main area promotes the entry to the protected segment
+            mProbation.remove(key);
+            mProbationWeight -= entry.weight;
+            entry.segment = SEGMENT_PROTECTED;
+            mProtected.put(key, entry);
+            mProtectedWeight += entry.weight;
+            demoteProtected();
+        }
+        else {
+            mProtected.get(key);
+        }
+
+        return entry.deed;
+    }
+
+    /**
+     * Adds or replaces the Deed of key, deed should be finished and successful.
+     * @param key the key of the Deed
+     * @param deed the Deed to cache
+     */
+    public synchronized void put(Object key, Deed<D, ?> deed) {
+
+        Entry<D> oldEntry = mEntries.get(key);
+
+        if (oldEntry != null) {
+            removeEntry(oldEntry);
+        }
+
+        int weight = (mWeigher != null) ? mWeigher.r(deed) : 1;
+
+        if (weight < 1) {
+            throw new IllegalArgumentException("The weight of a Deed must be at least 1");
+        }
+
+        long nowNanos = System.nanoTime();
+
+        Entry<D> entry = new Entry<D>(
+                key,
+                deed,
+                weight,
+                nowNanos,
+                (mExpireAfterWriteNanos > 0) ? nowNanos + mExpireAfterWriteNanos : 0
+        );
+
+        entry.segment = SEGMENT_WINDOW;
+        mEntries.put(key, entry);
+        mWindow.put(key, entry);
+        mWindowWeight += weight;
+
+        removeExpired(nowNanos);
+        evict();
+    }
+
+    /**
+     * Called by HappeningPod after a hit, only one caller gets true until the entry has been
+     * replaced by put() or the refresh has been given up with refreshFailed().
+     * @param key the key of the Deed that was returned by get()
+     * @return true if the caller should refresh the Deed of key
+     */
+    synchronized boolean claimRefresh(Object key) {
+
+        if (mRefreshAfterWriteNanos == 0) {
+            return false;
+        }
+
+        Entry<D> entry = mEntries.get(key);
+
+        if (
+                entry == null ||
+                entry.refreshing ||
+                System.nanoTime() - entry.writeNanos < mRefreshAfterWriteNanos
+                ) {
+            return false;
+        }
+
+        entry.refreshing = true;
+        mRefreshCount++;
+
+        return true;
+    }
+
+    /**
+     * Keeps the stale Deed of key and lets the next hit try to refresh it again.
+     * @param key the key of the Deed that could not be refreshed
+     */
+    synchronized void refreshFailed(Object key) {
+
+        Entry<D> entry = mEntries.get(key);
+
+        if (entry != null) {
+            entry.refreshing = false;
+        }
+    }
+
+    /**
+     * @param key the key of the Deed to remove from the cache
+     */
+    public synchronized void invalidate(Object key) {
+
+        Entry<D> entry = mEntries.get(key);
+
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    /**
+     * Removes all entries from the cache, the statistics are kept.
+     */
+    public synchronized void invalidateAll() {
+        mEntries.clear();
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowWeight = 0;
+        mProbationWeight = 0;
+        mProtectedWeight = 0;
+    }
+
+    /**
+     * @return the number of entries, including expired entries that have not been removed yet
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the total weight of the entries
+     */
+    public synchronized long getWeight() {
+        return mWindowWeight + mProbationWeight + mProtectedWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of entries that have been removed to stay below the max weight
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return the number of background refreshes that have been started
+     */
+    public synchronized long getRefreshCount() {
+        return mRefreshCount;
+    }
+
+    /**
+     * @return hits / (hits + misses), or 0 if get() has not been called
+     */
+    public synchronized double getHitRate() {
+        long requestCount = mHitCount + mMissCount;
+        return (requestCount > 0) ? (double) mHitCount / requestCount : 0;
+    }
+
+    private boolean isExpired(Entry<D> entry, long nowNanos) {
+        return entry.expireNanos != 0 && nowNanos - entry.expireNanos >= 0;
+    }
+
+    /**
+     * Removes the expired entries at the start of the window, which holds the least recently
+     * used entries first, and stops at the first entry that has not expired. Other expired
+     * entries are removed by get() or evicted.
+     */
+    private void removeExpired(long nowNanos) {
+
+        if (mExpireAfterWriteNanos == 0) {
+            return;
+        }
+
+        Iterator<Entry<D>> windowIterator = mWindow.values().iterator();
+        Entry<D> entry;
+
+        while (windowIterator.hasNext()) {
+
+            entry = windowIterator.next();
+
+            if (!isExpired(entry, nowNanos)) {
+                break;
+            }
+
+            windowIterator.remove();
+            mEntries.remove(entry.key);
+            mWindowWeight -= entry.weight;
+        }
+    }
+
+    private void removeEntry(Entry<D> entry) {
+
+        mEntries.remove(entry.key);
+
+        if (entry.segment == SEGMENT_WINDOW) {
+            mWindow.remove(entry.key);
+            mWindowWeight -= entry.weight;
+        }
+        else if (entry.segment == SEGMENT_PROBATION) {
+            mProbation.remove(entry.key);
+            mProbationWeight -= entry.weight;
+        }
+        else {
+            mProtected.remove(entry.key);
+            mProtectedWeight -= entry.weight;
+        }
+    }
+
+    private void evict() {
+
+        if (mEviction == EVICTION_LRU) {
+            while (mWindowWeight > mMaxWeight) {
+                evictEntry(first(mWindow));
+            }
+            return;
+        }
+
+        Entry<D> candidate;
+
+        // Entries that fall out of the window compete with the LRU entries of the main area
+        while (mWindowWeight > mWindowMaxWeight) {
+
+            candidate = first(mWindow);
+            mWindow.remove(candidate.key);
+            mWindowWeight -= candidate.weight;
+
+            candidate.segment = SEGMENT_PROBATION;
+            mProbation.put(candidate.key, candidate);
+            mProbationWeight += candidate.weight;
+
+            Entry<D> victim;
+
+            while (mProbationWeight + mProtectedWeight > mMaxWeight - mWindowMaxWeight) {
+
+                victim = !mProbation.isEmpty() ? first(mProbation) : first(mProtected);
+
+                if (
+                        candidate != null &&
+                        candidate != victim &&
+                        mSketch.frequency(candidate.key) <= mSketch.frequency(victim.key)
+                        ) {
+                    victim = candidate;
+                }
+
+                if (victim == candidate) {
+                    candidate = null;
+                }
+
+                evictEntry(victim);
+            }
+        }
+    }
+
+    private void evictEntry(Entry<D> entry) {
+        removeEntry(entry);
+        mEvictionCount++;
+    }
+
+    /**
+     * Moves the LRU entries of the protected segment to the probation segment until the
+     * protected segment is below its max weight.
+     */
+    private void demoteProtected() {
+
+        Entry<D> entry;
+
+        while (mProtectedWeight > mProtectedMaxWeight) {
+
+            entry = first(mProtected);
+            mProtected.remove(entry.key);
+            mProtectedWeight -= entry.weight;
+
+            entry.segment = SEGMENT_PROBATION;
+            mProbation.put(entry.key, entry);
+            mProbationWeight += entry.weight;
+        }
+    }
+
+    private static <D> Entry<D> first(LinkedHashMap<Object, Entry<D>> segment) {
+        return segment.values().iterator().next();
+    }
+
+    /**
+     * Count-Min sketch with 4 rows of counters that saturate at 15, which estimates how often a
+     * key has been requested. Every row has 4 counters per cache entry to keep collisions rare
+     * when many more keys are requested than fit in the cache. All counters are halved when the
+     * number of increments reaches 10 times the max weight, so that keys that were popular a
+     * long time ago lose their advantage.
+     */
+    private static final class FrequencySketch {
+
+        private static final int[] SEEDS = {
+                0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F
+        };
+
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] mRows;
+        private final int mMask;
+        private final int mSampleSize;
+
+        private int mIncrementCount = 0;
+
+        FrequencySketch(long theMaxWeight) {
+
+            int width = 64;
+
+            while (width < theMaxWeight * 4 && width < (1 << 20)) {
+                width <<= 1;
+            }
+
+            mRows = new byte[SEEDS.length][width];
+            mMask = width - 1;
+            mSampleSize = (int) Math.min(theMaxWeight * 10, Integer.MAX_VALUE);
+        }
+
+        private int indexOf(int hash, int row) {
+            int index = hash * SEEDS[row];
+            return (index ^ (index >>> 16)) & mMask;
+        }
+
+        private static int spread(Object key) {
+            int hash = key.hashCode();
+            return hash ^ (hash >>> 16);
+        }
+
+        void increment(Object key) {
+
+            int hash = spread(key);
+            int index;
+
+            for (int row = 0; row < mRows.length; row++) {
+                index = indexOf(hash, row);
+                if (mRows[row][index] < MAX_COUNT) {
+                    mRows[row][index]++;
+                }
+            }
+
+            if (++mIncrementCount >= mSampleSize) {
+
+                for (byte[] iterRow : mRows) {
+                    for (int i = 0; i < iterRow.length; i++) {
+                        iterRow[i] >>= 1;
+                    }
+                }
+
+                mIncrementCount /= 2;
+            }
+        }
+
+        int frequency(Object key) {
+
+            int hash = spread(key);
+            int frequency = MAX_COUNT;
+
+            for (int row = 0; row < mRows.length; row++) {
+                frequency = Math.min(frequency, mRows[row][indexOf(hash, row)]);
+            }
+
+            return frequency;
+        }
+    }
+
+}
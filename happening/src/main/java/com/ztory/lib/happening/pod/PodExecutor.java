@@ -0,0 +1,586 @@
+package com.ztory.lib.happening.pod;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for HappeningPod queries with priorities, work stealing and a bounded queue.
+ * Each worker thread has its own deque per priority, tasks submitted from a worker thread are
+ * added to the deques of that worker and other tasks are spread over the workers. A worker runs
+ * the oldest task of the highest priority in its own deques, and if there is a task with a
+ * higher priority in the deques of another worker it steals the newest one of those instead.
+ * HappeningPod reads the priority of each query with podPriority(), so interactive queries are
+ * not stuck behind batch queries in the same pod.
+ * When queueCapacity tasks are waiting execute() throws a RejectedExecutionException, which
+ * HappeningPod turns into a failed Deed.
+ * Worker threads are started by execute() until every worker has one, and stop after keepAlive
+ * without tasks, like the core threads of podCreateExecutor(). A RuntimeException thrown by a
+ * task is passed to the uncaught exception handler of the thread and the thread keeps running,
+ * an Error is rethrown after a new thread has taken over the deques of the worker.
+ */
+public class PodExecutor implements Executor {
+
+    /** Priorities for TypedMap.PRIORITY, other values are clamped to this range. */
+    public static final int
+            PRIORITY_BATCH = 0,
+            PRIORITY_NORMAL = 1,
+            PRIORITY_INTERACTIVE = 2;
+
+    private static final int PRIORITY_COUNT = PRIORITY_INTERACTIVE + 1;
+
+    /** Same as the keep alive of HappeningExecutors.newThreadPool(). */
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 4000;
+
+    /** How long a worker that lost the race for a task waits for a permit before it looks again. */
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String mThreadNamePrefix;
+
+    private final Worker[] mWorkers;
+
+    private final int mQueueCapacity;
+
+    private final long mKeepAliveNanos;
+
+    /** One permit for each task in the deques, a worker takes a permit before taking a task. */
+    private final Semaphore mQueuedPermits = new Semaphore(0);
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+
+    private final AtomicInteger[] mPriorityQueueDepth = new AtomicInteger[PRIORITY_COUNT];
+
+    private final AtomicInteger mNextWorker = new AtomicInteger();
+
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+
+    private final AtomicLong
+            mCompletedCount = new AtomicLong(),
+            mStolenCount = new AtomicLong(),
+            mRejectedCount = new AtomicLong();
+
+    private volatile boolean mShutdown = false;
+
+    /** Guards writes to mThreadCount, notified when a worker thread stops. */
+    private final Object mThreadLock = new Object();
+
+    private volatile int mThreadCount = 0;
+
+    /**
+     * Same as PodExecutor(theThreadNamePrefix, theWorkerCount, theQueueCapacity, 4, SECONDS).
+     */
+    public PodExecutor(String theThreadNamePrefix, int theWorkerCount, int theQueueCapacity) {
+        this(
+                theThreadNamePrefix,
+                theWorkerCount,
+                theQueueCapacity,
+                DEFAULT_KEEP_ALIVE_MILLIS,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * @param theThreadNamePrefix prefix for the names of the worker threads
+     * @param theWorkerCount the number of workers, each worker has at most one thread
+     * @param theQueueCapacity the max number of tasks waiting to run
+     * @param theKeepAlive how long the thread of a worker waits for a task before it stops
+     * @param theUnit the unit of theKeepAlive
+     */
+    public PodExecutor(
+            String theThreadNamePrefix,
+            int theWorkerCount,
+            int theQueueCapacity,
+            long theKeepAlive,
+            TimeUnit theUnit
+    ) {
+
+        if (theWorkerCount < 1) {
+            throw new IllegalArgumentException("theWorkerCount < 1");
+        }
+        if (theQueueCapacity < 1) {
+            throw new IllegalArgumentException("theQueueCapacity < 1");
+        }
+        if (theKeepAlive <= 0) {
+            throw new IllegalArgumentException("theKeepAlive <= 0");
+        }
+
+        mThreadNamePrefix = theThreadNamePrefix;
+        mQueueCapacity = theQueueCapacity;
+        mKeepAliveNanos = theUnit.toNanos(theKeepAlive);
+
+        mWorkers = new Worker[theWorkerCount];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Worker(i);
+        }
+
+        for (int i = 0; i < mPriorityQueueDepth.length; i++) {
+            mPriorityQueueDepth[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Same as execute(command, PRIORITY_NORMAL).
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(command, PRIORITY_NORMAL);
+    }
+
+    /**
+     * @param command the task to run
+     * @param priority PRIORITY_BATCH, PRIORITY_NORMAL or PRIORITY_INTERACTIVE
+     * @throws RejectedExecutionException if the queue is full or shutdown() has been called
+     */
+    public void execute(Runnable command, int priority) {
+
+        if (command == null) {
+            throw new NullPointerException("command == null");
+        }
+
+        if (mShutdown) {
+            mRejectedCount.incrementAndGet();
+            throw new RejectedExecutionException(mThreadNamePrefix + " is shut down");
+        }
+
+        if (mQueueDepth.incrementAndGet() > mQueueCapacity) {
+            mQueueDepth.decrementAndGet();
+            mRejectedCount.incrementAndGet();
+            throw new RejectedExecutionException(
+                    mThreadNamePrefix + " queue is full, queueCapacity: " + mQueueCapacity
+            );
+        }
+
+        priority = Math.max(PRIORITY_BATCH, Math.min(PRIORITY_INTERACTIVE, priority));
+
+        Thread currentThread = Thread.currentThread();
+
+        Worker worker = (currentThread instanceof WorkerThread
+                && ((WorkerThread) currentThread).executor == this)
+                ? ((WorkerThread) currentThread).worker
+                : mWorkers[(mNextWorker.getAndIncrement() & Integer.MAX_VALUE) % mWorkers.length];
+
+        mPriorityQueueDepth[priority].incrementAndGet();
+
+        synchronized (worker) {
+
+            worker.deques[priority].addLast(command);
+
+            // A thread that is stopping checks the deques while holding the same lock
+            if (!worker.running) {
+                worker.running = true;
+                startThread(worker);
+            }
+        }
+
+        mQueuedPermits.release();
+
+        // Like the core threads of podCreateExecutor(), every task starts a thread until all
+        // workers have one, so that there are idle workers to steal it
+        if (mThreadCount < mWorkers.length) {
+            startIdleWorker();
+        }
+    }
+
+    /**
+     * Stops the worker threads once the tasks that are already queued have run, later calls to
+     * execute() are rejected.
+     */
+    public void shutdown() {
+
+        mShutdown = true;
+
+        // One permit for each worker, taken as a signal to stop when all deques are empty
+        mQueuedPermits.release(mWorkers.length);
+    }
+
+    /**
+     * @return true if shutdown() has been called and all worker threads have stopped
+     */
+    public boolean isTerminated() {
+        synchronized (mThreadLock) {
+            return mShutdown && mThreadCount == 0 && mQueueDepth.get() == 0;
+        }
+    }
+
+    /**
+     * Blocks until all worker threads have stopped after shutdown(), or timeout has passed.
+     * @param timeout the max time to wait
+     * @param unit the unit of timeout
+     * @return true if terminated, false if timeout passed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+
+        synchronized (mThreadLock) {
+
+            while (!isTerminated()) {
+
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(
+                        deadlineNanos - System.nanoTime()
+                );
+
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+
+                mThreadLock.wait(remainingMillis);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting to run
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * @param priority PRIORITY_BATCH, PRIORITY_NORMAL or PRIORITY_INTERACTIVE
+     * @return the number of tasks with priority waiting to run
+     */
+    public int getQueueDepth(int priority) {
+        return mPriorityQueueDepth[priority].get();
+    }
+
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    /**
+     * @return the number of tasks that are running right now
+     */
+    public int getActiveCount() {
+        return mActiveCount.get();
+    }
+
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * @return the number of tasks that were run by another worker than the one they were
+     * queued on
+     */
+    public long getStolenCount() {
+        return mStolenCount.get();
+    }
+
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * @return the number of worker threads that are alive, at most getWorkerCount()
+     */
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    private void startThread(Worker worker) {
+
+        synchronized (mThreadLock) {
+            mThreadCount++;
+        }
+
+        WorkerThread workerThread = new WorkerThread(this, worker);
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    private void startIdleWorker() {
+        for (Worker iterWorker : mWorkers) {
+            synchronized (iterWorker) {
+                if (!iterWorker.running) {
+                    iterWorker.running = true;
+                    startThread(iterWorker);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void threadStopped() {
+        synchronized (mThreadLock) {
+            mThreadCount--;
+            mThreadLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for a permit from mQueuedPermits. Worker threads are only interrupted by their own
+     * tasks, an interrupt is treated like a timeout.
+     * @return true if a permit was taken
+     */
+    private boolean tryAcquirePermit(long timeoutNanos) {
+        try {
+            return mQueuedPermits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Marks worker as not running if its deques are empty, so that the next execute() on it
+     * starts a new thread.
+     * @return true if the calling thread must stop
+     */
+    private boolean stopIfIdle(Worker worker) {
+
+        synchronized (worker) {
+
+            for (TaskDeque iterDeque : worker.deques) {
+                if (iterDeque.size() > 0) {
+                    return false;
+                }
+            }
+
+            worker.running = false;
+
+            return true;
+        }
+    }
+
+    /**
+     * Takes the task with the highest priority from the deques of worker, or steals a task from
+     * another worker if that has a task with a higher priority. Every permit in mQueuedPermits
+     * guarantees that a task is queued, but another worker can take it while this one looks,
+     * then this waits for the permit of the next task instead of spinning and gives back the
+     * extra permits once it has a task.
+     * @return the task to run, or null if the thread must stop, because shutdown() has been
+     * called and all deques are empty or because no task was queued for keepAlive
+     */
+    private Runnable takeTask(Worker worker) {
+
+        int permits = 0;
+
+        while (true) {
+
+            if (permits == 0) {
+                if (tryAcquirePermit(mKeepAliveNanos)) {
+                    permits = 1;
+                }
+                else if (stopIfIdle(worker)) {
+                    return null;
+                }
+                else {
+                    continue;//tasks are queued on worker, their permits come next
+                }
+            }
+
+            Runnable task = pollTask(worker);
+
+            if (task != null) {
+                if (permits > 1) {
+                    mQueuedPermits.release(permits - 1);
+                }
+                return task;
+            }
+
+            if (mShutdown && mQueueDepth.get() == 0 && stopIfIdle(worker)) {
+                // Passed on, the permits may be the shutdown signals of other workers
+                mQueuedPermits.release(permits);
+                return null;
+            }
+
+            if (tryAcquirePermit(RETRY_NANOS)) {
+                permits++;
+            }
+        }
+    }
+
+    /**
+     * @return the task with the highest priority in the deques of worker or of other workers,
+     * or null if none was found
+     */
+    private Runnable pollTask(Worker worker) {
+
+        for (int priority = PRIORITY_INTERACTIVE; priority >= PRIORITY_BATCH; priority--) {
+
+            Runnable task;
+
+            synchronized (worker) {
+                task = worker.deques[priority].pollFirst();
+            }
+
+            if (task == null) {
+                task = stealTask(worker, priority);
+            }
+
+            if (task != null) {
+                mPriorityQueueDepth[priority].decrementAndGet();
+                mQueueDepth.decrementAndGet();
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    private Runnable stealTask(Worker thief, int priority) {
+
+        for (int i = 1; i < mWorkers.length; i++) {
+
+            Worker victim = mWorkers[(thief.index + i) % mWorkers.length];
+
+            Runnable task;
+
+            synchronized (victim) {
+                task = victim.deques[priority].pollLast();
+            }
+
+            if (task != null) {
+                mStolenCount.incrementAndGet();
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    private void runWorker(Worker worker) {
+
+        try {
+            while (true) {
+
+                Runnable task = takeTask(worker);
+
+                if (task == null) {
+                    return;
+                }
+
+                mActiveCount.incrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // Reported instead of rethrown, the thread keeps running the next tasks
+                    Thread currentThread = Thread.currentThread();
+                    currentThread.getUncaughtExceptionHandler().uncaughtException(
+                            currentThread,
+                            e
+                    );
+                } catch (Error e) {
+                    // The VM may be in trouble, but the deques of worker must not be stranded
+                    startThread(worker);
+                    throw e;
+                } finally {
+                    mActiveCount.decrementAndGet();
+                    mCompletedCount.incrementAndGet();
+
+                    // Like ThreadPoolExecutor, an interrupt of one task does not leak into the next
+                    Thread.interrupted();
+                }
+            }
+        } finally {
+            threadStopped();
+        }
+    }
+
+    /**
+     * The deques of one worker thread, guarded by the Worker instance, like running.
+     */
+    private static final class Worker {
+
+        final int index;
+
+        final TaskDeque[] deques = new TaskDeque[PRIORITY_COUNT];
+
+        /** True while a thread is running for this worker. */
+        boolean running = false;
+
+        Worker(int theIndex) {
+            index = theIndex;
+            for (int i = 0; i < deques.length; i++) {
+                deques[i] = new TaskDeque();
+            }
+        }
+    }
+
+    private static final class WorkerThread extends Thread {
+
+        final PodExecutor executor;
+
+        final Worker worker;
+
+        WorkerThread(PodExecutor theExecutor, Worker theWorker) {
+            super(theExecutor.mThreadNamePrefix + " #" + (theWorker.index + 1));
+            executor = theExecutor;
+            worker = theWorker;
+        }
+
+        @Override
+        public void run() {
+            executor.runWorker(worker);
+        }
+    }
+
+    /**
+     * Growable ring buffer deque, not thread-safe. ArrayDeque is not available on API level 8.
+     */
+    private static final class TaskDeque {
+
+        private Runnable[] mElements = new Runnable[16];
+
+        private int mHead = 0, mSize = 0;
+
+        int size() {
+            return mSize;
+        }
+
+        void addLast(Runnable task) {
+
+            if (mSize == mElements.length) {
+                Runnable[] grownElements = new Runnable[mElements.length * 2];
+                for (int i = 0; i < mSize; i++) {
+                    grownElements[i] = mElements[(mHead + i) & (mElements.length - 1)];
+                }
+                mElements = grownElements;
+                mHead = 0;
+            }
+
+            mElements[(mHead + mSize) & (mElements.length - 1)] = task;
+            mSize++;
+        }
+
+        Runnable pollFirst() {
+
+            if (mSize == 0) {
+                return null;
+            }
+
+            Runnable task = mElements[mHead];
+            mElements[mHead] = null;
+            mHead = (mHead + 1) & (mElements.length - 1);
+            mSize--;
+
+            return task;
+        }
+
+        Runnable pollLast() {
+
+            if (mSize == 0) {
+                return null;
+            }
+
+            int tail = (mHead + mSize - 1) & (mElements.length - 1);
+
+            Runnable task = mElements[tail];
+            mElements[tail] = null;
+            mSize--;
+
+            return task;
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+package com.ztory.lib.happening.ring;
+
+import com.ztory.lib.happening.Happening;
+import com.ztory.lib.happening.HappeningListener;
+import com.ztory.lib.happening.Run;
+import com.ztory.lib.happening.RunObject;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Event bus for high-throughput producer/consumer pipelines. Events are published into a
+ * preallocated ring of reusable slots, and every HappeningListener added to the ring consumes
+ * all events on its own dedicated thread, receiving the events that match its eventName and
+ * listenGroupId with the same routing as Happening.sendEvent(). Publishing does not allocate,
+ * and when the ring is full publishers wait for the slowest listener to catch up.
+ * Listeners must be added before start(), any number of threads may publish after start().
+ * A slot keeps a reference to its payload until the slot is reused. Anything thrown by a
+ * listener or its filter, Errors included, is passed to the uncaught exception handler of the
+ * consumer thread, which then moves on to the next event.
+ */
+public class HappeningRing {
+
+    private final int mBufferSize, mIndexMask, mIndexShift;
+
+    private final RingSlot[] mSlots;
+
+    /** Per slot, the lap (sequence / mBufferSize) of the last event published to it. */
+    private final AtomicIntegerArray mAvailable;
+
+    /** The next sequence to claim by a publisher. */
+    private final RingSequence mClaimSequence = new RingSequence(0);
+
+    private final RingWaitStrategy mWaitStrategy;
+
+    private final ArrayList<HappeningListener> mListeners = new ArrayList<>();
+
+    private RingConsumer[] mConsumers = new RingConsumer[0];
+
+    private Thread[] mThreads;
+
+    /** Lowest consumed sequence seen by a publisher, racy but only ever too low. */
+    private volatile long mCachedGatingSequence = -1;
+
+    private volatile boolean mStarted = false, mHalted = false;
+
+    /**
+     * @param theBufferSize the number of slots in the ring, must be a power of two
+     * @param theWaitStrategy what the consumer threads do while there are no events to consume
+     */
+    public HappeningRing(int theBufferSize, RingWaitStrategy theWaitStrategy) {
+
+        if (theBufferSize < 1 || Integer.bitCount(theBufferSize) != 1) {
+            throw new IllegalArgumentException("theBufferSize must be a power of two.");
+        }
+
+        mBufferSize = theBufferSize;
+        mIndexMask = theBufferSize - 1;
+        mIndexShift = Integer.numberOfTrailingZeros(theBufferSize);
+        mWaitStrategy = theWaitStrategy;
+
+        mSlots = new RingSlot[theBufferSize];
+        mAvailable = new AtomicIntegerArray(theBufferSize);
+
+        for (int i = 0; i < theBufferSize; i++) {
+            mSlots[i] = new RingSlot();
+            mAvailable.set(i, -1);
+        }
+    }
+
+    /**
+     * Adds a listener that will consume events on its own thread once start() has been called.
+     * @param listener the listener, must not have an Executor or post to a Handler
+     * @return this instance, for chaining
+     */
+    public synchronized HappeningRing addListener(HappeningListener listener) {
+
+        if (mStarted) {
+            throw new IllegalStateException("Listeners must be added before start().");
+        }
+
+        if (listener.getExecutor() != null) {
+            throw new IllegalArgumentException(
+                    "HappeningRing listeners run on their own thread, an executor is not allowed."
+            );
+        }
+
+        mListeners.add(listener);
+
+        return this;
+    }
+
+    /**
+     * Starts one consumer thread per listener.
+     * @return this instance, for chaining
+     */
+    public synchronized HappeningRing start() {
+
+        if (mStarted) {
+            throw new IllegalStateException("HappeningRing has already been started.");
+        }
+
+        RingConsumer[] consumers = new RingConsumer[mListeners.size()];
+        mThreads = new Thread[consumers.length];
+
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new RingConsumer(mListeners.get(i));
+            mThreads[i] = new Thread(consumers[i], "HappeningRing #" + (i + 1));
+            //a busy-spinning consumer must never keep the process alive
+            mThreads[i].setDaemon(true);
+        }
+
+        mConsumers = consumers;
+        mStarted = true;
+
+        for (Thread iterThread : mThreads) {
+            iterThread.start();
+        }
+
+        return this;
+    }
+
+    /**
+     * Stops accepting events and waits for the consumer threads to deliver the events that have
+     * already been published and then exit.
+     */
+    public void halt() {
+
+        Thread[] threads;
+
+        synchronized (this) {
+            if (!mStarted || mHalted) {
+                return;
+            }
+            mHalted = true;
+            threads = mThreads;
+        }
+
+        for (Thread iterThread : threads) {
+            LockSupport.unpark(iterThread);
+        }
+
+        try {
+            for (Thread iterThread : threads) {
+                iterThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void publish(String eventName, Object payload) {
+        publish(Happening.GROUP_ID_GLOBAL, eventName, payload);
+    }
+
+    /**
+     * Publishes an event to the listeners of the ring, waits while the ring is full.
+     * @param eventGroupId the groupId that will scope the event
+     * @param eventName the name of the event
+     * @param payload the payload of the event
+     */
+    public void publish(int eventGroupId, String eventName, Object payload) {
+
+        if (!mStarted || mHalted) {
+            throw new IllegalStateException("HappeningRing is not running.");
+        }
+
+        final long sequence = mClaimSequence.getAndIncrement();
+        final long wrapPoint = sequence - mBufferSize;
+
+        // Wait until every consumer is done with the event that was in this slot one lap ago
+        if (wrapPoint > mCachedGatingSequence) {
+
+            long gatingSequence;
+
+            while (wrapPoint > (gatingSequence = getMinimumConsumerSequence(sequence))) {
+                if (mHalted) {
+                    throw new IllegalStateException("HappeningRing has been halted.");
+                }
+                LockSupport.parkNanos(1);
+            }
+
+            mCachedGatingSequence = gatingSequence;
+        }
+
+        final int index = (int) sequence & mIndexMask;
+
+        RingSlot slot = mSlots[index];
+        slot.eventName = eventName;
+        slot.eventGroupId = eventGroupId;
+        slot.payload = payload;
+
+        mAvailable.set(index, (int) (sequence >>> mIndexShift));
+    }
+
+    private long getMinimumConsumerSequence(long defaultSequence) {
+
+        long minimum = defaultSequence;
+
+        for (RingConsumer iterConsumer : mConsumers) {
+            minimum = Math.min(minimum, iterConsumer.mSequence.get());
+        }
+
+        return minimum;
+    }
+
+    /**
+     * @param lowestSequence the next sequence that a consumer wants to consume
+     * @return the highest sequence that is published along with every sequence before it,
+     * lowestSequence - 1 if lowestSequence has not been published yet
+     */
+    private long getHighestPublishedSequence(long lowestSequence) {
+
+        final long highestClaimedSequence = mClaimSequence.get() - 1;
+
+        for (long sequence = lowestSequence; sequence <= highestClaimedSequence; sequence++) {
+            if (mAvailable.get((int) sequence & mIndexMask) != (int) (sequence >>> mIndexShift)) {
+                return sequence - 1;
+            }
+        }
+
+        return highestClaimedSequence;
+    }
+
+    /** Consumes every event of the ring on a dedicated thread, for one listener. */
+    private final class RingConsumer implements Runnable {
+
+        private final HappeningListener mListener;
+
+        /** The last sequence that this consumer is done with. */
+        private final RingSequence mSequence = new RingSequence(-1);
+
+        private RingConsumer(HappeningListener theListener) {
+            mListener = theListener;
+        }
+
+        @Override
+        public void run() {
+
+            final int listenGroupId = mListener.listenGroupId;
+            final Run<Boolean, Object> filter = mListener.getFilter();
+            final boolean listenGlobal = listenGroupId == Happening.GROUP_ID_GLOBAL;
+
+            long nextSequence = mSequence.get() + 1;
+            int idleCount = 0;
+
+            while (true) {
+
+                final long availableSequence = getHighestPublishedSequence(nextSequence);
+
+                if (availableSequence < nextSequence) {
+                    if (mHalted) {
+                        return;
+                    }
+                    mWaitStrategy.idle(++idleCount);
+                    continue;
+                }
+
+                idleCount = 0;
+
+                for (; nextSequence <= availableSequence; nextSequence++) {
+
+                    RingSlot slot = mSlots[(int) nextSequence & mIndexMask];
+
+                    if (
+                            (listenGlobal || listenGroupId == slot.eventGroupId) &&
+                            mListener.matchesEventName(slot.eventName)
+                            ) {
+                        deliver(filter, slot.payload);
+                    }
+                }
+
+                // Publishers may reuse the consumed slots once the sequence has been updated
+                mSequence.set(availableSequence);
+            }
+        }
+
+        private void deliver(Run<Boolean, Object> filter, Object payload) {
+            RunObject listenerRun = mListener.getListenerRun();
+
+            if (listenerRun == null) {
+                return;//weak listener that has been garbage collected
+            }
+
+            try {
+                if (filter == null || Boolean.TRUE.equals(filter.r(payload))) {
+                    listenerRun.r(payload);
+                }
+            } catch (Throwable t) {
+                // Keep consuming, also after an Error, a dead consumer would never advance its
+                // sequence and would block every publisher once the ring fills
+                Thread currentThread = Thread.currentThread();
+                currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, t);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.ztory.lib.happening.ring;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A long sequence counter padded to its own cache line, so that the sequences of the producers
+ * and of each consumer thread do not invalidate each other when they are updated.
+ */
+class RingSequenceLhsPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class RingSequenceValue extends RingSequenceLhsPadding {
+    protected volatile long value;
+}
+
+final class RingSequence extends RingSequenceValue {
+
+    private static final AtomicLongFieldUpdater<RingSequenceValue> VALUE_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(RingSequenceValue.class, "value");
+
+    protected long p9, p10, p11, p12, p13, p14, p15;
+
+    RingSequence(long theInitialValue) {
+        value = theInitialValue;
+    }
+
+    long get() {
+        return value;
+    }
+
+    /** Volatile write, AtomicLongFieldUpdater.lazySet() is not available on API level 8. */
+    void set(long newValue) {
+        VALUE_UPDATER.set(this, newValue);
+    }
+
+    long getAndIncrement() {
+        return VALUE_UPDATER.getAndIncrement(this);
+    }
+
+}
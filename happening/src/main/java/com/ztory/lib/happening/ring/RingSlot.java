@@ -0,0 +1,14 @@
+package com.ztory.lib.happening.ring;
+
+/**
+ * A preallocated slot in HappeningRing, overwritten by every event that is published to it. The
+ * fields are written by the publishing thread before the slot is marked as available and are
+ * only read by consumer threads after they have seen it marked as available.
+ */
+final class RingSlot {
+
+    String eventName;
+    int eventGroupId;
+    Object payload;
+
+}
@@ -0,0 +1,59 @@
+package com.ztory.lib.happening.ring;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides what a HappeningRing consumer thread does while there are no events to consume.
+ * BUSY_SPIN gives the lowest latency but keeps one CPU core busy per consumer, YIELD lets other
+ * threads run between checks, and parking() spins and yields for a short while before parking
+ * the thread, which saves CPU at the cost of latency when the ring has been idle.
+ */
+public abstract class RingWaitStrategy {
+
+    private static final int
+            SPIN_TRIES = 100,
+            YIELD_TRIES = 100;
+
+    public static final RingWaitStrategy BUSY_SPIN = new RingWaitStrategy() {
+        @Override
+        public void idle(int idleCount) {
+            //check again right away
+        }
+    };
+
+    public static final RingWaitStrategy YIELD = new RingWaitStrategy() {
+        @Override
+        public void idle(int idleCount) {
+            if (idleCount > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    };
+
+    /**
+     * @param parkNanos the time to park the consumer thread once spinning and yielding has not
+     *                  found any new events
+     * @return a RingWaitStrategy that spins, then yields and then parks the consumer thread
+     */
+    public static RingWaitStrategy parking(final long parkNanos) {
+        return new RingWaitStrategy() {
+            @Override
+            public void idle(int idleCount) {
+                if (idleCount > SPIN_TRIES + YIELD_TRIES) {
+                    LockSupport.parkNanos(parkNanos);
+                }
+                else if (idleCount > SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+        };
+    }
+
+    /**
+     * Called by a consumer thread each time it finds no new events.
+     * @param idleCount the number of times idle() has been called since the last consumed event,
+     *                  starting at 1
+     */
+    public abstract void idle(int idleCount);
+
+}
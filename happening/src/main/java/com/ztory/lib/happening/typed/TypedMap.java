@@ -43,6 +43,7 @@ public interface TypedMap<K, V> extends Map<K, V> {
             BYTES = "bytes",
             NAME = "name",
             MODE = "mode",
+            PRIORITY = "priority",
             TYPE = "type",
             EXTRA = "extra",
             DATA = "data",
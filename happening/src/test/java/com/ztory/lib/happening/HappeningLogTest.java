@@ -0,0 +1,121 @@
+package com.ztory.lib.happening;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the HappeningLog ring buffer and its sinks.
+ */
+public class HappeningLogTest extends TestCase {
+
+    private HappeningLogSink mPreviousSink;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPreviousSink = HappeningLog.getSink();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HappeningLog.setSink(mPreviousSink);
+        super.tearDown();
+    }
+
+    public void testEntries() throws Exception {
+
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+        HappeningLog.setSink(new HappeningLogSink() {
+            @Override
+            public void write(String tag, String message) {
+                assertEquals("HappeningLogTest", tag);
+                lines.add(message);
+            }
+        });
+
+        final int threadCount = 4, entriesPerThread = 100;
+
+        Thread[] threads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            final int threadIndex = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < entriesPerThread; j++) {
+                        HappeningLog.entry(HappeningLogTest.class)
+                                .put("thread", threadIndex)
+                                .put("entry", j)
+                                .commit();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread iterThread : threads) {
+            iterThread.join();
+        }
+
+        assertTrue(HappeningLog.flush(5, TimeUnit.SECONDS));
+        assertEquals(threadCount * entriesPerThread, lines.size());
+        assertTrue(lines.contains("[HappeningLogTest] thread: 3 | entry: 99"));
+
+        lines.clear();
+
+        Object payload = new Object() {
+            @Override
+            public String toString() {
+                return "payload";
+            }
+        };
+
+        HappeningLog.entry(HappeningLogTest.class)
+                .put("object", payload)
+                .put("nullObject", null)
+                .commit();
+
+        assertTrue(HappeningLog.flush(5, TimeUnit.SECONDS));
+        assertEquals("[HappeningLogTest] object: payload | nullObject: null", lines.get(0));
+    }
+
+    public void testDropWhenFull() throws Exception {
+
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSink = new CountDownLatch(1);
+
+        HappeningLog.setSink(new HappeningLogSink() {
+            @Override
+            public void write(String tag, String message) {
+                writeStarted.countDown();
+                try {
+                    releaseSink.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        HappeningLog.entry(HappeningLogTest.class).put("blocking", 0).commit();
+        assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+
+        long droppedBefore = HappeningLog.getDroppedCount();
+
+        // The log thread is stuck on the first entry, so at most RING_SIZE more fit in the ring
+        for (int i = 0; i < HappeningLog.RING_SIZE + 10; i++) {
+            HappeningLog.entry(HappeningLogTest.class).put("entry", i).commit();
+        }
+
+        assertTrue(HappeningLog.getDroppedCount() - droppedBefore >= 10);
+
+        releaseSink.countDown();
+        assertTrue(HappeningLog.flush(5, TimeUnit.SECONDS));
+    }
+
+}
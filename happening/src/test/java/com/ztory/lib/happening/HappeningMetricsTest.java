@@ -0,0 +1,246 @@
+package com.ztory.lib.happening;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for HappeningMetrics counters, slow listener detection and the latency histograms.
+ */
+public class HappeningMetricsTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HappeningMetrics.reset();
+        HappeningMetrics.setEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HappeningMetrics.setEnabled(false);
+        HappeningMetrics.setSlowListenerCallback(null);
+        HappeningMetrics.setSlowListenerThreshold(16, TimeUnit.MILLISECONDS);
+        HappeningMetrics.reset();
+        super.tearDown();
+    }
+
+    public void testCounters() {
+
+        int eventGroupId = Happening.getUniqueActivityId();
+        String eventName = Happening.getEventName(getClass(), "metrics_1");
+
+        RunObject returnPayload = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return o;
+            }
+        };
+
+        HappeningListener globalListener = new HappeningListener(
+                returnPayload,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        HappeningListener groupListener =
+                new HappeningListener(returnPayload, eventName, eventGroupId).startListening();
+
+        for (int i = 0; i < 10; i++) {
+            Happening.sendEvent(eventGroupId, eventName);
+            Happening.publish(Happening.GROUP_ID_GLOBAL, eventName, null);
+        }
+
+        EventMetrics eventMetrics = HappeningMetrics.snapshot(eventName);
+
+        assertEquals(20, eventMetrics.sendCount);
+        assertEquals(30, eventMetrics.matchedListenerCount);
+        assertEquals(20, eventMetrics.sendLatency.getCount());
+        assertEquals(2, eventMetrics.listeners.size());
+
+        for (ListenerMetrics iterMetrics : eventMetrics.listeners) {
+            if (iterMetrics.uid == globalListener.uid) {
+                assertEquals(20, iterMetrics.latency.getCount());
+            }
+            else {
+                assertEquals(groupListener.uid, iterMetrics.uid);
+                assertEquals(10, iterMetrics.latency.getCount());
+            }
+            assertEquals(0, iterMetrics.slowInvocationCount);
+        }
+
+        HappeningMetrics.setEnabled(false);
+        Happening.sendEvent(eventGroupId, eventName);
+        assertEquals(20, HappeningMetrics.snapshot(eventName).sendCount);
+
+        HappeningMetrics.reset();
+        assertNull(HappeningMetrics.snapshot(eventName));
+
+        globalListener.endListening();
+        groupListener.endListening();
+    }
+
+    public void testHubMetrics() {
+
+        String eventName = Happening.getEventName(getClass(), "metrics_3");
+
+        RunObject returnNull = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return null;
+            }
+        };
+
+        HappeningHub hub = new HappeningHub();
+
+        HappeningListener hubListener =
+                new HappeningListener(returnNull, eventName, Happening.GROUP_ID_GLOBAL)
+                        .startListening(hub);
+        HappeningListener defaultListener =
+                new HappeningListener(returnNull, eventName, Happening.GROUP_ID_GLOBAL)
+                        .startListening();
+
+        hub.sendEvent(eventName);
+        hub.sendEvent(eventName);
+        Happening.sendEvent(eventName);
+
+        // Each hub has its own counters for the same eventName
+        EventMetrics hubMetrics = HappeningMetrics.snapshot(hub, eventName);
+        assertEquals(2, hubMetrics.sendCount);
+        assertEquals(1, hubMetrics.listeners.size());
+        assertEquals(hubListener.uid, hubMetrics.listeners.get(0).uid);
+
+        EventMetrics defaultMetrics = HappeningMetrics.snapshot(eventName);
+        assertEquals(1, defaultMetrics.sendCount);
+        assertEquals(1, defaultMetrics.listeners.size());
+        assertEquals(defaultListener.uid, defaultMetrics.listeners.get(0).uid);
+
+        assertEquals(1, HappeningMetrics.snapshot(hub).size());
+
+        HappeningMetrics.reset();
+        assertNull(HappeningMetrics.snapshot(hub, eventName));
+
+        hubListener.endListening();
+        defaultListener.endListening();
+    }
+
+    public void testWildcardMetrics() {
+
+        String prefix = Happening.getEventName(getClass(), "metrics_4.");
+        String pattern = prefix + HappeningListener.WILDCARD;
+
+        RunObject returnNull = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return null;
+            }
+        };
+
+        HappeningHub hub = new HappeningHub();
+
+        HappeningListener wildcardListener =
+                HappeningListener.wildcard(returnNull, pattern, Happening.GROUP_ID_GLOBAL)
+                        .startListening(hub);
+        HappeningListener exactListener =
+                new HappeningListener(returnNull, prefix + "exact", Happening.GROUP_ID_GLOBAL)
+                        .startListening(hub);
+
+        for (int i = 0; i < 100; i++) {
+            hub.sendEvent(prefix + i);
+        }
+        hub.sendEvent(prefix + "exact");
+
+        // Dynamic eventNames are counted under their pattern
+        assertEquals(2, HappeningMetrics.snapshot(hub).size());
+
+        EventMetrics patternMetrics = HappeningMetrics.snapshot(hub, pattern);
+        assertEquals(100, patternMetrics.sendCount);
+        assertEquals(100, patternMetrics.matchedListenerCount);
+        assertEquals(1, patternMetrics.listeners.size());
+        assertEquals(wildcardListener.uid, patternMetrics.listeners.get(0).uid);
+
+        EventMetrics exactMetrics = HappeningMetrics.snapshot(hub, prefix + "exact");
+        assertEquals(1, exactMetrics.sendCount);
+        assertEquals(2, exactMetrics.listeners.size());
+
+        HappeningMetrics.reset();
+        hub.removeAllListeners();
+    }
+
+    public void testSlowListener() {
+
+        String eventName = Happening.getEventName(getClass(), "metrics_2");
+
+        final AtomicReference<ListenerMetrics> slowMetrics = new AtomicReference<>();
+
+        HappeningMetrics.setSlowListenerThreshold(1, TimeUnit.MILLISECONDS);
+        HappeningMetrics.setSlowListenerCallback(new Run<Void, ListenerMetrics>() {
+            @Override
+            public Void r(ListenerMetrics listenerMetrics) {
+                slowMetrics.set(listenerMetrics);
+                return null;
+            }
+        });
+
+        HappeningListener slowListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return null;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        Happening.sendEvent(eventName);
+
+        assertNotNull(slowMetrics.get());
+        assertEquals(slowListener.uid, slowMetrics.get().uid);
+        assertEquals(1, slowMetrics.get().slowInvocationCount);
+        assertTrue(slowMetrics.get().lastSlowInvocationNanos >= TimeUnit.MILLISECONDS.toNanos(5));
+
+        slowListener.endListening();
+    }
+
+    public void testHistogram() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMaxNanos());
+        assertEquals(500500, snapshot.getMeanNanos());
+        assertEquals(1000000, snapshot.getValueAtPercentile(100));
+
+        // Percentiles are within 1/16 of the recorded value
+        assertTrue(Math.abs(snapshot.getValueAtPercentile(50) - 500000) <= 500000 / 16);
+        assertTrue(Math.abs(snapshot.getValueAtPercentile(99) - 990000) <= 990000 / 16);
+
+        // Every value maps to a bucket whose highest value is not below it
+        long previousIndex = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index >= previousIndex);
+            assertTrue(LatencyHistogram.bucketHighestValue(index) >= value);
+            previousIndex = index;
+        }
+
+        assertEquals(
+                LatencyHistogram.bucketIndex(Long.MAX_VALUE),
+                LatencyHistogram.bucketIndex(1L << 40)
+        );
+    }
+
+}
@@ -12,6 +12,7 @@ import com.ztory.lib.happening.typed.TypedPayload;
 
 import java.util.ArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Example implementation class of HappeningPod
@@ -34,6 +35,10 @@ public class HappeningPodExample extends HappeningPod<ArrayList<String>> {
 
     public static final int MAGAZINE_FIND_ALL = 44;
 
+    public static final int MAGAZINE_FIND_SHARED = 45;
+
+    public static final AtomicInteger magazineFindSharedCount = new AtomicInteger(0);
+
     protected HappeningPodExample() {
         super(podCreateExecutor(HappeningPodExample.class.getSimpleName(), 4));
     }
@@ -47,6 +52,24 @@ public class HappeningPodExample extends HappeningPod<ArrayList<String>> {
         );
     }
 
+    public final Deed<ArrayList<String>, Void> podMagazineFindShared(CountDownLatch latch) {
+        return pod(
+                HappeningPodExample.ASYNC_TRUE,
+                new Slab<Void>()
+                        .putSlab(Slab.MODE, HappeningPodExample.MAGAZINE_FIND_SHARED)
+                        .putSlab(CountDownLatch.class.getName(), latch)
+        );
+    }
+
+    @Override
+    protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+    Object podQueryKey(Q query) {
+        if (query.typed(TypedMap.MODE, -1) == MAGAZINE_FIND_SHARED) {
+            return podQueryContentKey(query);
+        }
+        return null;
+    }
+
     @Override
     protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
     DeedSetter<ArrayList<String>, P> podCreateResult(Q query) throws DeedException {
@@ -57,7 +80,24 @@ public class HappeningPodExample extends HappeningPod<ArrayList<String>> {
     protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
     void podProcess(Q query, DeedSetter<ArrayList<String>, P> result) throws DeedException {
 
-        if (query.typed(TypedMap.MODE, -1) == MAGAZINE_FIND_ALL) {
+        if (query.typed(TypedMap.MODE, -1) == MAGAZINE_FIND_SHARED) {
+
+            magazineFindSharedCount.incrementAndGet();
+
+            CountDownLatch latch = query.typed(CountDownLatch.class.getName());
+
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            ArrayList<String> listResult = new ArrayList<>();
+            listResult.add("DONE processing findSharedMagazines() call!");
+
+            result.setSuccess(podSecret(), listResult);
+        }
+        else if (query.typed(TypedMap.MODE, -1) == MAGAZINE_FIND_ALL) {
 
             CountDownLatch latch = query.typed(CountDownLatch.class.getName());
 
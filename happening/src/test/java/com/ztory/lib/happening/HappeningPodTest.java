@@ -2,13 +2,19 @@ package com.ztory.lib.happening;
 
 import com.ztory.lib.happening.deed.Deed;
 import com.ztory.lib.happening.deed.DeedCallback;
+import com.ztory.lib.happening.deed.DeedSetter;
+import com.ztory.lib.happening.pod.HappeningPod;
 import com.ztory.lib.happening.typed.Slab;
+import com.ztory.lib.happening.typed.TypedMap;
+import com.ztory.lib.happening.typed.TypedPayload;
 
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests for the HappeningPod-functionality, using the HappeningPodExample-implementation class
@@ -160,4 +166,227 @@ public class HappeningPodTest extends TestCase {
         );
     }
 
+    public void testSingleFlight() throws Exception {
+
+        HappeningPodExample pod = HappeningPodExample.get();
+        int processedCount = HappeningPodExample.magazineFindSharedCount.get();
+        long coalescedCount = pod.podCoalescedCount();
+
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+
+        Deed<ArrayList<String>, Void> deed1, deed2, deed3;
+
+        deed1 = pod.podMagazineFindShared(releaseLatch);
+        deed2 = pod.podMagazineFindShared(releaseLatch);
+        deed3 = pod.podMagazineFindShared(releaseLatch);
+
+        // Identical queries in flight share one Deed
+        assertSame(deed1, deed2);
+        assertSame(deed1, deed3);
+        assertEquals(coalescedCount + 2, pod.podCoalescedCount());
+
+        // Queries with other contents are not coalesced
+        CountDownLatch otherLatch = new CountDownLatch(1);
+        Deed<ArrayList<String>, Void> otherDeed = pod.podMagazineFindShared(otherLatch);
+        assertNotSame(deed1, otherDeed);
+
+        final CountDownLatch finishedLatch = new CountDownLatch(2);
+        DeedCallback<Deed<ArrayList<String>, Void>> finishedCallback =
+                new DeedCallback<Deed<ArrayList<String>, Void>>() {
+                    @Override
+                    public void callback(Deed<ArrayList<String>, Void> result) {
+                        finishedLatch.countDown();
+                    }
+                };
+        deed1.addListener(finishedCallback);
+        otherDeed.addListener(finishedCallback);
+
+        releaseLatch.countDown();
+        otherLatch.countDown();
+        assertTrue(finishedLatch.await(4000, TimeUnit.MILLISECONDS));
+
+        assertEquals(
+                "[DONE processing findSharedMagazines() call!]",
+                deed1.getData().toString()
+        );
+        assertEquals(processedCount + 2, HappeningPodExample.magazineFindSharedCount.get());
+
+        // Finished queries are not shared, the key is removed after podProcess() has returned
+        Deed<ArrayList<String>, Void> deed4 = deed1;
+        long timeoutTs = System.currentTimeMillis() + 4000;
+        while (deed4 == deed1 && System.currentTimeMillis() < timeoutTs) {
+            Thread.sleep(1);
+            deed4 = pod.podMagazineFindShared(releaseLatch);
+        }
+        assertNotSame(deed1, deed4);
+    }
+
+    private static class BlockingPod extends HappeningPod<String> {
+
+        final AtomicInteger
+                runningCount = new AtomicInteger(),
+                runningCountMax = new AtomicInteger();
+
+        /** Query 0 waits for this latch if it is set. */
+        volatile CountDownLatch blockLatch;
+
+        BlockingPod(int maxConcurrency) {
+            super(podCreateBlockingExecutor(BlockingPod.class.getSimpleName(), maxConcurrency, 16));
+        }
+
+        Deed<String, Void> find(int id) {
+            return pod(new Slab<Void>().putSlab(Slab.ID, id));
+        }
+
+        @Override
+        protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+        void podProcess(Q query, DeedSetter<String, P> result) throws Exception {
+
+            int running = runningCount.incrementAndGet();
+            int runningMax;
+            while (running > (runningMax = runningCountMax.get())) {
+                runningCountMax.compareAndSet(runningMax, running);
+            }
+
+            try {
+                CountDownLatch latch = blockLatch;
+                if (latch != null && query.typed(TypedMap.ID).equals(0)) {
+                    latch.await(4, TimeUnit.SECONDS);
+                }
+                Thread.sleep(5);//blocking I/O
+            } finally {
+                runningCount.decrementAndGet();
+            }
+
+            result.setSuccess(podSecret(), "item " + query.typed(TypedMap.ID));
+        }
+    }
+
+    public void testBlockingExecutor() throws Exception {
+
+        BlockingPod pod = new BlockingPod(4);
+
+        final CountDownLatch finishedLatch = new CountDownLatch(100);
+        DeedCallback<Deed<String, Void>> finishedCallback = new DeedCallback<Deed<String, Void>>() {
+            @Override
+            public void callback(Deed<String, Void> result) {
+                finishedLatch.countDown();
+            }
+        };
+
+        ArrayList<Deed<String, Void>> deeds = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            Deed<String, Void> deed = pod.find(i);
+            deed.addListener(finishedCallback);
+            deeds.add(deed);
+        }
+
+        assertTrue(finishedLatch.await(4000, TimeUnit.MILLISECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("item " + i, deeds.get(i).getData());
+        }
+
+        // Virtual threads wait for one of 4 permits, or the pool has min(16, 4) threads
+        assertTrue(pod.runningCountMax.get() <= 4);
+        assertTrue(pod.runningCountMax.get() > 1);
+    }
+
+    public void testBlockingQuery() throws Exception {
+
+        BlockingPod pod = new BlockingPod(4);
+        pod.blockLatch = new CountDownLatch(1);
+
+        Deed<String, Void> blockedDeed = pod.find(0);
+
+        // Queries sent after a blocked query finish while it is still blocked
+        for (int i = 1; i <= 10; i++) {
+            Deed<String, Void> deed = pod.find(i);
+
+            long timeoutMillis = System.currentTimeMillis() + 4000;
+            while (!deed.isFinished() && System.currentTimeMillis() < timeoutMillis) {
+                Thread.sleep(1);
+            }
+
+            assertEquals("item " + i, deed.getData());
+        }
+
+        assertFalse(blockedDeed.isFinished());
+
+        pod.blockLatch.countDown();
+
+        long timeoutMillis = System.currentTimeMillis() + 4000;
+        while (!blockedDeed.isFinished() && System.currentTimeMillis() < timeoutMillis) {
+            Thread.sleep(1);
+        }
+
+        assertEquals("item 0", blockedDeed.getData());
+    }
+
+    public void testPermitExecutor() throws Exception {
+
+        // Thread per task, like the virtual thread executor that newBlockingExecutor() uses
+        Executor threadPerTask = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        };
+
+        Executor executor = HappeningExecutors.newPermitExecutor(threadPerTask, 2);
+
+        final AtomicInteger
+                runningCount = new AtomicInteger(),
+                runningCountMax = new AtomicInteger();
+        final CountDownLatch blockedStarted = new CountDownLatch(1),
+                release = new CountDownLatch(1),
+                finishedLatch = new CountDownLatch(20);
+
+        executor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        blockedStarted.countDown();
+                        try {
+                            release.await(4, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+        );
+
+        assertTrue(blockedStarted.await(4, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 20; i++) {
+            executor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            int running = runningCount.incrementAndGet();
+                            int runningMax;
+                            while (running > (runningMax = runningCountMax.get())) {
+                                runningCountMax.compareAndSet(runningMax, running);
+                            }
+                            try {
+                                Thread.sleep(2);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                runningCount.decrementAndGet();
+                            }
+                            finishedLatch.countDown();
+                        }
+                    }
+            );
+        }
+
+        // The blocked task holds one of the 2 permits, the other tasks share the other one
+        assertTrue(finishedLatch.await(4, TimeUnit.SECONDS));
+        assertEquals(1, runningCountMax.get());
+
+        release.countDown();
+    }
+
 }
@@ -0,0 +1,201 @@
+package com.ztory.lib.happening;
+
+import com.ztory.lib.happening.ring.HappeningRing;
+import com.ztory.lib.happening.ring.RingWaitStrategy;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for HappeningRing routing, ordering and wrapping of the ring with several publishers.
+ */
+public class HappeningRingTest extends TestCase {
+
+    private static RunObject collect(final List<Object> payloads) {
+        return new RunObject() {
+            @Override
+            public Object r(Object o) {
+                payloads.add(o);
+                return null;
+            }
+        };
+    }
+
+    public void testRouting() {
+
+        int groupId = Happening.getUniqueCustomGroupId();
+        int otherGroupId = Happening.getUniqueCustomGroupId();
+
+        List<Object> globalPayloads = Collections.synchronizedList(new ArrayList<Object>());
+        List<Object> groupPayloads = Collections.synchronizedList(new ArrayList<Object>());
+        List<Object> otherNamePayloads = Collections.synchronizedList(new ArrayList<Object>());
+
+        HappeningRing ring = new HappeningRing(16, RingWaitStrategy.YIELD)
+                .addListener(new HappeningListener(
+                        collect(globalPayloads),
+                        "ring_event",
+                        Happening.GROUP_ID_GLOBAL
+                ))
+                .addListener(new HappeningListener(collect(groupPayloads), "ring_event", groupId))
+                .addListener(new HappeningListener(
+                        collect(otherNamePayloads),
+                        "ring_event_other",
+                        Happening.GROUP_ID_GLOBAL
+                ))
+                .start();
+
+        for (int i = 0; i < 100; i++) {
+            ring.publish(i % 2 == 0 ? groupId : otherGroupId, "ring_event", i);
+        }
+        ring.publish("ring_event", 100);
+
+        ring.halt();
+
+        assertEquals(101, globalPayloads.size());
+        assertEquals(50, groupPayloads.size());
+        assertEquals(0, otherNamePayloads.size());
+
+        for (int i = 0; i < globalPayloads.size(); i++) {
+            assertEquals(i, globalPayloads.get(i));
+        }
+
+        for (int i = 0; i < groupPayloads.size(); i++) {
+            assertEquals(i * 2, groupPayloads.get(i));
+        }
+
+        try {
+            ring.publish("ring_event", 101);
+            fail("publish() after halt() should throw");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    public void testMultiplePublishers() throws Exception {
+
+        final int publisherCount = 4, eventsPerPublisher = 10000;
+
+        final List<Object> payloadsOne = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Object> payloadsTwo = Collections.synchronizedList(new ArrayList<Object>());
+
+        // A small ring, so that publishers wrap it and have to wait for the consumers
+        final HappeningRing ring = new HappeningRing(8, RingWaitStrategy.parking(1000))
+                .addListener(new HappeningListener(
+                        collect(payloadsOne),
+                        "ring_event",
+                        Happening.GROUP_ID_GLOBAL
+                ))
+                .addListener(new HappeningListener(
+                        collect(payloadsTwo),
+                        "ring_event",
+                        Happening.GROUP_ID_GLOBAL
+                ))
+                .start();
+
+        final CountDownLatch doneLatch = new CountDownLatch(publisherCount);
+
+        for (int i = 0; i < publisherCount; i++) {
+            final int publisherIndex = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < eventsPerPublisher; j++) {
+                        ring.publish("ring_event", publisherIndex * eventsPerPublisher + j);
+                    }
+                    doneLatch.countDown();
+                }
+            }).start();
+        }
+
+        doneLatch.await();
+        ring.halt();
+
+        assertEquals(publisherCount * eventsPerPublisher, payloadsOne.size());
+        assertEquals(payloadsOne, payloadsTwo);
+
+        // Events of the same publisher are consumed in publish order
+        int[] lastPayloads = new int[publisherCount];
+        for (int i = 0; i < publisherCount; i++) {
+            lastPayloads[i] = -1;
+        }
+
+        for (Object iterPayload : payloadsOne) {
+            int payload = (Integer) iterPayload;
+            int publisherIndex = payload / eventsPerPublisher;
+            assertTrue(payload > lastPayloads[publisherIndex]);
+            lastPayloads[publisherIndex] = payload;
+        }
+    }
+
+    public void testListenerError() {
+
+        final List<Object> payloads = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Throwable> reported = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Thread.UncaughtExceptionHandler defaultHandler =
+                Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(
+                new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(Thread thread, Throwable throwable) {
+                        reported.add(throwable);
+                    }
+                }
+        );
+
+        try {
+            HappeningRing ring = new HappeningRing(4, RingWaitStrategy.YIELD)
+                    .addListener(new HappeningListener(
+                            new RunObject() {
+                                @Override
+                                public Object r(Object o) {
+                                    if (o.equals(0)) {
+                                        throw new AssertionError("listener error");
+                                    }
+                                    payloads.add(o);
+                                    return null;
+                                }
+                            },
+                            "ring_event",
+                            Happening.GROUP_ID_GLOBAL
+                    ))
+                    .start();
+
+            // The ring wraps several times, so publishers would block on a dead consumer
+            for (int i = 0; i < 20; i++) {
+                ring.publish("ring_event", i);
+            }
+
+            ring.halt();
+
+            assertEquals(19, payloads.size());
+            assertEquals(1, reported.size());
+            assertTrue(reported.get(0) instanceof AssertionError);
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        }
+    }
+
+    public void testAddListenerAfterStart() {
+
+        HappeningRing ring = new HappeningRing(4, RingWaitStrategy.BUSY_SPIN).start();
+
+        try {
+            ring.addListener(new HappeningListener(
+                    collect(new ArrayList<Object>()),
+                    "ring_event",
+                    Happening.GROUP_ID_GLOBAL
+            ));
+            fail("addListener() after start() should throw");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        ring.halt();
+    }
+
+}
@@ -3,7 +3,16 @@ package com.ztory.lib.happening;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tests for the AppPod-functionality, using the AppPodExample-implementation class for testing.
@@ -269,4 +278,1313 @@ public class HappeningTest extends TestCase {
         }
     }
 
+    public void testConcurrentSendAndRegister() throws Exception {
+
+        final int eventGroupId = Happening.getUniqueCustomGroupId();
+        final String eventName = Happening.getEventName(getClass(), "test_listener_6");
+
+        final int senderCount = 4, sendCount = 20000;
+
+        final AtomicInteger receivedCount = new AtomicInteger(0);
+        final AtomicReference<Throwable> senderException = new AtomicReference<>();
+
+        new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        receivedCount.incrementAndGet();
+                        return null;
+                    }
+                },
+                eventName,
+                eventGroupId
+        ).startListening();
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(senderCount);
+
+        for (int i = 0; i < senderCount; i++) {
+            new Thread(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                startLatch.await();
+                                for (int j = 0; j < sendCount; j++) {
+                                    Happening.sendEvent(eventGroupId, eventName);
+                                }
+                            } catch (Throwable t) {
+                                senderException.set(t);
+                            }
+                            doneLatch.countDown();
+                        }
+                    }
+            ).start();
+        }
+
+        startLatch.countDown();
+
+        // Register and remove listeners while senders are iterating the listener snapshots
+        while (doneLatch.getCount() > 0) {
+            new HappeningListener(
+                    new RunObject() {
+                        @Override
+                        public Object r(Object o) {
+                            return null;
+                        }
+                    },
+                    eventName,
+                    eventGroupId,
+                    Happening.GROUP_ID_DO_NOT_RELEASE
+            ).startListening().endListening();
+        }
+
+        doneLatch.await();
+
+        assertNull(senderException.get());
+        assertEquals(senderCount * sendCount, receivedCount.get());
+
+        Happening.removeListeners(eventGroupId);
+
+        assertNull(Happening.sendEvent(eventGroupId, eventName));
+    }
+
+    public void testGroupScopedListeners() {
+
+        int groupIdOne = Happening.getUniqueCustomGroupId();
+        int groupIdTwo = Happening.getUniqueCustomGroupId();
+        String eventName = Happening.getEventName(getClass(), "test_listener_7");
+
+        HappeningListener globalListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        return "global";
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        return "one";
+                    }
+                },
+                eventName,
+                groupIdOne
+        ).startListening();
+
+        new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        return "two";
+                    }
+                },
+                eventName,
+                groupIdTwo
+        ).startListening();
+
+        ArrayList<Object> returnData = Happening.sendEvent(groupIdOne, eventName);
+        assertEquals(2, returnData.size());
+        assertEquals("global", returnData.get(0));
+        assertEquals("one", returnData.get(1));
+
+        returnData = Happening.sendEvent(groupIdTwo, eventName);
+        assertEquals(2, returnData.size());
+        assertEquals("global", returnData.get(0));
+        assertEquals("two", returnData.get(1));
+
+        returnData = Happening.sendEvent(eventName);
+        assertEquals(1, returnData.size());
+        assertEquals("global", returnData.get(0));
+
+        returnData = Happening.sendEvent(Happening.getUniqueCustomGroupId(), eventName);
+        assertEquals(1, returnData.size());
+
+        Happening.removeListeners(groupIdOne);
+
+        returnData = Happening.sendEvent(groupIdOne, eventName);
+        assertEquals(1, returnData.size());
+        assertEquals("global", returnData.get(0));
+
+        Happening.removeListeners(groupIdTwo);
+        globalListener.endListening();
+
+        assertNull(Happening.sendEvent(groupIdOne, eventName));
+        assertNull(Happening.sendEvent(eventName));
+    }
+
+    public void testReleaseGroupIds() {
+
+        int listenGroupId = Happening.getUniqueCustomGroupId();
+        int releaseGroupIdOne = Happening.getUniqueCustomGroupId();
+        int releaseGroupIdTwo = Happening.getUniqueCustomGroupId();
+        String eventName = Happening.getEventName(getClass(), "test_listener_8");
+        String otherEventName = Happening.getEventName(getClass(), "test_listener_9");
+
+        RunObject returnPayload = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return o;
+            }
+        };
+
+        HappeningListener releasedByBoth = new HappeningListener(
+                returnPayload,
+                eventName,
+                listenGroupId,
+                releaseGroupIdOne, releaseGroupIdTwo
+        ).startListening();
+
+        new HappeningListener(
+                returnPayload,
+                otherEventName,
+                Happening.GROUP_ID_GLOBAL,
+                releaseGroupIdTwo
+        ).startListening();
+
+        HappeningListener notReleased = new HappeningListener(
+                returnPayload,
+                eventName,
+                listenGroupId,
+                Happening.GROUP_ID_DO_NOT_RELEASE
+        ).startListening();
+
+        assertEquals(2, Happening.sendEvent(listenGroupId, eventName).size());
+        assertEquals(1, Happening.sendEvent(otherEventName).size());
+
+        // Releasing on the listenGroupId does nothing since it is not a releaseGroupId
+        Happening.removeListeners(listenGroupId);
+        assertEquals(2, Happening.sendEvent(listenGroupId, eventName).size());
+
+        Happening.removeListeners(releaseGroupIdTwo);
+        assertEquals(1, Happening.sendEvent(listenGroupId, eventName).size());
+        assertNull(Happening.sendEvent(otherEventName));
+
+        // Already released on releaseGroupIdTwo, so releasing releaseGroupIdOne does nothing
+        Happening.removeListeners(releaseGroupIdOne);
+        assertEquals(1, Happening.sendEvent(listenGroupId, eventName).size());
+
+        // A released listener can be registered again
+        releasedByBoth.startListening();
+        assertEquals(2, Happening.sendEvent(listenGroupId, eventName).size());
+
+        Happening.removeListeners(releaseGroupIdOne);
+        assertEquals(1, Happening.sendEvent(listenGroupId, eventName).size());
+
+        notReleased.endListening();
+        assertNull(Happening.sendEvent(listenGroupId, eventName));
+    }
+
+    public void testSendEventAsync() throws Exception {
+
+        String eventName = Happening.getEventName(getClass(), "test_listener_10");
+
+        final CountDownLatch countDownLatch = new CountDownLatch(2);
+        final AtomicReference<Thread> senderThread = new AtomicReference<>(Thread.currentThread());
+        final AtomicInteger sameThreadCount = new AtomicInteger(0);
+
+        RunObject countDown = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                if (Thread.currentThread() == senderThread.get()) {
+                    sameThreadCount.incrementAndGet();
+                }
+                countDownLatch.countDown();
+                return o;
+            }
+        };
+
+        HappeningListener listenerOne = new HappeningListener(
+                countDown,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        HappeningListener listenerTwo = new HappeningListener(
+                countDown,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        Happening.sendEventAsync(eventName);
+
+        assertTrue(countDownLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, sameThreadCount.get());
+
+        listenerOne.endListening();
+        listenerTwo.endListening();
+    }
+
+    public void testAsyncEvent() {
+
+        String eventName = Happening.getEventName(getClass(), "test_listener_11");
+
+        final ArrayList<Runnable> executedTasks = new ArrayList<>();
+        Executor collectExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedTasks.add(command);
+            }
+        };
+
+        HappeningListener listener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        return o;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        assertEquals(1, Happening.sendEvent(eventName).size());
+
+        Happening.setAsyncEvent(eventName, collectExecutor);
+        assertNull(Happening.sendEvent(eventName));
+        Happening.sendEventAsync(eventName);
+        assertEquals(2, executedTasks.size());
+
+        // The async setting is kept when the last listener is removed
+        listener.endListening();
+        assertNull(Happening.sendEvent(eventName));
+        listener.startListening();
+        assertNull(Happening.sendEvent(eventName));
+        assertEquals(3, executedTasks.size());
+
+        Happening.setAsyncEvent(eventName, false);
+        assertEquals(1, Happening.sendEvent(eventName).size());
+        assertEquals(3, executedTasks.size());
+
+        listener.endListening();
+    }
+
+    public void testSendEvents() {
+
+        int eventGroupId = Happening.getUniqueActivityId();
+        String eventName = Happening.getEventName(getClass(), "test_listener_12");
+
+        final ArrayList<Object> receivedPayloads = new ArrayList<>();
+        final AtomicInteger batchCount = new AtomicInteger(0);
+
+        HappeningListener batchListener = new HappeningListener(
+                new RunObjectBatch() {
+                    @Override
+                    public Object rBatch(Collection<?> payloads) {
+                        batchCount.incrementAndGet();
+                        return payloads.size();
+                    }
+
+                    @Override
+                    public Object r(Object o) {
+                        return -1;
+                    }
+                },
+                eventName,
+                eventGroupId
+        ).startListening();
+
+        HappeningListener singleListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        receivedPayloads.add(o);
+                        return o;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        ArrayList<Object> payloads = new ArrayList<>();
+        payloads.add("one");
+        payloads.add("two");
+        payloads.add("three");
+
+        ArrayList<Object> returnData = Happening.sendEvents(eventGroupId, eventName, payloads);
+
+        assertEquals(4, returnData.size());
+        assertEquals(3, returnData.get(0));
+        assertEquals(payloads, returnData.subList(1, 4));
+        assertEquals(payloads, receivedPayloads);
+        assertEquals(1, batchCount.get());
+
+        // The batch listener is not in the GROUP_ID_GLOBAL scope
+        returnData = Happening.sendEvents(eventName, payloads);
+        assertEquals(payloads, returnData);
+        assertEquals(1, batchCount.get());
+
+        // Single events still call r() on batch listeners
+        assertEquals(-1, Happening.sendEvent(eventGroupId, eventName).get(0));
+
+        assertNull(Happening.sendEvents(eventGroupId, eventName, new ArrayList<Object>()));
+
+        batchListener.endListening();
+        singleListener.endListening();
+    }
+
+    public void testPublish() {
+
+        int eventGroupId = Happening.getUniqueActivityId();
+        String eventName = Happening.getEventName(getClass(), "test_listener_13");
+
+        final AtomicInteger callCount = new AtomicInteger(0);
+
+        HappeningListener voidListener = new HappeningListener(
+                new RunObjectVoid() {
+                    @Override
+                    public void rVoid(Object o) {
+                        callCount.incrementAndGet();
+                    }
+                },
+                eventName,
+                eventGroupId
+        ).startListening();
+
+        HappeningListener lengthListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        callCount.incrementAndGet();
+                        return ((String) o).length();
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        Happening.publish(eventGroupId, eventName, "four");
+        assertEquals(2, callCount.get());
+
+        RunReduce<int[]> sumLengths = new RunReduce<int[]>() {
+            @Override
+            public int[] r(int[] accumulator, Object listenerReturn) {
+                if (listenerReturn != null) {
+                    accumulator[0] += (Integer) listenerReturn;
+                }
+                return accumulator;
+            }
+        };
+
+        int[] sum = new int[1];
+        assertSame(sum, Happening.publishReduce(eventGroupId, eventName, "four", sum, sumLengths));
+        assertEquals(4, sum[0]);
+        assertEquals(4, callCount.get());
+
+        // The void listener returns null, so its value is folded too
+        RunReduce<Integer> countReturns = new RunReduce<Integer>() {
+            @Override
+            public Integer r(Integer accumulator, Object listenerReturn) {
+                return accumulator + 1;
+            }
+        };
+        assertEquals(
+                Integer.valueOf(2),
+                Happening.publishReduce(eventGroupId, eventName, "four", 0, countReturns)
+        );
+
+        voidListener.endListening();
+        lengthListener.endListening();
+
+        assertEquals(
+                Integer.valueOf(0),
+                Happening.publishReduce(eventGroupId, eventName, "four", 0, countReturns)
+        );
+    }
+
+    public void testEventKey() {
+
+        int eventGroupId = Happening.getUniqueActivityId();
+        EventKey eventKey = Happening.key(getClass(), "test_listener_14");
+
+        assertSame(eventKey, Happening.key(getClass(), "test_listener_14"));
+        assertSame(eventKey, Happening.key(eventKey.eventName));
+        assertNotSame(eventKey, Happening.key(getClass(), "test_listener_15"));
+
+        RunObject returnPayload = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return o;
+            }
+        };
+
+        HappeningListener keyListener =
+                new HappeningListener(returnPayload, eventKey, eventGroupId).startListening();
+
+        // Listeners registered with the eventName String get the keyed events as well
+        HappeningListener nameListener = new HappeningListener(
+                returnPayload,
+                eventKey.eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        assertEquals(2, Happening.sendEvent(eventGroupId, eventKey, "payload").size());
+        assertEquals(2, Happening.sendEvent(eventGroupId, eventKey.eventName, "payload").size());
+        assertEquals(1, Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventKey, null).size());
+
+        // The key keeps working after all listeners have been removed and added again
+        keyListener.endListening();
+        nameListener.endListening();
+        assertNull(Happening.sendEvent(eventGroupId, eventKey, "payload"));
+
+        nameListener.startListening();
+        assertEquals(1, Happening.sendEvent(eventGroupId, eventKey, "payload").size());
+        nameListener.endListening();
+    }
+
+    public void testWeakListener() throws Exception {
+
+        String eventName = Happening.getEventName(getClass(), "test_listener_16");
+
+        RunObject strongRun = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return o;
+            }
+        };
+
+        HappeningListener strongListener = HappeningListener.weak(
+                strongRun,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        for (int i = 0; i < 100; i++) {
+            HappeningListener.weak(
+                    new RunObject() {
+                        @Override
+                        public Object r(Object o) {
+                            return o;
+                        }
+                    },
+                    eventName,
+                    Happening.getUniqueCustomGroupId()
+            ).startListening();
+        }
+
+        // The 100 anonymous callbacks are only weakly reachable and are swept after a GC
+        int sweptCount = 0;
+
+        for (int i = 0; i < 50 && sweptCount < 100; i++) {
+            System.gc();
+            Thread.sleep(10);
+            sweptCount += Happening.sweepWeakListeners();
+        }
+
+        assertEquals(100, sweptCount);
+        assertEquals(1, Happening.sendEvent(eventName).size());
+        assertSame(strongRun, strongListener.getListenerRun());
+
+        strongListener.endListening();
+        assertNull(Happening.sendEvent(eventName));
+    }
+
+    public void testListenerExecutor() throws Exception {
+
+        String eventName = Happening.getEventName(getClass(), "test_listener_17");
+
+        final ArrayList<Runnable> executedTasks = new ArrayList<>();
+        Executor collectExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedTasks.add(command);
+            }
+        };
+
+        final ArrayList<Object> received = new ArrayList<>();
+
+        HappeningListener executorListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        received.add(o);
+                        return o;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(collectExecutor).startListening();
+
+        HappeningListener syncListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        return o;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        // Only the synchronous listener returns a value, the other one runs on collectExecutor
+        assertEquals(1, Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, "one").size());
+        assertEquals(1, executedTasks.size());
+        assertTrue(received.isEmpty());
+
+        executedTasks.get(0).run();
+        assertEquals("one", received.get(0));
+
+        // The delivery of "one" has been recycled, so the delivery of "two" may be the same task
+        Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, "two");
+        executedTasks.get(1).run();
+        assertEquals("two", received.get(1));
+
+        try {
+            executorListener.setExecutor(null);
+            fail("setExecutor() must fail on a started listener");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        executorListener.endListening();
+        syncListener.endListening();
+
+        // A serial executor over a pool delivers in send order
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        final int eventCount = 1000;
+        final CountDownLatch countDownLatch = new CountDownLatch(eventCount);
+        final ArrayList<Object> ordered = new ArrayList<>();
+
+        HappeningListener serialListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        synchronized (ordered) {
+                            ordered.add(o);
+                        }
+                        countDownLatch.countDown();
+                        return null;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(HappeningExecutors.newSerialExecutor(threadPool)).startListening();
+
+        for (int i = 0; i < eventCount; i++) {
+            Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, i);
+        }
+
+        assertTrue(countDownLatch.await(5, TimeUnit.SECONDS));
+
+        synchronized (ordered) {
+            for (int i = 0; i < eventCount; i++) {
+                assertEquals(i, ordered.get(i));
+            }
+        }
+
+        serialListener.endListening();
+        threadPool.shutdown();
+    }
+
+    public void testConflate() throws Exception {
+
+        int eventGroupId = Happening.getUniqueActivityId();
+        String eventName = Happening.getEventName(getClass(), "test_listener_18");
+
+        final ArrayList<Runnable> executedTasks = new ArrayList<>();
+        Executor collectExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedTasks.add(command);
+            }
+        };
+
+        final ArrayList<Object> received = new ArrayList<>();
+
+        HappeningListener listener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        received.add(o);
+                        return o;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(collectExecutor).setConflate(true).startListening();
+
+        // Pending sends are merged per eventGroupId, only one task is scheduled for each
+        for (int i = 0; i < 100; i++) {
+            Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, i);
+            Happening.sendEvent(eventGroupId, eventName, -i);
+        }
+
+        assertEquals(2, executedTasks.size());
+
+        executedTasks.get(0).run();
+        executedTasks.get(1).run();
+        assertEquals(99, received.get(0));
+        assertEquals(-99, received.get(1));
+
+        // The latest payload of a batch wins, null is delivered as a payload
+        ArrayList<Object> payloads = new ArrayList<>();
+        payloads.add("first");
+        payloads.add(null);
+        Happening.sendEvents(eventName, payloads);
+        assertEquals(3, executedTasks.size());
+        executedTasks.get(2).run();
+        assertEquals(3, received.size());
+        assertNull(received.get(2));
+
+        listener.endListening();
+
+        // A sync listener is not conflated by setConflateEvent() until the event is async
+        HappeningListener syncListener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        return o;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        Happening.setConflateEvent(eventName, true);
+        assertEquals(1, Happening.sendEvent(eventName).size());
+
+        executedTasks.clear();
+        Happening.setAsyncEvent(eventName, collectExecutor);
+        Happening.sendEvent(eventName);
+        Happening.sendEvent(eventName);
+        assertEquals(1, executedTasks.size());
+
+        Happening.setAsyncEvent(eventName, false);
+        Happening.setConflateEvent(eventName, false);
+        syncListener.endListening();
+    }
+
+    public void testConflateKeys() throws Exception {
+
+        HappeningHub hub = new HappeningHub();
+        String prefix = Happening.getEventName(getClass(), "test_listener_27.");
+
+        final ArrayList<Runnable> executedTasks = new ArrayList<>();
+        Executor collectExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedTasks.add(command);
+            }
+        };
+
+        final ArrayList<Object> received = new ArrayList<>();
+
+        HappeningListener listener = HappeningListener.wildcard(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        received.add(o);
+                        return null;
+                    }
+                },
+                prefix + HappeningListener.WILDCARD,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(collectExecutor).setConflate(true).startListening(hub);
+
+        // Two eventNames in the same groupId are conflated separately
+        hub.sendEvent(Happening.GROUP_ID_GLOBAL, prefix + "a", "a1");
+        hub.sendEvent(Happening.GROUP_ID_GLOBAL, prefix + "b", "b1");
+        hub.sendEvent(Happening.GROUP_ID_GLOBAL, prefix + "a", "a2");
+
+        assertEquals(2, executedTasks.size());
+        assertEquals(2, listener.getConflatedDeliveryCount());
+
+        executedTasks.get(0).run();
+        executedTasks.get(1).run();
+        assertEquals("[a2, b1]", received.toString());
+
+        // Deliveries that have nothing pending are removed
+        assertEquals(0, listener.getConflatedDeliveryCount());
+
+        executedTasks.clear();
+
+        for (int groupId = 1; groupId <= 1000; groupId++) {
+            hub.sendEvent(groupId, prefix + "a", groupId);
+        }
+
+        assertEquals(1000, listener.getConflatedDeliveryCount());
+
+        for (Runnable iterTask : executedTasks) {
+            iterTask.run();
+        }
+
+        assertEquals(1002, received.size());
+        assertEquals(0, listener.getConflatedDeliveryCount());
+
+        // A send after the delivery has been removed creates a new one
+        hub.sendEvent(Happening.GROUP_ID_GLOBAL, prefix + "a", "a3");
+        assertEquals(1, listener.getConflatedDeliveryCount());
+        executedTasks.get(executedTasks.size() - 1).run();
+        assertEquals("a3", received.get(received.size() - 1));
+
+        listener.endListening();
+    }
+
+    public void testListenerQueue() throws Exception {
+
+        String eventName = Happening.getEventName(getClass(), "test_listener_19");
+
+        final ArrayList<Runnable> executedTasks = new ArrayList<>();
+        Executor collectExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedTasks.add(command);
+            }
+        };
+
+        final ArrayList<Object> received = new ArrayList<>();
+        RunObject receive = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                synchronized (received) {
+                    received.add(o);
+                }
+                return o;
+            }
+        };
+
+        // QUEUE_DROP_NEWEST keeps the first payloads, one drain task is scheduled
+        HappeningListener listener = new HappeningListener(
+                receive,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(collectExecutor)
+                .setQueue(2, HappeningListener.QUEUE_DROP_NEWEST)
+                .startListening();
+
+        for (int i = 0; i < 5; i++) {
+            Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, i);
+        }
+
+        assertEquals(2, listener.getQueueCapacity());
+        assertEquals(2, listener.getQueueDepth());
+        assertEquals(3, listener.getQueueDroppedCount());
+        assertEquals(1, executedTasks.size());
+
+        executedTasks.get(0).run();
+        assertEquals(0, listener.getQueueDepth());
+        assertEquals(0, received.get(0));
+        assertEquals(1, received.get(1));
+        listener.endListening();
+
+        // QUEUE_DROP_OLDEST keeps the latest payloads
+        executedTasks.clear();
+        received.clear();
+        listener = new HappeningListener(
+                receive,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(collectExecutor)
+                .setQueue(2, HappeningListener.QUEUE_DROP_OLDEST)
+                .startListening();
+
+        for (int i = 0; i < 5; i++) {
+            Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, i);
+        }
+
+        assertEquals(3, listener.getQueueDroppedCount());
+        executedTasks.get(0).run();
+        assertEquals(3, received.get(0));
+        assertEquals(4, received.get(1));
+        listener.endListening();
+
+        // QUEUE_FAIL_FAST rejects the send
+        executedTasks.clear();
+        listener = new HappeningListener(
+                receive,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(collectExecutor)
+                .setQueue(1, HappeningListener.QUEUE_FAIL_FAST)
+                .startListening();
+
+        Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, 0);
+
+        try {
+            Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, 1);
+            fail("A full QUEUE_FAIL_FAST queue must reject the send");
+        } catch (RejectedExecutionException e) {
+            //expected
+        }
+
+        assertEquals(1, listener.getQueueDroppedCount());
+        listener.endListening();
+
+        // QUEUE_BLOCK makes the sender wait for a slow listener, nothing is dropped
+        final int eventCount = 200;
+        final CountDownLatch countDownLatch = new CountDownLatch(eventCount);
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        received.clear();
+
+        listener = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        received.add(o);
+                        Thread.yield();
+                        countDownLatch.countDown();
+                        return o;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setExecutor(singleThread)
+                .setQueue(4, HappeningListener.QUEUE_BLOCK)
+                .startListening();
+
+        for (int i = 0; i < eventCount; i++) {
+            Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, i);
+            assertTrue(listener.getQueueDepth() <= 4);
+        }
+
+        assertTrue(countDownLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, listener.getQueueDroppedCount());
+
+        for (int i = 0; i < eventCount; i++) {
+            assertEquals(i, received.get(i));
+        }
+
+        listener.endListening();
+        singleThread.shutdown();
+    }
+
+    public void testWildcardListener() {
+
+        int eventGroupId = Happening.getUniqueActivityId();
+        String prefix = Happening.getEventName(getClass(), "test_listener_20.");
+        String pattern = prefix + HappeningListener.WILDCARD;
+
+        RunObject returnPayload = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return o;
+            }
+        };
+
+        HappeningListener exactListener = new HappeningListener(
+                returnPayload,
+                prefix + "a",
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        // Matches the existing eventName "a" right away, and "b" on its first send
+        HappeningListener wildcardListener = HappeningListener.wildcard(
+                returnPayload,
+                pattern,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        HappeningListener groupWildcardListener = HappeningListener.wildcard(
+                returnPayload,
+                pattern,
+                eventGroupId
+        ).startListening();
+
+        assertTrue(wildcardListener.matchesEventName(prefix + "b"));
+        assertFalse(exactListener.matchesEventName(prefix + "b"));
+
+        assertEquals(2, Happening.sendEvent(prefix + "a").size());
+        assertEquals(1, Happening.sendEvent(prefix + "b").size());
+        assertEquals(2, Happening.sendEvent(eventGroupId, prefix + "b").size());
+        assertNull(Happening.sendEvent(Happening.getEventName(getClass(), "test_listener_21")));
+
+        // Releasing the groupId only removes the group wildcard listener
+        Happening.removeListeners(eventGroupId);
+        assertEquals(1, Happening.sendEvent(eventGroupId, prefix + "b").size());
+
+        wildcardListener.endListening();
+        assertNull(Happening.sendEvent(prefix + "b"));
+        assertEquals(1, Happening.sendEvent(prefix + "a").size());
+
+        // A wildcard listener can also be removed by its pattern
+        wildcardListener = HappeningListener.wildcard(
+                returnPayload,
+                pattern,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        assertEquals(2, Happening.sendEvent(prefix + "a").size());
+        Happening.removeListeners(pattern);
+        assertEquals(1, Happening.sendEvent(prefix + "a").size());
+        assertFalse(groupWildcardListener.registered || wildcardListener.registered);
+
+        exactListener.endListening();
+
+        HappeningListener classListener = HappeningListener.wildcard(
+                returnPayload,
+                Happening.getEventNamePattern(getClass()),
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        assertEquals(1, Happening.sendEvent(Happening.getEventName(getClass(), "any")).size());
+
+        classListener.endListening();
+
+        // Listeners created with a constructor listen to their literal eventName
+        HappeningListener literalListener = new HappeningListener(
+                returnPayload,
+                pattern,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+
+        assertFalse(literalListener.matchesEventName(prefix + "a"));
+        assertNull(Happening.sendEvent(prefix + "b"));
+        assertEquals(1, Happening.sendEvent(pattern).size());
+
+        literalListener.endListening();
+
+        try {
+            HappeningListener.wildcard(returnPayload, prefix, Happening.GROUP_ID_GLOBAL);
+            fail("A pattern without WILDCARD must throw");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testWildcardDynamicEventNames() {
+
+        HappeningHub hub = new HappeningHub();
+        String prefix = Happening.getEventName(getClass(), "test_listener_25.");
+
+        final AtomicInteger receivedCount = new AtomicInteger();
+
+        HappeningListener wildcardListener = HappeningListener.wildcard(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        receivedCount.incrementAndGet();
+                        return null;
+                    }
+                },
+                prefix + HappeningListener.WILDCARD,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening(hub);
+
+        // Sends of eventNames without listeners of their own must not store anything
+        for (int i = 0; i < 10000; i++) {
+            hub.sendEvent(prefix + i);
+            hub.sendEvent(Happening.getEventName(getClass(), "test_listener_26." + i));
+        }
+
+        assertEquals(10000, receivedCount.get());
+        assertEquals(0, hub.getEventNameCount());
+
+        wildcardListener.endListening();
+        assertNull(hub.sendEvent(prefix + 1));
+    }
+
+    public void testWildcardNestedPatterns() {
+
+        HappeningHub hub = new HappeningHub();
+        String prefix = Happening.getEventName(getClass(), "test_listener_28.");
+
+        RunObject returnPayload = new RunObject() {
+            @Override
+            public Object r(Object o) {
+                return o;
+            }
+        };
+
+        HappeningListener.wildcard(
+                returnPayload,
+                prefix + HappeningListener.WILDCARD,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening(hub);
+
+        HappeningListener innerListener = HappeningListener.wildcard(
+                returnPayload,
+                prefix + "inner." + HappeningListener.WILDCARD,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening(hub);
+
+        // Patterns do not have to end at a "." of the eventName
+        HappeningListener partialListener = HappeningListener.wildcard(
+                returnPayload,
+                prefix + "in" + HappeningListener.WILDCARD,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening(hub);
+
+        assertEquals(3, hub.sendEvent(prefix + "inner.a").size());
+        assertEquals(2, hub.sendEvent(prefix + "input").size());
+        assertEquals(1, hub.sendEvent(prefix + "other").size());
+        assertEquals(2, hub.sendEvent(prefix + "in").size());
+        assertNull(hub.sendEvent(Happening.getEventName(getClass(), "test_listener_29")));
+
+        partialListener.endListening();
+        assertEquals(2, hub.sendEvent(prefix + "inner.a").size());
+        assertEquals(1, hub.sendEvent(prefix + "input").size());
+
+        innerListener.endListening();
+        assertEquals(1, hub.sendEvent(prefix + "inner.a").size());
+        assertEquals(0, hub.getEventNameCount());
+
+        hub.removeAllListeners();
+        assertNull(hub.sendEvent(prefix + "inner.a"));
+    }
+
+    public void testPriority() {
+
+        int eventGroupId = Happening.getUniqueActivityId();
+        String eventName = Happening.getEventName(getClass(), "test_listener_22");
+
+        final ArrayList<String> callOrder = new ArrayList<>();
+
+        HappeningListener low = newOrderListener(callOrder, "low", eventName, eventGroupId)
+                .setPriority(-10)
+                .startListening();
+        HappeningListener global = newOrderListener(
+                callOrder,
+                "global",
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening();
+        HappeningListener high = newOrderListener(callOrder, "high", eventName, eventGroupId)
+                .setPriority(10)
+                .startListening();
+        HappeningListener defaultOne = newOrderListener(callOrder, "0a", eventName, eventGroupId)
+                .startListening();
+        HappeningListener defaultTwo = newOrderListener(callOrder, "0b", eventName, eventGroupId)
+                .startListening();
+
+        // Group and global listeners are merged by priority, then by creation order
+        Happening.sendEvent(eventGroupId, eventName);
+        assertEquals("[high, global, 0a, 0b, low]", callOrder.toString());
+
+        // Returning STOP_PROPAGATION consumes the event
+        callOrder.clear();
+        ArrayList<Object> returned = Happening.sendEvent(eventGroupId, eventName, "stop:0a");
+        assertEquals("[high, global, 0a]", callOrder.toString());
+        assertEquals(2, returned.size());
+
+        // In a batch only the payloads that a listener returns STOP_PROPAGATION for are consumed
+        callOrder.clear();
+        ArrayList<Object> payloads = new ArrayList<>();
+        payloads.add("batch");
+        payloads.add("stop:high");
+        payloads.add("stop:0a");
+        returned = Happening.sendEvents(eventGroupId, eventName, payloads);
+        assertEquals(
+                "[high, high, high, global, global, 0a, 0a, 0b, low]",
+                callOrder.toString()
+        );
+        assertEquals(7, returned.size());
+
+        try {
+            high.setPriority(0);
+            fail("setPriority() must fail on a started listener");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        low.endListening();
+        global.endListening();
+        high.endListening();
+        defaultOne.endListening();
+        defaultTwo.endListening();
+    }
+
+    public void testBatchStopPropagation() {
+
+        HappeningHub hub = new HappeningHub();
+        String eventName = Happening.getEventName(getClass(), "test_listener_30");
+
+        final ArrayList<Object> firstPayloads = new ArrayList<>();
+        final ArrayList<Object> lastPayloads = new ArrayList<>();
+
+        HappeningListener first = new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        firstPayloads.add(o);
+                        return "stop".equals(o) ? Happening.STOP_PROPAGATION : null;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setPriority(1).setFilter(
+                new Run<Boolean, Object>() {
+                    @Override
+                    public Boolean r(Object o) {
+                        return !"skip".equals(o);
+                    }
+                }
+        );
+        first.startListening(hub);
+
+        new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        lastPayloads.add(o);
+                        return null;
+                    }
+                },
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening(hub);
+
+        // The first listener gets the payloads its filter accepts and consumes "stop"
+        hub.sendEvents(eventName, Arrays.asList("skip", "stop", "keep", "stop", "skip"));
+        assertEquals("[stop, keep, stop]", firstPayloads.toString());
+        assertEquals("[skip, keep, skip]", lastPayloads.toString());
+
+        // Consuming every payload stops the batch
+        lastPayloads.clear();
+        hub.sendEvents(eventName, Arrays.asList("stop", "stop"));
+        assertTrue(lastPayloads.isEmpty());
+
+        hub.removeAllListeners();
+    }
+
+    public void testFilter() {
+
+        String eventName = Happening.getEventName(getClass(), "test_listener_23");
+
+        final ArrayList<Runnable> executedTasks = new ArrayList<>();
+        Executor collectExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executedTasks.add(command);
+            }
+        };
+
+        Run<Boolean, Object> evenOnly = new Run<Boolean, Object>() {
+            @Override
+            public Boolean r(Object o) {
+                return o instanceof Integer && (Integer) o % 2 == 0;
+            }
+        };
+
+        final ArrayList<Object> received = new ArrayList<>();
+        RunObjectBatch receive = new RunObjectBatch() {
+            @Override
+            public Object rBatch(Collection<?> payloads) {
+                received.add(new ArrayList<Object>(payloads));
+                return null;
+            }
+
+            @Override
+            public Object r(Object o) {
+                received.add(o);
+                return o;
+            }
+        };
+
+        HappeningListener syncListener = new HappeningListener(
+                receive,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setFilter(evenOnly).startListening();
+
+        HappeningListener executorListener = new HappeningListener(
+                receive,
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).setFilter(evenOnly).setExecutor(collectExecutor).startListening();
+
+        // Discarded payloads do not reach the callback or the executor
+        assertNull(Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, 1));
+        assertTrue(received.isEmpty());
+        assertTrue(executedTasks.isEmpty());
+
+        assertEquals(1, Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, 2).size());
+        assertEquals(1, executedTasks.size());
+        assertEquals(2, received.get(0));
+
+        // Batches are filtered payload by payload
+        received.clear();
+        executedTasks.clear();
+        ArrayList<Object> payloads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            payloads.add(i);
+        }
+        Happening.sendEvents(eventName, payloads);
+        executedTasks.get(0).run();
+        assertEquals("[[0, 2, 4], [0, 2, 4]]", received.toString());
+
+        syncListener.endListening();
+        executorListener.endListening();
+    }
+
+    public void testHub() {
+
+        String eventName = Happening.getEventName(getClass(), "test_listener_24");
+
+        HappeningHub hubA = new HappeningHub();
+        HappeningHub hubB = new HappeningHub();
+
+        final ArrayList<String> callOrder = new ArrayList<>();
+
+        newOrderListener(callOrder, "default", eventName, Happening.GROUP_ID_GLOBAL)
+                .startListening();
+        HappeningListener listenerA = newOrderListener(
+                callOrder,
+                "a",
+                eventName,
+                Happening.GROUP_ID_GLOBAL
+        ).startListening(hubA);
+        newOrderListener(callOrder, "b", eventName, Happening.GROUP_ID_GLOBAL)
+                .startListening(hubB);
+
+        // Every hub only reaches its own listeners
+        hubA.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+        hubB.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+        Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+        assertEquals("[a, b, default]", callOrder.toString());
+
+        // A listener can not be registered in two hubs at once and ends in its own hub
+        callOrder.clear();
+        listenerA.startListening(hubB);
+        hubB.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+        listenerA.endListening();
+        hubA.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+        assertEquals("[b]", callOrder.toString());
+
+        // Keys can only be used with the hub that created them
+        EventKey keyA = hubA.key(eventName);
+        try {
+            hubB.sendEvent(Happening.GROUP_ID_GLOBAL, keyA, null);
+            fail("EventKey of another hub was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // Removing every listener of a hub keeps the other hubs and the key intact
+        callOrder.clear();
+        newOrderListener(callOrder, "key", eventName, Happening.GROUP_ID_GLOBAL)
+                .startListening(hubA);
+        hubB.removeAllListeners();
+        hubA.sendEvent(Happening.GROUP_ID_GLOBAL, keyA, null);
+        hubB.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+        Happening.sendEvent(Happening.GROUP_ID_GLOBAL, eventName, null);
+        assertEquals("[key, default]", callOrder.toString());
+
+        hubA.removeAllListeners();
+        Happening.removeListeners(eventName);
+    }
+
+    private static HappeningListener newOrderListener(
+            final ArrayList<String> callOrder,
+            final String name,
+            String eventName,
+            int listenGroupId
+    ) {
+        return new HappeningListener(
+                new RunObject() {
+                    @Override
+                    public Object r(Object o) {
+                        callOrder.add(name);
+                        return (("stop:" + name).equals(o)) ? Happening.STOP_PROPAGATION : name;
+                    }
+                },
+                eventName,
+                listenGroupId
+        );
+    }
+
 }
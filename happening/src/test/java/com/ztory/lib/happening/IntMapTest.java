@@ -0,0 +1,118 @@
+package com.ztory.lib.happening;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Tests the IntMap and IntSet classes used by Happening.
+ */
+public class IntMapTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    public void testPutGetRemove() {
+
+        IntMap<String> intMap = new IntMap<>();
+
+        assertNull(intMap.get(0));
+        assertNull(intMap.put(0, "zero"));
+        assertNull(intMap.put(-1, "minus one"));
+        assertNull(intMap.put(Integer.MAX_VALUE, "max"));
+
+        assertEquals("zero", intMap.get(0));
+        assertEquals("minus one", intMap.get(-1));
+        assertEquals("max", intMap.get(Integer.MAX_VALUE));
+        assertEquals(3, intMap.size());
+
+        assertEquals("zero", intMap.put(0, "ZERO"));
+        assertEquals("ZERO", intMap.get(0));
+        assertEquals(3, intMap.size());
+
+        assertEquals("minus one", intMap.remove(-1));
+        assertNull(intMap.remove(-1));
+        assertNull(intMap.get(-1));
+        assertEquals(2, intMap.size());
+
+        // Putting a removed key reuses its slot
+        assertNull(intMap.put(-1, "minus one again"));
+        assertEquals("minus one again", intMap.get(-1));
+        assertEquals(3, intMap.size());
+    }
+
+    public void testRandomOperations() {
+
+        IntMap<Integer> intMap = new IntMap<>();
+        HashMap<Integer, Integer> expectedMap = new HashMap<>();
+        Random random = new Random(42);
+
+        int key;
+
+        for (int i = 0; i < 100000; i++) {
+
+            key = random.nextInt(2000) - 1000;
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expectedMap.remove(key), intMap.remove(key));
+            }
+            else {
+                assertEquals(expectedMap.put(key, i), intMap.put(key, i));
+            }
+
+            assertEquals(expectedMap.size(), intMap.size());
+        }
+
+        for (Entry<Integer, Integer> iterEntry : expectedMap.entrySet()) {
+            assertEquals(iterEntry.getValue(), intMap.get(iterEntry.getKey()));
+        }
+
+        int iteratedCount = 0;
+
+        for (int i = 0; i < intMap.capacity(); i++) {
+            if (intMap.valueAt(i) != null) {
+                assertEquals(expectedMap.get(intMap.keyAt(i)), intMap.valueAt(i));
+                iteratedCount++;
+            }
+        }
+
+        assertEquals(expectedMap.size(), iteratedCount);
+    }
+
+    public void testIntSet() {
+
+        IntSet intSet = new IntSet();
+
+        for (int i = -500; i < 500; i += 2) {
+            assertTrue(intSet.add(i));
+        }
+
+        assertFalse(intSet.add(-500));
+        assertEquals(500, intSet.size());
+
+        for (int i = -500; i < 500; i++) {
+            assertEquals(i % 2 == 0, intSet.contains(i));
+        }
+
+        int iteratedCount = 0;
+
+        for (int i = 0; i < intSet.capacity(); i++) {
+            if (intSet.isUsed(i)) {
+                assertTrue(intSet.valueAt(i) % 2 == 0);
+                iteratedCount++;
+            }
+        }
+
+        assertEquals(500, iteratedCount);
+    }
+
+}
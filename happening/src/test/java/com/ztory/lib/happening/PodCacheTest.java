@@ -0,0 +1,246 @@
+package com.ztory.lib.happening;
+
+import com.ztory.lib.happening.deed.Deed;
+import com.ztory.lib.happening.deed.DeedCallback;
+import com.ztory.lib.happening.deed.DeedException;
+import com.ztory.lib.happening.deed.DeedSetter;
+import com.ztory.lib.happening.pod.HappeningPod;
+import com.ztory.lib.happening.pod.PodCache;
+import com.ztory.lib.happening.pod.PodResult;
+import com.ztory.lib.happening.typed.Slab;
+import com.ztory.lib.happening.typed.TypedMap;
+import com.ztory.lib.happening.typed.TypedPayload;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for PodCache and the caching of HappeningPod results.
+ */
+public class PodCacheTest extends TestCase {
+
+    private static class CountingPod extends HappeningPod<String> {
+
+        volatile int processCount = 0;
+
+        CountingPod() {
+            this(null);
+        }
+
+        CountingPod(Executor theExecutor) {
+            super(theExecutor, ASYNC_FALSE);
+        }
+
+        void setCache(PodCache<String> cache) {
+            podSetCache(cache);
+        }
+
+        Deed<String, Void> find(int id) {
+            return pod(ASYNC_FALSE, new Slab<Void>().putSlab(Slab.ID, id));
+        }
+
+        Deed<String, ?> newDeed() {
+            return new PodResult<String, Void>(this, podGetUniqueTaskId());
+        }
+
+        @Override
+        protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+        Object podQueryKey(Q query) {
+            return podQueryContentKey(query);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+        void podProcess(Q query, DeedSetter<String, P> result) throws DeedException {
+
+            processCount++;
+
+            int id = query.typed(TypedMap.ID, -1);
+
+            if (id < 0) {
+                throw new DeedException("negative id");
+            }
+
+            result.setSuccess(podSecret(), "item " + id, (P) (Integer) processCount);
+        }
+    }
+
+    public void testLru() {
+
+        CountingPod pod = new CountingPod();
+        PodCache<String> cache = new PodCache<>(2);
+
+        Deed<String, ?> deed1 = pod.newDeed(), deed2 = pod.newDeed(), deed3 = pod.newDeed();
+
+        cache.put(1, deed1);
+        cache.put(2, deed2);
+        assertSame(deed1, cache.get(1));
+
+        // 2 is the least recently used entry
+        cache.put(3, deed3);
+        assertNull(cache.get(2));
+        assertSame(deed1, cache.get(1));
+        assertSame(deed3, cache.get(3));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.75, cache.getHitRate(), 0.0001);
+
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    public void testExpireAfterWrite() throws Exception {
+
+        CountingPod pod = new CountingPod();
+        PodCache<String> cache = new PodCache<String>(10)
+                .setExpireAfterWrite(20, TimeUnit.MILLISECONDS);
+
+        cache.put(1, pod.newDeed());
+        assertNotNull(cache.get(1));
+
+        Thread.sleep(40);
+
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    public void testWeigher() {
+
+        CountingPod pod = new CountingPod();
+        PodCache<String> cache = new PodCache<String>(10).setWeigher(
+                new Run<Integer, Deed<String, ?>>() {
+                    @Override
+                    public Integer r(Deed<String, ?> deed) {
+                        return 4;
+                    }
+                }
+        );
+
+        cache.put(1, pod.newDeed());
+        cache.put(2, pod.newDeed());
+        assertEquals(8, cache.getWeight());
+
+        cache.put(3, pod.newDeed());
+        assertEquals(8, cache.getWeight());
+        assertEquals(2, cache.size());
+        assertNull(cache.get(1));
+    }
+
+    public void testTinyLfu() {
+
+        CountingPod pod = new CountingPod();
+        PodCache<String> lruCache = new PodCache<>(100);
+        PodCache<String> lfuCache = new PodCache<String>(100)
+                .setEviction(PodCache.EVICTION_TINY_LFU);
+
+        // 50 popular keys that are requested over and over, then a scan of one-off keys
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                for (PodCache<String> iterCache : Arrays.asList(lruCache, lfuCache)) {
+                    if (iterCache.get(key) == null) {
+                        iterCache.put(key, pod.newDeed());
+                    }
+                }
+            }
+        }
+
+        for (int key = 1000; key < 1500; key++) {
+            for (PodCache<String> iterCache : Arrays.asList(lruCache, lfuCache)) {
+                if (iterCache.get(key) == null) {
+                    iterCache.put(key, pod.newDeed());
+                }
+            }
+        }
+
+        int lruPopularCount = 0, lfuPopularCount = 0;
+
+        for (int key = 0; key < 50; key++) {
+            lruPopularCount += (lruCache.get(key) != null) ? 1 : 0;
+            lfuPopularCount += (lfuCache.get(key) != null) ? 1 : 0;
+        }
+
+        assertEquals(0, lruPopularCount);
+        assertEquals(50, lfuPopularCount);
+        assertEquals(100, lfuCache.size());
+    }
+
+    public void testPodCache() {
+
+        CountingPod pod = new CountingPod();
+        pod.setCache(new PodCache<String>(10));
+
+        Deed<String, Void> deed = pod.find(1);
+        assertEquals("item 1", deed.getData());
+
+        // Cached results are returned without processing the query again
+        assertSame(deed, pod.find(1));
+        assertEquals(1, pod.processCount);
+        assertEquals(1, pod.podCache().getHitCount());
+
+        pod.find(2);
+        assertEquals(2, pod.processCount);
+
+        // Failed results are not cached
+        assertTrue(pod.find(-1).isFailed());
+        assertTrue(pod.find(-1).isFailed());
+        assertEquals(4, pod.processCount);
+    }
+
+    public void testStaleWhileRevalidate() throws Exception {
+
+        final ArrayList<Runnable> executedTasks = new ArrayList<>();
+        CountingPod pod = new CountingPod(
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        executedTasks.add(command);
+                    }
+                }
+        );
+        pod.setCache(
+                new PodCache<String>(10).setRefreshAfterWrite(1, TimeUnit.MILLISECONDS)
+        );
+
+        final ArrayList<Object> broadcastPayloads = new ArrayList<>();
+        pod.podAddListener(
+                new DeedCallback<Deed<String, ?>>() {
+                    @Override
+                    public void callback(Deed<String, ?> result) {
+                        broadcastPayloads.add(result.getPayload());
+                    }
+                }
+        );
+
+        Deed<String, Void> deed = pod.find(1);
+        Thread.sleep(5);
+
+        // A stale hit returns the cached Deed right away and starts a single refresh
+        assertSame(deed, pod.find(1));
+        assertSame(deed, pod.find(1));
+        assertEquals(1, executedTasks.size());
+        assertEquals(1, pod.processCount);
+
+        executedTasks.get(0).run();
+        assertEquals(2, pod.processCount);
+        assertEquals("[1, 2]", broadcastPayloads.toString());
+
+        Deed<String, Void> refreshedDeed = pod.find(1);
+        assertNotSame(deed, refreshedDeed);
+        assertEquals(2, refreshedDeed.getPayload());
+        assertEquals(1, pod.podCache().getRefreshCount());
+
+        pod.podRemoveAllListeners();
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,324 @@
+package com.ztory.lib.happening;
+
+import com.ztory.lib.happening.deed.Deed;
+import com.ztory.lib.happening.deed.DeedSetter;
+import com.ztory.lib.happening.pod.HappeningPod;
+import com.ztory.lib.happening.pod.PodExecutor;
+import com.ztory.lib.happening.typed.Slab;
+import com.ztory.lib.happening.typed.TypedMap;
+import com.ztory.lib.happening.typed.TypedPayload;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for PodExecutor and the prioritized queries of HappeningPod.
+ */
+public class PodExecutorTest extends TestCase {
+
+    private static class PriorityPod extends HappeningPod<String> {
+
+        PriorityPod(PodExecutor theExecutor) {
+            super(theExecutor, ASYNC_TRUE);
+        }
+
+        Deed<String, Void> find(int id, int priority) {
+            return pod(
+                    new Slab<Void>()
+                            .putSlab(Slab.ID, id)
+                            .putSlab(TypedMap.PRIORITY, priority)
+            );
+        }
+
+        @Override
+        protected <P, Q extends TypedMap<String, ?> & TypedPayload<P>>
+        void podProcess(Q query, DeedSetter<String, P> result) throws Exception {
+            result.setSuccess(podSecret(), "item " + query.typed(TypedMap.ID));
+        }
+    }
+
+    /**
+     * Runs on a worker thread until release is counted down.
+     */
+    private static Runnable blockingTask(
+            final CountDownLatch started,
+            final CountDownLatch release
+    ) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(4, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static Runnable addTask(
+            final List<String> runOrder,
+            final String name,
+            final CountDownLatch done
+    ) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runOrder.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    public void testPriority() throws Exception {
+
+        PodExecutor executor = new PodExecutor("testPriority", 1, 100);
+
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        executor.execute(blockingTask(started, release));
+        assertTrue(started.await(4, TimeUnit.SECONDS));
+
+        List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(4);
+
+        executor.execute(addTask(runOrder, "batch1", done), PodExecutor.PRIORITY_BATCH);
+        executor.execute(addTask(runOrder, "normal", done));
+        executor.execute(addTask(runOrder, "batch2", done), PodExecutor.PRIORITY_BATCH);
+        executor.execute(addTask(runOrder, "interactive", done), 42);
+
+        assertEquals(4, executor.getQueueDepth());
+        assertEquals(2, executor.getQueueDepth(PodExecutor.PRIORITY_BATCH));
+        assertEquals(1, executor.getQueueDepth(PodExecutor.PRIORITY_INTERACTIVE));
+        assertEquals(1, executor.getActiveCount());
+
+        release.countDown();
+        assertTrue(done.await(4, TimeUnit.SECONDS));
+
+        assertEquals("[interactive, normal, batch1, batch2]", runOrder.toString());
+        assertEquals(0, executor.getQueueDepth());
+
+        executor.shutdown();
+    }
+
+    public void testPriorityType() throws Exception {
+
+        PodExecutor executor = new PodExecutor("testPriorityType", 1, 100);
+        PriorityPod pod = new PriorityPod(executor);
+
+        // A priority that is not an Integer falls back to PRIORITY_NORMAL instead of throwing
+        Deed<String, Void> deed = pod.pod(
+                new Slab<Void>()
+                        .putSlab(Slab.ID, 1)
+                        .putSlab(TypedMap.PRIORITY, "interactive")
+        );
+
+        long timeoutMillis = System.currentTimeMillis() + 4000;
+        while (!deed.isFinished() && System.currentTimeMillis() < timeoutMillis) {
+            Thread.sleep(5);
+        }
+
+        assertEquals("item 1", deed.getData());
+
+        executor.shutdown();
+    }
+
+    public void testWorkStealing() throws Exception {
+
+        final PodExecutor executor = new PodExecutor("testWorkStealing", 2, 100);
+
+        final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(10);
+
+        // Tasks queued from a worker thread go to the deques of that worker, the worker stays
+        // busy until they are done so all of them must be stolen by the other worker
+        executor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 10; i++) {
+                            executor.execute(addTask(runOrder, "task" + i, done));
+                        }
+                        try {
+                            done.await(4, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+        );
+
+        assertTrue(done.await(4, TimeUnit.SECONDS));
+        assertEquals(10, runOrder.size());
+        // The outer task can be stolen as well, depending on which worker wakes up first
+        assertTrue(executor.getStolenCount() >= 10);
+
+        executor.shutdown();
+    }
+
+    public void testTaskError() throws Exception {
+
+        PodExecutor executor = new PodExecutor("testTaskError", 1, 100);
+
+        final List<Throwable> reported = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Thread.UncaughtExceptionHandler defaultHandler =
+                Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(
+                new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(Thread thread, Throwable throwable) {
+                        reported.add(throwable);
+                    }
+                }
+        );
+
+        try {
+            executor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            throw new IllegalStateException("task exception");
+                        }
+                    }
+            );
+
+            // The thread reports the exception and runs the next task
+            List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+            CountDownLatch done = new CountDownLatch(1);
+            executor.execute(addTask(runOrder, "after exception", done));
+
+            assertTrue(done.await(4, TimeUnit.SECONDS));
+            assertEquals(1, reported.size());
+            assertTrue(reported.get(0) instanceof IllegalStateException);
+
+            executor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            throw new AssertionError("task error");
+                        }
+                    }
+            );
+
+            // The Error kills the thread, a new thread runs the next task
+            done = new CountDownLatch(1);
+            executor.execute(addTask(runOrder, "after error", done));
+
+            assertTrue(done.await(4, TimeUnit.SECONDS));
+
+            long timeoutMillis = System.currentTimeMillis() + 4000;
+            while (reported.size() < 2 && System.currentTimeMillis() < timeoutMillis) {
+                Thread.sleep(5);
+            }
+
+            assertEquals(2, reported.size());
+            assertTrue(reported.get(1) instanceof AssertionError);
+            assertEquals(1, executor.getThreadCount());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+            executor.shutdown();
+        }
+    }
+
+    public void testKeepAlive() throws Exception {
+
+        PodExecutor executor =
+                new PodExecutor("testKeepAlive", 2, 100, 50, TimeUnit.MILLISECONDS);
+
+        assertEquals(0, executor.getThreadCount());
+
+        List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(2);
+        executor.execute(addTask(runOrder, "first", done));
+        executor.execute(addTask(runOrder, "second", done));
+        assertTrue(done.await(4, TimeUnit.SECONDS));
+
+        // Idle threads stop after the keep alive
+        long timeoutMillis = System.currentTimeMillis() + 4000;
+        while (executor.getThreadCount() > 0 && System.currentTimeMillis() < timeoutMillis) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(0, executor.getThreadCount());
+
+        // And are started again by the next task
+        done = new CountDownLatch(1);
+        executor.execute(addTask(runOrder, "third", done));
+        assertTrue(done.await(4, TimeUnit.SECONDS));
+        assertEquals(3, runOrder.size());
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(4, TimeUnit.SECONDS));
+        assertEquals(0, executor.getThreadCount());
+    }
+
+    public void testAwaitTermination() throws Exception {
+
+        PodExecutor executor = new PodExecutor("testAwaitTermination", 2, 100);
+
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        executor.execute(blockingTask(started, release));
+        assertTrue(started.await(4, TimeUnit.SECONDS));
+
+        List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 10; i++) {
+            executor.execute(addTask(runOrder, "task" + i, new CountDownLatch(1)));
+        }
+
+        executor.shutdown();
+        assertFalse(executor.awaitTermination(20, TimeUnit.MILLISECONDS));
+        assertFalse(executor.isTerminated());
+
+        // The queued tasks run before the threads stop, well before the 4 second keep alive
+        release.countDown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+        assertEquals(10, runOrder.size());
+        assertTrue(executor.isTerminated());
+    }
+
+    public void testRejection() throws Exception {
+
+        PodExecutor executor = new PodExecutor("testRejection", 1, 1);
+        PriorityPod pod = new PriorityPod(executor);
+
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        executor.execute(blockingTask(started, release));
+        assertTrue(started.await(4, TimeUnit.SECONDS));
+
+        Deed<String, Void> queuedDeed = pod.find(1, PodExecutor.PRIORITY_INTERACTIVE);
+        assertFalse(queuedDeed.isFinished());
+        assertEquals(1, executor.getQueueDepth(PodExecutor.PRIORITY_INTERACTIVE));
+
+        // The queue is full, the query fails instead of waiting
+        Deed<String, Void> rejectedDeed = pod.find(2, PodExecutor.PRIORITY_INTERACTIVE);
+        assertTrue(rejectedDeed.isFailed());
+        assertTrue(rejectedDeed.getException().getCause() instanceof RejectedExecutionException);
+        assertEquals(1, executor.getRejectedCount());
+
+        release.countDown();
+
+        long timeoutMillis = System.currentTimeMillis() + 4000;
+        while (!queuedDeed.isFinished() && System.currentTimeMillis() < timeoutMillis) {
+            Thread.sleep(5);
+        }
+
+        assertEquals("item 1", queuedDeed.getData());
+
+        executor.shutdown();
+
+        try {
+            executor.execute(addTask(new ArrayList<String>(), "shutdown", new CountDownLatch(1)));
+            fail("execute() after shutdown() must throw");
+        } catch (RejectedExecutionException e) {
+            assertEquals(2, executor.getRejectedCount());
+        }
+    }
+
+}